@@ -1,5 +1,8 @@
 package biocode.fims.application.config;
 
+import biocode.fims.fasta.FastaChangeFeed;
+import biocode.fims.service.FastaExportCache;
+import biocode.fims.service.FastaSequenceIndexService;
 import org.springframework.core.env.Environment;
 
 /**
@@ -35,4 +38,76 @@ public class TissueProperties {
         }
         return dir;
     }
+
+    /**
+     * @return the k-mer size used when indexing fasta sequences for similarity search
+     */
+    public int fastaKmerIndexK() {
+        return env.getProperty("fastaKmerIndexK", Integer.class, FastaSequenceIndexService.DEFAULT_K);
+    }
+
+    /**
+     * @return the max estimated size in bytes of the loaded fasta k-mer indexes
+     */
+    public long fastaKmerIndexMaxBytes() {
+        return env.getProperty("fastaKmerIndexMaxBytes", Long.class, FastaSequenceIndexService.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @return the directory to store cached fasta exports in
+     */
+    public String fastaExportCacheDir() {
+        return env.getProperty("fastaExportCacheDir", System.getProperty("java.io.tmpdir") + "/fasta-export-cache");
+    }
+
+    /**
+     * @return the max total size in bytes of the cached fasta exports
+     */
+    public long fastaExportCacheMaxBytes() {
+        return env.getProperty("fastaExportCacheMaxBytes", Long.class, FastaExportCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @return the number of threads used to write large fasta exports
+     */
+    public int fastaExportParallelism() {
+        return env.getProperty("fastaExportParallelism", Integer.class, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the max number of db connections held by parallel fasta exports. Should be less then the size of the
+     * DataSource connection pool
+     */
+    public int fastaExportDbConnections() {
+        return env.getProperty("fastaExportDbConnections", Integer.class, 4);
+    }
+
+    /**
+     * @return the directory to store the output of asynchronous fasta export jobs in
+     */
+    public String fastaExportJobDir() {
+        return env.getProperty("fastaExportJobDir", System.getProperty("java.io.tmpdir") + "/fasta-export-jobs");
+    }
+
+    /**
+     * @return the max number of asynchronous fasta export jobs to run concurrently
+     */
+    public int fastaExportJobThreads() {
+        return env.getProperty("fastaExportJobThreads", Integer.class, 2);
+    }
+
+    /**
+     * @return the number of milliseconds each fasta change feed window overlaps the previous window. Transactions which
+     * take longer then this to commit may be missed by the change feed
+     */
+    public long fastaChangeFeedOverlapMillis() {
+        return env.getProperty("fastaChangeFeedOverlapMillis", Long.class, FastaChangeFeed.DEFAULT_OVERLAP_MILLIS);
+    }
+
+    /**
+     * @return the number of uploaded fastq files to scan concurrently
+     */
+    public int fastqQcParallelism() {
+        return env.getProperty("fastqQcParallelism", Integer.class, Runtime.getRuntime().availableProcessors());
+    }
 }
@@ -4,13 +4,17 @@ import biocode.fims.config.Config;
 import biocode.fims.fasta.FastaProps;
 import biocode.fims.fasta.FastaRecord;
 import biocode.fims.models.dataTypes.JacksonUtil;
+import biocode.fims.validation.rules.FastaDuplicateSequenceRule;
+import biocode.fims.validation.rules.FastaSequenceAlphabetRule;
 import biocode.fims.validation.rules.RequiredValueRule;
 import biocode.fims.validation.rules.Rule;
 import biocode.fims.validation.rules.RuleLevel;
 import biocode.fims.validation.rules.UniqueValueRule;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 
 /**
  * @author rjewing
@@ -20,6 +24,10 @@ public class FastaEntity extends PropEntity<FastaProps> {
     private static final String CONCEPT_URI = "urn:fastaSequence";
     public static final String TYPE = "Fasta";
 
+    private static final String HEADER_TEMPLATE_KEY = "headerTemplate";
+
+    // see FastaHeaderTemplate. null to use the default header
+    private String headerTemplate;
 
     private FastaEntity() { // needed for EntityTypeIdResolver
         super(FastaProps.class);
@@ -39,7 +47,15 @@ public class FastaEntity extends PropEntity<FastaProps> {
         getAttribute(FastaProps.MARKER.column()).setInternal(true);
         recordType = FastaRecord.class;
 
-        // note: default rules are set in the FastaValidator
+        // note: default rules are added in addDefaultRules
+    }
+
+    public String getHeaderTemplate() {
+        return headerTemplate;
+    }
+
+    public void setHeaderTemplate(String headerTemplate) {
+        this.headerTemplate = headerTemplate;
     }
 
     @Override
@@ -47,6 +63,19 @@ public class FastaEntity extends PropEntity<FastaProps> {
         return TYPE;
     }
 
+    @Override
+    public Map<String, Object> additionalProps() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(HEADER_TEMPLATE_KEY, headerTemplate);
+        return props;
+    }
+
+    @Override
+    public void setAdditionalProps(Map<String, Object> props) {
+        if (props == null) return;
+        headerTemplate = (String) props.get(HEADER_TEMPLATE_KEY);
+    }
+
     @Override
     public boolean getUniqueAcrossProject() {
         return false;
@@ -67,12 +96,19 @@ public class FastaEntity extends PropEntity<FastaProps> {
 
         UniqueValueRule uniqueValueRule = new UniqueValueRule(FastaProps.IDENTIFIER.column(), getUniqueAcrossProject(), RuleLevel.ERROR);
         addRule(uniqueValueRule);
+
+        addRule(new FastaSequenceAlphabetRule());
+        addRule(new FastaDuplicateSequenceRule());
     }
 
 
     @Override
     public Entity clone() {
-        return clone(new FastaEntity(getConceptAlias()));
+        FastaEntity entity = (FastaEntity) clone(new FastaEntity(getConceptAlias()));
+
+        entity.setHeaderTemplate(getHeaderTemplate());
+
+        return entity;
     }
 
     /**
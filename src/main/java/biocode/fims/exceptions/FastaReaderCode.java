@@ -3,5 +3,5 @@ package biocode.fims.exceptions;
 import biocode.fims.fimsExceptions.errorCodes.ErrorCode;
 
 public enum FastaReaderCode implements ErrorCode {
-    NO_DATA
+    NO_DATA, RECORD_TOO_LARGE, MISSING_MARKER, INVALID_EXTENSION
 }
@@ -3,5 +3,5 @@ package biocode.fims.exceptions;
 import biocode.fims.fimsExceptions.errorCodes.ErrorCode;
 
 public enum FastaWriteCode implements ErrorCode {
-    INVALID_ENTITY
+    INVALID_ENTITY, TOO_MANY_EXPORT_JOBS, TOMBSTONES_NOT_INSTALLED
 }
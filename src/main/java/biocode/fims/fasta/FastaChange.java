@@ -0,0 +1,61 @@
+package biocode.fims.fasta;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Date;
+
+/**
+ * A fasta record which was created or modified
+ *
+ * @author rjewing
+ */
+public class FastaChange {
+    @JsonProperty
+    private final String bcid;
+    @JsonProperty
+    private final String expeditionCode;
+    @JsonProperty
+    private final String marker;
+    @JsonProperty
+    private final String header;
+    @JsonProperty
+    private final String sequence;
+    @JsonProperty
+    private final Date modified;
+
+    public FastaChange(String bcid, String expeditionCode, String marker, String header, String sequence, Date modified) {
+        this.bcid = bcid;
+        this.expeditionCode = expeditionCode;
+        this.marker = marker;
+        this.header = header;
+        this.sequence = sequence;
+        this.modified = modified;
+    }
+
+    public String bcid() {
+        return bcid;
+    }
+
+    public String expeditionCode() {
+        return expeditionCode;
+    }
+
+    public String marker() {
+        return marker;
+    }
+
+    /**
+     * @return the fasta header line, w/o the leading '>'
+     */
+    public String header() {
+        return header;
+    }
+
+    public String sequence() {
+        return sequence;
+    }
+
+    public Date modified() {
+        return modified;
+    }
+}
@@ -0,0 +1,46 @@
+package biocode.fims.fasta;
+
+import org.springframework.util.Assert;
+
+import java.sql.Timestamp;
+
+/**
+ * A page of the fasta change feed. Includes the changes (or deletions) w/ a timestamp in (since, until], ordered by
+ * timestamp & bcid. If after is not null, only those ordered after (after, afterBcid) are included.
+ * <p>
+ * Timestamps keep the full db precision, so a page boundary never falls between 2 records in the same millisecond.
+ *
+ * @author rjewing
+ */
+public class FastaChangeCursor {
+    private final Timestamp since;
+    private final Timestamp until;
+    private final Timestamp after;
+    private final String afterBcid;
+
+    public FastaChangeCursor(Timestamp since, Timestamp until, Timestamp after, String afterBcid) {
+        Assert.notNull(since);
+        Assert.notNull(until);
+        Assert.isTrue(after == null || afterBcid != null, "afterBcid is required if after is set");
+        this.since = since;
+        this.until = until;
+        this.after = after;
+        this.afterBcid = afterBcid;
+    }
+
+    public Timestamp since() {
+        return since;
+    }
+
+    public Timestamp until() {
+        return until;
+    }
+
+    public Timestamp after() {
+        return after;
+    }
+
+    public String afterBcid() {
+        return afterBcid;
+    }
+}
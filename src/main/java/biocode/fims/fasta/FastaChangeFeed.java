@@ -0,0 +1,127 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Incremental feed of fasta records, allowing mirrors to sync w/o re-downloading a full export.
+ * <p>
+ * Each response contains up to limit records created or modified after the since token, up to limit identifiers of
+ * deleted records, and the token to use for the next request. If more changes are available, {@link FastaChanges#more()}
+ * is true and the next token continues paging through the same window.
+ * <p>
+ * The entity tables only record when a row was modified, not when the transaction committed, so a transaction which
+ * commits after the changes are read can contain rows timestamped before the end of the window. To avoid missing these,
+ * the next window starts overlapMillis before the end of the current window. Transactions which take longer than
+ * overlapMillis to commit can still be missed. Records in the overlap are returned more than once, so mirrors should
+ * treat changes as upserts.
+ *
+ * @author rjewing
+ */
+public class FastaChangeFeed {
+    public static final long DEFAULT_OVERLAP_MILLIS = 60 * 1000;
+
+    private final FastaRepository fastaRepository;
+    private final int networkId;
+    private final FastaExportCriteria criteria;
+    private final long overlapMillis;
+    private final Entity parentEntity;
+    private final FastaHeaderTemplate headerTemplate;
+
+    public FastaChangeFeed(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config) {
+        this(fastaRepository, networkId, criteria, config, DEFAULT_OVERLAP_MILLIS);
+    }
+
+    public FastaChangeFeed(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config,
+                           long overlapMillis) {
+        Entity entity = config.entity(criteria.conceptAlias());
+        if (entity == null || !Objects.equals(entity.type(), FastaEntity.TYPE)) {
+            throw new FimsRuntimeException(FastaWriteCode.INVALID_ENTITY, 500, entity == null ? null : entity.type());
+        }
+
+        this.fastaRepository = fastaRepository;
+        this.networkId = networkId;
+        this.criteria = criteria;
+        this.overlapMillis = overlapMillis;
+
+        parentEntity = config.entity(entity.getParentEntity());
+        headerTemplate = FastaHeaderTemplate.forEntity(entity, config);
+    }
+
+    /**
+     * @param token token returned from a previous request
+     * @param limit the max number of changes & the max number of deletions to return
+     * @return
+     */
+    public FastaChanges changes(FastaChangeToken token, int limit) {
+        // read the timestamp first, so any changes made while we are querying will be included in the next window
+        Timestamp until = token.until() == null ? new Timestamp(fastaRepository.currentTimestamp().getTime()) : token.until();
+        FastaChangeCursor changesCursor = token.changesCursor(until);
+        FastaChangeCursor deletionsCursor = token.deletionsCursor(until);
+
+        List<FastaChange> changes = new ArrayList<>();
+        fastaRepository.streamChanges(networkId, criteria, parentEntity.getConceptAlias(), parentEntity.getUniqueKey(),
+                headerTemplate.parentAttributes(), changesCursor, limit, record -> {
+                    String bcid = (String) record.get("bcid");
+                    changes.add(new FastaChange(
+                            bcid,
+                            (String) record.get("expeditionCode"),
+                            (String) record.get(FastaProps.MARKER.uri()),
+                            header(bcid, record),
+                            (String) record.get(FastaProps.SEQUENCE.uri()),
+                            (Date) record.get("modified")
+                    ));
+                });
+
+        List<FastaTombstone> deletions = fastaRepository.getDeletions(networkId, criteria, deletionsCursor, limit);
+
+        boolean more = changes.size() >= limit || deletions.size() >= limit;
+
+        FastaChangeToken next;
+        if (more) {
+            FastaChange lastChange = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+            FastaTombstone lastDeletion = deletions.isEmpty() ? null : deletions.get(deletions.size() - 1);
+
+            next = new FastaChangeToken(
+                    token.since(),
+                    until,
+                    lastChange == null ? changesCursor.after() : toTimestamp(lastChange.modified()),
+                    lastChange == null ? changesCursor.afterBcid() : lastChange.bcid(),
+                    lastDeletion == null ? deletionsCursor.after() : toTimestamp(lastDeletion.deleted()),
+                    lastDeletion == null ? deletionsCursor.afterBcid() : lastDeletion.bcid()
+            );
+        } else {
+            next = new FastaChangeToken(new Timestamp(Math.max(token.since().getTime(), until.getTime() - overlapMillis)));
+        }
+
+        return new FastaChanges(token.toString(), next.toString(), more, changes, deletions);
+    }
+
+    private String header(String bcid, Map<String, Object> record) {
+        StringWriter writer = new StringWriter();
+        try {
+            headerTemplate.write(writer, bcid, record);
+        } catch (IOException e) {
+            // StringWriter does not throw IOExceptions
+            throw new IllegalStateException(e);
+        }
+
+        // strip the leading '>' & trailing newline
+        return writer.getBuffer().substring(1, writer.getBuffer().length() - 1);
+    }
+
+    /**
+     * keep the full precision of db timestamps
+     */
+    private static Timestamp toTimestamp(Date date) {
+        return date instanceof Timestamp ? (Timestamp) date : new Timestamp(date.getTime());
+    }
+}
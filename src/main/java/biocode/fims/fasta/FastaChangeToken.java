@@ -0,0 +1,142 @@
+package biocode.fims.fasta;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Token passed to the fasta change feed.
+ * <p>
+ * A client starts w/ an ISO-8601 timestamp (or epoch millis). If a response is paged, the next token is a
+ * continuation token which holds the window being paged through & the position of the last change and deletion
+ * returned. The continuation token is opaque to clients.
+ *
+ * @author rjewing
+ */
+public class FastaChangeToken {
+    private static final String CONTINUATION_PREFIX = "c1.";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final Timestamp since;
+    private final Timestamp until;
+    private final Timestamp changesAfter;
+    private final String changesAfterBcid;
+    private final Timestamp deletionsAfter;
+    private final String deletionsAfterBcid;
+
+    public FastaChangeToken(Timestamp since) {
+        this(since, null, null, null, null, null);
+    }
+
+    public FastaChangeToken(Timestamp since, Timestamp until, Timestamp changesAfter, String changesAfterBcid,
+                            Timestamp deletionsAfter, String deletionsAfterBcid) {
+        this.since = since;
+        this.until = until;
+        this.changesAfter = changesAfter;
+        this.changesAfterBcid = changesAfterBcid;
+        this.deletionsAfter = deletionsAfter;
+        this.deletionsAfterBcid = deletionsAfterBcid;
+    }
+
+    public Timestamp since() {
+        return since;
+    }
+
+    /**
+     * @return the end of the window being paged through, or null if this is not a continuation token
+     */
+    public Timestamp until() {
+        return until;
+    }
+
+    public FastaChangeCursor changesCursor(Timestamp until) {
+        return new FastaChangeCursor(since, until, changesAfter, changesAfterBcid);
+    }
+
+    public FastaChangeCursor deletionsCursor(Timestamp until) {
+        return new FastaChangeCursor(since, until, deletionsAfter, deletionsAfterBcid);
+    }
+
+    /**
+     * @param token an ISO-8601 instant (ex. 2018-01-01T00:00:00Z), epoch millis, or a continuation token
+     * @return the parsed token, or null if the token is not valid
+     */
+    public static FastaChangeToken parse(String token) {
+        if (token == null || token.trim().isEmpty()) return null;
+        token = token.trim();
+
+        if (token.startsWith(CONTINUATION_PREFIX)) return parseContinuation(token.substring(CONTINUATION_PREFIX.length()));
+
+        Timestamp since = parseTimestamp(token);
+        if (since == null) {
+            try {
+                since = new Timestamp(Long.parseLong(token));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new FastaChangeToken(since);
+    }
+
+    private static FastaChangeToken parseContinuation(String token) {
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 6) return null;
+
+        try {
+            String[] values = new String[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = new String(DECODER.decode(parts[i]), StandardCharsets.UTF_8);
+            }
+
+            Timestamp since = parseTimestamp(values[0]);
+            Timestamp until = parseTimestamp(values[1]);
+            Timestamp changesAfter = values[2].isEmpty() ? null : parseTimestamp(values[2]);
+            Timestamp deletionsAfter = values[4].isEmpty() ? null : parseTimestamp(values[4]);
+
+            if (since == null || until == null ||
+                    (!values[2].isEmpty() && changesAfter == null) || (!values[4].isEmpty() && deletionsAfter == null)) {
+                return null;
+            }
+
+            return new FastaChangeToken(
+                    since,
+                    until,
+                    changesAfter,
+                    changesAfter == null ? null : values[3],
+                    deletionsAfter,
+                    deletionsAfter == null ? null : values[5]
+            );
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Timestamp parseTimestamp(String value) {
+        try {
+            return Timestamp.from(Instant.parse(value));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (until == null) return since.toInstant().toString();
+
+        return CONTINUATION_PREFIX + String.join(".",
+                encode(since.toInstant().toString()),
+                encode(until.toInstant().toString()),
+                encode(changesAfter == null ? "" : changesAfter.toInstant().toString()),
+                encode(changesAfterBcid == null ? "" : changesAfterBcid),
+                encode(deletionsAfter == null ? "" : deletionsAfter.toInstant().toString()),
+                encode(deletionsAfterBcid == null ? "" : deletionsAfterBcid)
+        );
+    }
+
+    private static String encode(String value) {
+        return ENCODER.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
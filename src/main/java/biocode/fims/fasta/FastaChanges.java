@@ -0,0 +1,57 @@
+package biocode.fims.fasta;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The fasta records created, modified or deleted since a given token
+ *
+ * @author rjewing
+ */
+public class FastaChanges {
+    @JsonProperty
+    private final String since;
+    @JsonProperty
+    private final String next;
+    @JsonProperty
+    private final boolean more;
+    @JsonProperty
+    private final List<FastaChange> changes;
+    @JsonProperty
+    private final List<FastaTombstone> deletions;
+
+    public FastaChanges(String since, String next, boolean more, List<FastaChange> changes, List<FastaTombstone> deletions) {
+        this.since = since;
+        this.next = next;
+        this.more = more;
+        this.changes = changes;
+        this.deletions = deletions;
+    }
+
+    public String since() {
+        return since;
+    }
+
+    /**
+     * @return the token to pass as since on the next request
+     */
+    public String next() {
+        return next;
+    }
+
+    /**
+     * @return true if the response was limited & more changes are available using the next token
+     */
+    public boolean more() {
+        return more;
+    }
+
+    public List<FastaChange> changes() {
+        return changes;
+    }
+
+    public List<FastaTombstone> deletions() {
+        return deletions;
+    }
+}
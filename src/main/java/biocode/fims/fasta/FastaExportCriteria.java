@@ -0,0 +1,81 @@
+package biocode.fims.fasta;
+
+import org.springframework.util.Assert;
+
+import java.util.*;
+
+/**
+ * The fasta records to export. Expeditions & markers are optional, and if empty all expeditions/markers in the project
+ * are exported.
+ * <p>
+ * If publicExpeditionsOnly is true, records in private expeditions are excluded. This should be set when the user is
+ * not a member of the project.
+ * <p>
+ * Records w/o a marker are included by adding {@link #NO_MARKER} to the markers.
+ * <p>
+ * Arbitrary query filters are not supported. Exports of other queries use the {@link FastaQueryWriter}.
+ *
+ * @author rjewing
+ */
+public class FastaExportCriteria {
+    public static final String NO_MARKER = "";
+
+    private final int projectId;
+    private final String conceptAlias;
+    private final SortedSet<String> expeditionCodes;
+    private final SortedSet<String> markers;
+    private final boolean publicExpeditionsOnly;
+
+    public FastaExportCriteria(int projectId, String conceptAlias, Collection<String> expeditionCodes, Collection<String> markers) {
+        this(projectId, conceptAlias, expeditionCodes, markers, false);
+    }
+
+    public FastaExportCriteria(int projectId, String conceptAlias, Collection<String> expeditionCodes, Collection<String> markers,
+                               boolean publicExpeditionsOnly) {
+        Assert.notNull(conceptAlias);
+        this.projectId = projectId;
+        this.conceptAlias = conceptAlias;
+        this.expeditionCodes = Collections.unmodifiableSortedSet(
+                expeditionCodes == null ? new TreeSet<>() : new TreeSet<>(expeditionCodes)
+        );
+        this.markers = Collections.unmodifiableSortedSet(markers == null ? new TreeSet<>() : new TreeSet<>(markers));
+        this.publicExpeditionsOnly = publicExpeditionsOnly;
+    }
+
+    public int projectId() {
+        return projectId;
+    }
+
+    public String conceptAlias() {
+        return conceptAlias;
+    }
+
+    public SortedSet<String> expeditionCodes() {
+        return expeditionCodes;
+    }
+
+    public SortedSet<String> markers() {
+        return markers;
+    }
+
+    public boolean publicExpeditionsOnly() {
+        return publicExpeditionsOnly;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FastaExportCriteria)) return false;
+        FastaExportCriteria that = (FastaExportCriteria) o;
+        return projectId == that.projectId &&
+                publicExpeditionsOnly == that.publicExpeditionsOnly &&
+                Objects.equals(conceptAlias, that.conceptAlias) &&
+                Objects.equals(expeditionCodes, that.expeditionCodes) &&
+                Objects.equals(markers, that.markers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(projectId, conceptAlias, expeditionCodes, markers, publicExpeditionsOnly);
+    }
+}
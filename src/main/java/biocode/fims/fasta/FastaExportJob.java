@@ -0,0 +1,175 @@
+package biocode.fims.fasta;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous fasta export. See {@link biocode.fims.service.FastaExportJobService}
+ *
+ * @author rjewing
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FastaExportJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETE, FAILED, CANCELLED;
+
+        public boolean isDone() {
+            return this == COMPLETE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String username;
+    private final int projectId;
+    private final FastaStreamWriter.Format format;
+    private final File file;
+    private final Date created;
+    private final AtomicLong recordsWritten;
+    private final AtomicLong bytesWritten;
+    private volatile Status status;
+    private volatile boolean cancelRequested;
+    private volatile Date completed;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    public FastaExportJob(String id, String username, int projectId, FastaStreamWriter.Format format, File file) {
+        this.id = id;
+        this.username = username;
+        this.projectId = projectId;
+        this.format = format;
+        this.file = file;
+        this.created = new Date();
+        this.recordsWritten = new AtomicLong();
+        this.bytesWritten = new AtomicLong();
+        this.status = Status.QUEUED;
+    }
+
+    @JsonProperty("id")
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the user who created the job, or null if the job was created anonymously
+     */
+    @JsonIgnore
+    public String username() {
+        return username;
+    }
+
+    @JsonProperty("projectId")
+    public int projectId() {
+        return projectId;
+    }
+
+    @JsonProperty("format")
+    public String formatName() {
+        return format.name().toLowerCase();
+    }
+
+    @JsonIgnore
+    public FastaStreamWriter.Format format() {
+        return format;
+    }
+
+    @JsonIgnore
+    public File file() {
+        return file;
+    }
+
+    @JsonProperty("status")
+    public Status status() {
+        return status;
+    }
+
+    @JsonProperty("recordsWritten")
+    public long recordsWritten() {
+        return recordsWritten.get();
+    }
+
+    @JsonProperty("bytesWritten")
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @JsonProperty("created")
+    public Date created() {
+        return created;
+    }
+
+    @JsonProperty("completed")
+    public Date completed() {
+        return completed;
+    }
+
+    @JsonProperty("error")
+    public String error() {
+        return error;
+    }
+
+    @JsonIgnore
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void recordWritten() {
+        recordsWritten.incrementAndGet();
+    }
+
+    public void bytesWritten(long count) {
+        bytesWritten.addAndGet(count);
+    }
+
+    public void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * @return false if the job has already finished (ex. was cancelled while queued)
+     */
+    public synchronized boolean running() {
+        if (status.isDone()) return false;
+        status = Status.RUNNING;
+        return true;
+    }
+
+    public void complete() {
+        finish(Status.COMPLETE, null);
+    }
+
+    public void failed(String error) {
+        finish(Status.FAILED, error);
+    }
+
+    public void cancelled() {
+        finish(Status.CANCELLED, null);
+    }
+
+    /**
+     * request that the job be cancelled. A queued job will never be run, and a running job will stop at the next
+     * record written
+     */
+    public synchronized void cancel() {
+        cancelRequested = true;
+
+        // a running job is marked as cancelled once it has stopped & cleaned up
+        if (status == Status.QUEUED) {
+            if (future != null) future.cancel(false);
+            cancelled();
+        }
+    }
+
+    private synchronized void finish(Status status, String error) {
+        if (this.status.isDone()) return;
+        this.error = error;
+        this.completed = new Date();
+        this.status = status;
+    }
+}
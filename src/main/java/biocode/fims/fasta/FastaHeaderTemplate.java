@@ -0,0 +1,160 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Compiled fasta header template.
+ * <p>
+ * A template describes the text following the record identifier in the header line. Values are included using
+ * {name} placeholders, where name is one of:
+ * <p>
+ * - marker
+ * - the column (or uri) of any attribute of the parent entity
+ * <p>
+ * All other text is written as is. The template is parsed once, into alternating literal & value segments, so writing a
+ * header is a single loop over the precomputed segments. Missing values are written as an empty string.
+ * <p>
+ * ex. "[marker = {marker}] [materialSampleID = {materialSampleID}] [locality = {locality}]"
+ *
+ * @author rjewing
+ */
+public class FastaHeaderTemplate {
+    private static final String MARKER = "marker";
+
+    // literals[i] is written before values[i]. literals has 1 more element than values
+    private final char[][] literals;
+    private final String[] values;
+    private final List<String> parentAttributes;
+
+    private FastaHeaderTemplate(List<char[]> literals, List<String> values, List<String> parentAttributes) {
+        this.literals = literals.toArray(new char[literals.size()][]);
+        this.values = values.toArray(new String[values.size()]);
+        this.parentAttributes = Collections.unmodifiableList(parentAttributes);
+    }
+
+    /**
+     * The default header used when a template is not configured:
+     * <p>
+     * [marker = {marker}] [{parentUniqueKey} = {parentUniqueKey}] [genus = {urn:genus}] [specificEpithet = {urn:species}]
+     *
+     * @param parentEntity
+     */
+    public static String defaultTemplate(Entity parentEntity) {
+        return "[marker = {marker}] [" + parentEntity.getUniqueKey() + " = {" + parentEntity.getUniqueKey() + "}] " +
+                "[genus = {urn:genus}] [specificEpithet = {urn:species}]";
+    }
+
+    /**
+     * compile the header template configured on the fasta entity
+     *
+     * @param entity the fasta entity
+     * @param config
+     * @return
+     */
+    public static FastaHeaderTemplate forEntity(Entity entity, Config config) {
+        return compile(template(entity, config), config.entity(entity.getParentEntity()));
+    }
+
+    /**
+     * @param entity the fasta entity
+     * @param config
+     * @return the header template configured on the fasta entity, or the {@link #defaultTemplate} if not configured
+     */
+    public static String template(Entity entity, Config config) {
+        String template = entity instanceof FastaEntity ? ((FastaEntity) entity).getHeaderTemplate() : null;
+        if (template == null || template.trim().isEmpty()) return defaultTemplate(config.entity(entity.getParentEntity()));
+        return template;
+    }
+
+    /**
+     * @param template     the template, or null to use the {@link #defaultTemplate}
+     * @param parentEntity the parent of the fasta entity
+     * @return
+     */
+    public static FastaHeaderTemplate compile(String template, Entity parentEntity) {
+        if (template == null || template.trim().isEmpty()) template = defaultTemplate(parentEntity);
+
+        List<char[]> literals = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        Set<String> parentAttributes = new LinkedHashSet<>();
+
+        StringBuilder literal = new StringBuilder(" ");
+        int i = 0;
+
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            int close = open == -1 ? -1 : template.indexOf('}', open + 1);
+
+            if (close == -1) {
+                literal.append(template, i, template.length());
+                break;
+            }
+
+            literal.append(template, i, open);
+
+            String name = template.substring(open + 1, close).trim();
+            String key = resolve(name, parentEntity);
+
+            literals.add(literal.toString().toCharArray());
+            values.add(key);
+            if (!MARKER.equals(name) && !name.equals(parentEntity.getUniqueKey())) parentAttributes.add(key);
+
+            literal.setLength(0);
+            i = close + 1;
+        }
+
+        literal.append('\n');
+        literals.add(literal.toString().toCharArray());
+
+        return new FastaHeaderTemplate(literals, values, new ArrayList<>(parentAttributes));
+    }
+
+    /**
+     * @return the key in the record map for the given placeholder name
+     */
+    private static String resolve(String name, Entity parentEntity) {
+        if (MARKER.equals(name)) return FastaProps.MARKER.uri();
+
+        // the parent unique key is keyed by column
+        if (name.equals(parentEntity.getUniqueKey())) return name;
+
+        String uri = parentEntity.getAttributeUri(name);
+        return uri == null ? name : uri;
+    }
+
+    /**
+     * @return the parent entity attribute keys referenced in the template, excluding the parent unique key.
+     */
+    public List<String> parentAttributes() {
+        return parentAttributes;
+    }
+
+    /**
+     * write the complete header line, including the leading '>' and trailing newline
+     *
+     * @param writer
+     * @param identifier the record identifier
+     * @param record
+     * @throws IOException
+     */
+    public void write(Writer writer, String identifier, Map<String, Object> record) throws IOException {
+        writer.write('>');
+        writer.write(identifier);
+
+        for (int i = 0; i < values.length; i++) {
+            writer.write(literals[i]);
+
+            Object val = record.get(values[i]);
+            if (val instanceof String) writer.write((String) val);
+            else if (val != null) writer.write(String.valueOf(val));
+        }
+
+        writer.write(literals[values.length]);
+    }
+}
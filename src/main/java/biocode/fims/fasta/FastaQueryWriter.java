@@ -1,9 +1,7 @@
 package biocode.fims.fasta;
 
 import biocode.fims.config.Config;
-import biocode.fims.config.models.Entity;
 import biocode.fims.config.models.FastaEntity;
-import biocode.fims.config.project.ProjectConfig;
 import biocode.fims.exceptions.FastaWriteCode;
 import biocode.fims.fimsExceptions.FimsRuntimeException;
 import biocode.fims.fimsExceptions.errorCodes.FileCode;
@@ -17,26 +15,29 @@ import java.io.*;
 import java.util.*;
 
 /**
+ * Writes the results of an arbitrary fasta query.
+ * <p>
+ * The QueryResult is materialized in memory. Exports filtered only by project, expedition & marker (the FastaResource
+ * export endpoints) are streamed from the db w/ {@link FastaStreamWriter} instead. Other query filters can't be
+ * expressed as a {@link FastaExportCriteria}, so those exports still use this writer.
+ *
  * @author RJ Ewing
  */
 public class FastaQueryWriter implements QueryWriter {
-    private final QueryResult queryResult;
-    private final Entity parentEntity;
-    private final String parentUniqueKey;
+    private final List<Map<String, Object>> records;
+    private final FastaHeaderTemplate headerTemplate;
 
     public FastaQueryWriter(QueryResult queryResult, Config config) {
-        // TODO pass in parentRecords & list of columns to write out as metadata
         if (!(Objects.equals(queryResult.entity().type(), FastaEntity.TYPE))) {
             throw new FimsRuntimeException(FastaWriteCode.INVALID_ENTITY, 500, queryResult.entity().type());
         }
-        this.queryResult = queryResult;
 
-        if (queryResult.get(false, true).size() == 0) {
+        records = queryResult.get(false, true);
+        if (records.size() == 0) {
             throw new FimsRuntimeException(QueryCode.NO_RESOURCES, 400);
         }
 
-        parentEntity = config.entity(queryResult.entity().getParentEntity());
-        parentUniqueKey = parentEntity.getUniqueKey();
+        headerTemplate = FastaHeaderTemplate.forEntity(queryResult.entity(), config);
     }
 
     /**
@@ -62,7 +63,7 @@ public class FastaQueryWriter implements QueryWriter {
     private Map<String, List<Map<String, Object>>> sortByMarker() {
         Map<String, List<Map<String, Object>>> fastaFileMap = new HashMap<>();
 
-        for (Map<String, Object> record : queryResult.get(false, true)) {
+        for (Map<String, Object> record : records) {
             String marker = String.valueOf(record.get(FastaProps.MARKER.uri()));
 
             fastaFileMap
@@ -82,27 +83,7 @@ public class FastaQueryWriter implements QueryWriter {
 
 
             for (Map<String, Object> record : records) {
-                writer.write(">");
-
-                String identifier = String.valueOf(record.get("bcid"));
-                writer.write(identifier);
-
-                writer.write(" [marker = ");
-                writer.write(String.valueOf(record.get(FastaProps.MARKER.uri())));
-                writer.write("] [");
-                writer.write(parentUniqueKey);
-                writer.write(" = ");
-                writer.write(String.valueOf(record.getOrDefault(parentUniqueKey, "")));
-                writer.write("] [genus = ");
-                writer.write(String.valueOf(record.getOrDefault("urn:genus", "")));
-                writer.write("] [specificEpithet = ");
-                writer.write(String.valueOf(record.getOrDefault("urn:species", "")));
-                writer.write("]\n");
-
-                // TODO add more metadata (locality, genus, species) once networks are implemented
-
-                writer.write(String.valueOf(record.get(FastaProps.SEQUENCE.uri())));
-                writer.write("\n");
+                writeRecord(writer, headerTemplate, record);
             }
 
         } catch (IOException e) {
@@ -111,4 +92,19 @@ public class FastaQueryWriter implements QueryWriter {
 
         return file;
     }
+
+    /**
+     * write a single fasta record
+     *
+     * @param writer
+     * @param headerTemplate
+     * @param record         map containing the bcid, marker, sequence & any values referenced in the headerTemplate
+     * @throws IOException
+     */
+    static void writeRecord(Writer writer, FastaHeaderTemplate headerTemplate, Map<String, Object> record) throws IOException {
+        headerTemplate.write(writer, String.valueOf(record.get("bcid")), record);
+
+        writer.write(String.valueOf(record.get(FastaProps.SEQUENCE.uri())));
+        writer.write('\n');
+    }
 }
@@ -6,16 +6,33 @@ import biocode.fims.records.RecordMetadata;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 
 /**
+ * The sequence is held in the record properties as a {@link PackedSequence} and is only decoded when requested via
+ * get({@link FastaProps#SEQUENCE}) or {@link #properties()}
+ * <p>
+ * A {@link SequenceHasher} hash of the sequence is computed when the sequence is set, so duplicate sequences can be
+ * found w/o comparing the sequences themselves. The hash is included in {@link #properties()} as
+ * {@link #SEQUENCE_HASH_KEY}, so it is stored w/ the record & stored duplicates can be found by hash.
+ *
  * @author rjewing
  */
 public class FastaRecord extends GenericRecord {
+    public static final String SEQUENCE_HASH_KEY = "sequenceHash";
 
-    public FastaRecord(String parentUniqueKeyUri, String parentIdentifier, String sequence, RecordMetadata recordMetadata) {
+    private long sequenceHash;
+    // not persisted. set by the FastaConverter if the sequence matches a previously uploaded sequence
+    private String duplicateOfIdentifier;
+    private String duplicateOfExpedition;
+
+    public FastaRecord(String parentUniqueKeyUri, String parentIdentifier, CharSequence sequence, RecordMetadata recordMetadata) {
         super();
-        properties.put(FastaProps.SEQUENCE.uri(), sequence);
+        if (sequence != null) {
+            properties.put(FastaProps.SEQUENCE.uri(), PackedSequence.pack(sequence));
+            this.sequenceHash = SequenceHasher.hash(sequence);
+        }
         properties.put(parentUniqueKeyUri, parentIdentifier);
 
         for (Map.Entry e : recordMetadata.metadata().entrySet()) {
@@ -23,17 +40,113 @@ public class FastaRecord extends GenericRecord {
         }
     }
 
+    /**
+     * @param properties copied, so the sequence can be packed w/o modifying the provided map
+     */
     public FastaRecord(Map<String, Object> properties, String rootIdentifier, int projectId, String expeditionCode, boolean shouldPersist) {
-        super(properties, rootIdentifier, projectId, expeditionCode, shouldPersist);
+        super(new HashMap<>(properties), rootIdentifier, projectId, expeditionCode, shouldPersist);
+
+        // always re-computed from the sequence
+        this.properties.remove(SEQUENCE_HASH_KEY);
+        Object sequence = this.properties.get(FastaProps.SEQUENCE.uri());
+        if (sequence != null && !(sequence instanceof PackedSequence)) {
+            String s = String.valueOf(sequence);
+            this.properties.put(FastaProps.SEQUENCE.uri(), PackedSequence.pack(s));
+            this.sequenceHash = SequenceHasher.hash(s);
+        } else if (sequence != null) {
+            this.sequenceHash = SequenceHasher.hash(sequence.toString());
+        }
+    }
+
+    private FastaRecord(FastaRecord record) {
+        super(new HashMap<>(record.properties), record.rootIdentifier(), record.projectId(), record.expeditionCode(), record.persist);
+        // the PackedSequence is immutable, so it is shared w/ the copy
+        this.sequenceHash = record.sequenceHash;
+        this.duplicateOfIdentifier = record.duplicateOfIdentifier;
+        this.duplicateOfExpedition = record.duplicateOfExpedition;
+    }
+
+    /**
+     * @return the packed sequence, or null if this record does not have a sequence
+     */
+    public PackedSequence packedSequence() {
+        Object sequence = properties.get(FastaProps.SEQUENCE.uri());
+        return sequence instanceof PackedSequence ? (PackedSequence) sequence : null;
+    }
+
+    /**
+     * @return the {@link SequenceHasher} hash of the sequence. Only meaningful if {@link #packedSequence()} is not null
+     */
+    public long sequenceHash() {
+        return sequenceHash;
+    }
+
+    /**
+     * mark this record as having the same sequence as an existing record
+     *
+     * @param identifier     the identifier of the existing record
+     * @param expeditionCode the expedition of the existing record
+     */
+    public void setDuplicateOf(String identifier, String expeditionCode) {
+        this.duplicateOfIdentifier = identifier;
+        this.duplicateOfExpedition = expeditionCode;
+    }
+
+    /**
+     * @return the identifier of an existing record with the same sequence, or null
+     */
+    public String duplicateOfIdentifier() {
+        return duplicateOfIdentifier;
+    }
+
+    public String duplicateOfExpedition() {
+        return duplicateOfExpedition;
+    }
+
+    @Override
+    public String get(String property) {
+        if (Objects.equals(property, FastaProps.SEQUENCE.uri())) {
+            PackedSequence sequence = packedSequence();
+            return sequence == null ? super.get(property) : sequence.toString();
+        }
+        return super.get(property);
+    }
+
+    @Override
+    public void set(String property, String value) {
+        if (Objects.equals(property, FastaProps.SEQUENCE.uri())) {
+            if (value == null) {
+                properties.remove(property);
+                sequenceHash = 0;
+            } else {
+                properties.put(property, PackedSequence.pack(value));
+                sequenceHash = SequenceHasher.hash(value);
+            }
+        } else {
+            super.set(property, value);
+        }
+    }
+
+    /**
+     * @return the record properties, w/ the decoded sequence & its hash
+     */
+    @Override
+    public Map<String, Object> properties() {
+        PackedSequence sequence = packedSequence();
+        if (sequence == null) return super.properties();
+
+        Map<String, Object> properties = new HashMap<>(super.properties());
+        properties.put(FastaProps.SEQUENCE.uri(), sequence.toString());
+        properties.put(SEQUENCE_HASH_KEY, SequenceHasher.toHex(sequenceHash));
+        return properties;
     }
 
     @Override
     public Record clone() {
-        return new FastaRecord(new HashMap<>(properties), rootIdentifier(), projectId(), expeditionCode(), persist);
+        return new FastaRecord(this);
     }
 
     public static String generateIdentifier(String localIdentifier, String marker) {
         return localIdentifier + "_" + marker;
     }
 }
-
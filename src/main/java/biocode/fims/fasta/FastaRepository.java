@@ -0,0 +1,116 @@
+package biocode.fims.fasta;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+/**
+ * @author rjewing
+ */
+public interface FastaRepository {
+
+    /**
+     * Find the stored records for the given project and markers whose {@link SequenceHasher} hash is one of the given
+     * hashes. Only the matching records are read, using the hash stored w/ each record.
+     * <p>
+     * Records stored before the hash was stored w/ the record are only found once {@link #backfillSequenceHashes} has
+     * been run for the entity.
+     */
+    void findSequenceHashes(int networkId, int projectId, String conceptAlias, List<String> markers, Collection<Long> hashes,
+                            SequenceHashCallback callback);
+
+    /**
+     * One-time backfill of the {@link SequenceHasher} hash for records stored before the hash was stored w/ the record.
+     * Once complete, the index used by {@link #findSequenceHashes} is created. Does nothing if the index already exists.
+     * <p>
+     * This is a migration, run by the {@link biocode.fims.service.FastaSequenceHashMigration}. The table is locked
+     * while the records are hashed, so it should not be called while saving a dataset.
+     */
+    void backfillSequenceHashes(int networkId, String conceptAlias);
+
+    /**
+     * Stream the stored sequences for the given marker across all projects in the network, using a server-side cursor.
+     */
+    void streamSequences(int networkId, String conceptAlias, String marker, SequenceCallback callback);
+
+    /**
+     * Stream the fasta records matching the criteria, using a server-side cursor. Records are ordered by marker (records
+     * w/o a marker last), then expeditionCode & bcid. Each row is passed to the consumer as a Map containing the bcid,
+     * {@link FastaProps#MARKER}, {@link FastaProps#SEQUENCE}, parentUniqueKey & parentAttributes values. Null values
+     * are not included.
+     *
+     * @param parentConceptAlias the conceptAlias of the fasta entity's parent
+     * @param parentUniqueKey    the column of the parent entity's unique key
+     * @param parentAttributes   the uris of any additional parent attributes to include
+     * @param fetchSize          the number of rows to fetch from the cursor at a time
+     */
+    void streamRecords(int networkId, FastaExportCriteria criteria, String parentConceptAlias, String parentUniqueKey,
+                       List<String> parentAttributes, int fetchSize, Consumer<Map<String, Object>> consumer);
+
+    /**
+     * @return the markers present in each expedition matching the criteria, keyed by expeditionCode. Records w/o a
+     * marker are returned as {@link FastaExportCriteria#NO_MARKER}
+     */
+    SortedMap<String, SortedSet<String>> getMarkersByExpedition(int networkId, FastaExportCriteria criteria);
+
+    /**
+     * @return the export version of each expedition matching the criteria, keyed by expeditionCode. Expeditions which
+     * have never been versioned are returned w/ a version of 0. The versions are read by primary key, so the entity
+     * tables are not scanned
+     */
+    SortedMap<String, Long> getExportVersions(FastaExportCriteria criteria);
+
+    /**
+     * Increment the export version of the given expeditions. Called whenever any of the expedition's records are saved,
+     * so cached exports which include the expedition are no longer used.
+     */
+    void incrementExportVersions(int projectId, Collection<String> expeditionCodes);
+
+    /**
+     * Same as {@link #streamRecords}, but only includes up to limit records in the cursor, ordered by the modified
+     * timestamp & bcid. Each row also contains the expeditionCode & modified timestamp.
+     */
+    void streamChanges(int networkId, FastaExportCriteria criteria, String parentConceptAlias, String parentUniqueKey,
+                       List<String> parentAttributes, FastaChangeCursor cursor, int limit,
+                       Consumer<Map<String, Object>> consumer);
+
+    /**
+     * @return up to limit records matching the criteria which were deleted in the cursor, and not re-created. Ordered
+     * by the deleted timestamp & bcid
+     * @throws biocode.fims.fimsExceptions.FimsRuntimeException {@link biocode.fims.exceptions.FastaWriteCode#TOMBSTONES_NOT_INSTALLED}
+     *                                                          if deletions are not recorded for the entity
+     */
+    List<FastaTombstone> getDeletions(int networkId, FastaExportCriteria criteria, FastaChangeCursor cursor, int limit);
+
+    /**
+     * Start recording deletions of the entity's records for {@link #getDeletions}. Creates the tombstone table if
+     * needed & installs the tombstone trigger on the entity table. Deletions made before this is called are not
+     * recorded. Does nothing if already installed.
+     */
+    void installTombstones(int networkId, String conceptAlias);
+
+    /**
+     * @return the expeditionCodes of the public expeditions in the project
+     */
+    Set<String> getPublicExpeditionCodes(int projectId);
+
+    /**
+     * @return the current db timestamp
+     */
+    Date currentTimestamp();
+
+    @FunctionalInterface
+    interface SequenceHashCallback {
+        void accept(String expeditionCode, String identifier, String marker, long hash);
+    }
+
+    @FunctionalInterface
+    interface SequenceCallback {
+        void accept(int projectId, String expeditionCode, String identifier, String marker, String sequence);
+    }
+}
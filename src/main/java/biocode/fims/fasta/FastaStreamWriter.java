@@ -0,0 +1,229 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams fasta records matching a {@link FastaExportCriteria} directly to an OutputStream (ex. an http response), w/o
+ * writing any temporary files. Records are read from the db using a server-side cursor, and compressed on the fly, so
+ * the first bytes are written while later records are still being read.
+ *
+ * @author rjewing
+ */
+public class FastaStreamWriter {
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // flush the compressed output every FLUSH_INTERVAL records so the client receives data steadily
+    private static final int FLUSH_INTERVAL = 1000;
+
+    public enum Format {
+        /**
+         * a single fasta file containing all markers
+         */
+        FASTA("fasta", "text/plain"),
+        /**
+         * a single gzipped fasta file containing all markers
+         */
+        GZIP("fasta.gz", "application/gzip"),
+        /**
+         * a zip archive containing a fasta file for each marker. Records w/o a marker are written to output.fasta
+         */
+        ZIP("zip", "application/zip");
+
+        private final String extension;
+        private final String mediaType;
+
+        Format(String extension, String mediaType) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String mediaType() {
+            return mediaType;
+        }
+
+        /**
+         * @return the matching Format (case-insensitive), or null
+         */
+        public static Format fromString(String format) {
+            for (Format f : values()) {
+                if (f.name().equalsIgnoreCase(format)) return f;
+            }
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordListener {
+        /**
+         * called after each record is written. A RuntimeException may be thrown to abort the export
+         */
+        void recordWritten();
+    }
+
+    private final FastaRepository fastaRepository;
+    private final int networkId;
+    private final FastaExportCriteria criteria;
+    private final int fetchSize;
+    private final Entity parentEntity;
+    private final String parentUniqueKey;
+    private final FastaHeaderTemplate headerTemplate;
+
+    public FastaStreamWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config) {
+        this(fastaRepository, networkId, criteria, config, DEFAULT_FETCH_SIZE);
+    }
+
+    public FastaStreamWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config,
+                             int fetchSize) {
+        Entity entity = config.entity(criteria.conceptAlias());
+        if (entity == null || !Objects.equals(entity.type(), FastaEntity.TYPE)) {
+            throw new FimsRuntimeException(FastaWriteCode.INVALID_ENTITY, 500, entity == null ? null : entity.type());
+        }
+
+        this.fastaRepository = fastaRepository;
+        this.networkId = networkId;
+        this.criteria = criteria;
+        this.fetchSize = fetchSize;
+
+        parentEntity = config.entity(entity.getParentEntity());
+        parentUniqueKey = parentEntity.getUniqueKey();
+        headerTemplate = FastaHeaderTemplate.forEntity(entity, config);
+    }
+
+    /**
+     * Write the records to the OutputStream. The OutputStream is not closed.
+     *
+     * @param os
+     * @param format
+     * @throws IOException
+     */
+    public void write(OutputStream os, Format format) throws IOException {
+        write(os, format, () -> {
+        });
+    }
+
+    /**
+     * Write the records to the OutputStream, notifying the listener as each record is written. The OutputStream is
+     * not closed.
+     *
+     * @param os
+     * @param format
+     * @param listener
+     * @throws IOException
+     */
+    public void write(OutputStream os, Format format, RecordListener listener) throws IOException {
+        switch (format) {
+            case ZIP:
+                writeZip(os, listener);
+                break;
+            case GZIP:
+                GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(os), BUFFER_SIZE, true);
+                writeFasta(gzip, listener);
+                break;
+            default:
+                writeFasta(new NonClosingOutputStream(os), listener);
+        }
+    }
+
+    private void writeFasta(OutputStream os, RecordListener listener) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            int[] count = {0};
+
+            streamRecords(record -> {
+                FastaQueryWriter.writeRecord(writer, headerTemplate, record);
+                listener.recordWritten();
+                if (++count[0] % FLUSH_INTERVAL == 0) writer.flush();
+            });
+        }
+    }
+
+    /**
+     * records are streamed ordered by marker, so we can write each zip entry in turn
+     */
+    private void writeZip(OutputStream os, RecordListener listener) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new NonClosingOutputStream(os), StandardCharsets.UTF_8);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String[] currentEntry = {null};
+            int[] count = {0};
+
+            streamRecords(record -> {
+                // records w/o a marker are written to output.fasta
+                String marker = Objects.toString(record.get(FastaProps.MARKER.uri()), "");
+                String entry = StringUtils.isBlank(marker) ? "output.fasta" : marker + ".fasta";
+
+                if (count[0] == 0 || !entry.equals(currentEntry[0])) {
+                    if (count[0] > 0) {
+                        writer.flush();
+                        zip.closeEntry();
+                    }
+                    zip.putNextEntry(new ZipEntry(entry));
+                    currentEntry[0] = entry;
+                }
+
+                FastaQueryWriter.writeRecord(writer, headerTemplate, record);
+                listener.recordWritten();
+                if (++count[0] % FLUSH_INTERVAL == 0) writer.flush();
+            });
+
+            writer.flush();
+            if (count[0] > 0) zip.closeEntry();
+        }
+    }
+
+    private void streamRecords(RecordWriter recordWriter) throws IOException {
+        try {
+            fastaRepository.streamRecords(networkId, criteria, parentEntity.getConceptAlias(), parentUniqueKey,
+                    headerTemplate.parentAttributes(), fetchSize, record -> {
+                try {
+                    recordWriter.write(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(Map<String, Object> record) throws IOException;
+    }
+
+    /**
+     * the caller owns the OutputStream, so we finish any compression when closed, but don't close the underlying stream
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
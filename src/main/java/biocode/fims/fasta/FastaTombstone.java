@@ -0,0 +1,44 @@
+package biocode.fims.fasta;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Date;
+
+/**
+ * A deleted fasta record
+ *
+ * @author rjewing
+ */
+public class FastaTombstone {
+    @JsonProperty
+    private final String bcid;
+    @JsonProperty
+    private final String expeditionCode;
+    @JsonProperty
+    private final String marker;
+    @JsonProperty
+    private final Date deleted;
+
+    public FastaTombstone(String bcid, String expeditionCode, String marker, Date deleted) {
+        this.bcid = bcid;
+        this.expeditionCode = expeditionCode;
+        this.marker = marker;
+        this.deleted = deleted;
+    }
+
+    public String bcid() {
+        return bcid;
+    }
+
+    public String expeditionCode() {
+        return expeditionCode;
+    }
+
+    public String marker() {
+        return marker;
+    }
+
+    public Date deleted() {
+        return deleted;
+    }
+}
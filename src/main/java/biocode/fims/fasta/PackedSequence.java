@@ -0,0 +1,171 @@
+package biocode.fims.fasta;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compact, immutable storage for nucleotide sequences.
+ * <p>
+ * Sequences consisting solely of the uppercase bases ACGT are stored using 2 bits per base. Sequences which also
+ * contain uppercase IUPAC ambiguity codes or gaps ('-') are stored using 4 bits per base. Anything else (lowercase
+ * soft-masking, non-nucleotide characters, etc.) is stored as raw UTF-8 bytes so the original sequence is always
+ * returned unchanged by {@link #toString()}.
+ *
+ * @author rjewing
+ */
+public final class PackedSequence {
+    public enum Encoding {
+        TWO_BIT, FOUR_BIT, RAW
+    }
+
+    private static final char[] TWO_BIT_ALPHABET = {'A', 'C', 'G', 'T'};
+    private static final char[] FOUR_BIT_ALPHABET = {'-', 'A', 'C', 'G', 'T', 'R', 'Y', 'S', 'W', 'K', 'M', 'B', 'D', 'H', 'V', 'N'};
+
+    private static final byte[] TWO_BIT_CODES = new byte[128];
+    private static final byte[] FOUR_BIT_CODES = new byte[128];
+
+    static {
+        Arrays.fill(TWO_BIT_CODES, (byte) -1);
+        Arrays.fill(FOUR_BIT_CODES, (byte) -1);
+
+        for (int i = 0; i < TWO_BIT_ALPHABET.length; i++) {
+            TWO_BIT_CODES[TWO_BIT_ALPHABET[i]] = (byte) i;
+        }
+        for (int i = 0; i < FOUR_BIT_ALPHABET.length; i++) {
+            FOUR_BIT_CODES[FOUR_BIT_ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private final Encoding encoding;
+    private final int length;
+    private final byte[] data;
+
+    private PackedSequence(Encoding encoding, int length, byte[] data) {
+        this.encoding = encoding;
+        this.length = length;
+        this.data = data;
+    }
+
+    public static PackedSequence pack(CharSequence sequence) {
+        Encoding encoding = encodingFor(sequence);
+        return new PackedSequence(encoding, sequence.length(), pack(sequence, encoding));
+    }
+
+    private static byte[] pack(CharSequence sequence, Encoding encoding) {
+        switch (encoding) {
+            case TWO_BIT:
+                return packTwoBit(sequence);
+            case FOUR_BIT:
+                return packFourBit(sequence);
+            default:
+                return sequence.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the smallest encoding able to represent the sequence
+     */
+    private static Encoding encodingFor(CharSequence sequence) {
+        Encoding encoding = Encoding.TWO_BIT;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+
+            if (c >= 128 || FOUR_BIT_CODES[c] == -1) return Encoding.RAW;
+            if (TWO_BIT_CODES[c] == -1) encoding = Encoding.FOUR_BIT;
+        }
+
+        return encoding;
+    }
+
+    private static byte[] packTwoBit(CharSequence sequence) {
+        byte[] packed = new byte[(sequence.length() + 3) / 4];
+
+        for (int i = 0; i < sequence.length(); i++) {
+            packed[i >> 2] |= TWO_BIT_CODES[sequence.charAt(i)] << ((i & 3) << 1);
+        }
+
+        return packed;
+    }
+
+    private static byte[] packFourBit(CharSequence sequence) {
+        byte[] packed = new byte[(sequence.length() + 1) / 2];
+
+        for (int i = 0; i < sequence.length(); i++) {
+            packed[i >> 1] |= FOUR_BIT_CODES[sequence.charAt(i)] << ((i & 1) << 2);
+        }
+
+        return packed;
+    }
+
+    public Encoding encoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of characters in the sequence
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the number of bytes used to store the sequence
+     */
+    public int packedSize() {
+        return data.length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(String.valueOf(index));
+
+        switch (encoding) {
+            case TWO_BIT:
+                return TWO_BIT_ALPHABET[(data[index >> 2] >> ((index & 3) << 1)) & 0x3];
+            case FOUR_BIT:
+                return FOUR_BIT_ALPHABET[(data[index >> 1] >> ((index & 1) << 2)) & 0xF];
+            default:
+                // only single byte chars, so the byte index == char index
+                if (data.length == length) return (char) data[index];
+                return toString().charAt(index);
+        }
+    }
+
+    /**
+     * Decode the sequence
+     */
+    @Override
+    public String toString() {
+        if (encoding == Encoding.RAW) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        char[] chars = new char[length];
+        if (encoding == Encoding.TWO_BIT) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = TWO_BIT_ALPHABET[(data[i >> 2] >> ((i & 3) << 1)) & 0x3];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = FOUR_BIT_ALPHABET[(data[i >> 1] >> ((i & 1) << 2)) & 0xF];
+            }
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PackedSequence)) return false;
+        PackedSequence that = (PackedSequence) o;
+        return length == that.length &&
+                encoding == that.encoding &&
+                Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(encoding, length) * 31 + Arrays.hashCode(data);
+    }
+}
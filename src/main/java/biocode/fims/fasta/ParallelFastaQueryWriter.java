@@ -0,0 +1,252 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.fimsExceptions.errorCodes.FileCode;
+import biocode.fims.fimsExceptions.errorCodes.QueryCode;
+import biocode.fims.query.writers.QueryWriter;
+import biocode.fims.utils.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the fasta records matching a {@link FastaExportCriteria} to a fasta file for each marker, in parallel.
+ * <p>
+ * The export is split into independent shards, either by expedition & marker, or by marker. Records w/o a marker are
+ * written to their own shard. Each shard is streamed from the db & written to a temporary file on the given executor.
+ * Each running shard holds a db connection, so the executor should be shared by all exports & bounded by the size of
+ * the db connection pool (see {@link biocode.fims.service.FastaExportExecutor}). The shard files are then concatenated
+ * into a fasta file for each marker. Shards are always concatenated in (marker, expeditionCode) order, and the records
+ * of each shard are streamed in (expeditionCode, bcid) order, so the output is deterministic regardless of the order the
+ * shards complete in.
+ * <p>
+ * Like the other fasta writers, exports are scoped to the project of the {@link FastaExportCriteria}.
+ *
+ * @author rjewing
+ */
+public class ParallelFastaQueryWriter implements QueryWriter {
+
+    public enum ShardBy {
+        EXPEDITION,
+        MARKER
+    }
+
+    private final FastaRepository fastaRepository;
+    private final int networkId;
+    private final FastaExportCriteria criteria;
+    private final ExecutorService executor;
+    private final ShardBy shardBy;
+    private final Entity parentEntity;
+    private final FastaHeaderTemplate headerTemplate;
+
+    public ParallelFastaQueryWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria,
+                                    Config config, ExecutorService executor, ShardBy shardBy) {
+        Entity entity = config.entity(criteria.conceptAlias());
+        if (entity == null || !Objects.equals(entity.type(), FastaEntity.TYPE)) {
+            throw new FimsRuntimeException(FastaWriteCode.INVALID_ENTITY, 500, entity == null ? null : entity.type());
+        }
+
+        this.fastaRepository = fastaRepository;
+        this.networkId = networkId;
+        this.criteria = criteria;
+        this.executor = executor;
+        this.shardBy = shardBy;
+
+        parentEntity = config.entity(entity.getParentEntity());
+        headerTemplate = FastaHeaderTemplate.forEntity(entity, config);
+    }
+
+    /**
+     * writes the matching records to a fasta file for each unique marker
+     *
+     * @return the marker files, ordered by marker
+     */
+    @Override
+    public List<File> write() {
+        List<Shard> shards = shards();
+        if (shards.isEmpty()) {
+            throw new FimsRuntimeException(QueryCode.NO_RESOURCES, 400);
+        }
+
+        return new ArrayList<>(writeMarkerFiles(shards).values());
+    }
+
+    /**
+     * writes the matching records to a zip archive containing a fasta file for each unique marker. If there are no
+     * matching records, an empty archive is written. The OutputStream is not closed.
+     *
+     * @param os
+     * @throws IOException
+     */
+    public void writeZip(OutputStream os) throws IOException {
+        Map<String, File> markerFiles = writeMarkerFiles(shards());
+
+        try {
+            ZipOutputStream zip = new ZipOutputStream(os, StandardCharsets.UTF_8);
+            for (Map.Entry<String, File> entry : markerFiles.entrySet()) {
+                zip.putNextEntry(new ZipEntry(filename(entry.getKey())));
+                Files.copy(entry.getValue().toPath(), zip);
+                zip.closeEntry();
+            }
+            zip.finish();
+        } finally {
+            markerFiles.values().forEach(File::delete);
+        }
+    }
+
+    /**
+     * @return the marker files keyed by marker, ordered by marker
+     */
+    private Map<String, File> writeMarkerFiles(List<Shard> shards) {
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Shard shard : shards) {
+                futures.add(executor.submit(() -> writeShard(shard)));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            return concatenate(shards);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new ServerErrorException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException(e);
+        } finally {
+            // the executor is shared, so only cancel our own shards
+            futures.forEach(f -> f.cancel(true));
+            for (Shard shard : shards) {
+                if (shard.file != null) shard.file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the shards sorted by (marker, expeditionCode). Records w/o a marker have the marker
+     * {@link FastaExportCriteria#NO_MARKER}
+     */
+    private List<Shard> shards() {
+        Map<String, SortedSet<String>> markersByExpedition = fastaRepository.getMarkersByExpedition(networkId, criteria);
+        List<Shard> shards = new ArrayList<>();
+
+        if (shardBy == ShardBy.MARKER) {
+            SortedSet<String> markers = new TreeSet<>();
+            markersByExpedition.values().forEach(markers::addAll);
+
+            for (String marker : markers) {
+                shards.add(new Shard(marker, null));
+            }
+        } else {
+            markersByExpedition.forEach((expeditionCode, markers) -> {
+                for (String marker : markers) {
+                    shards.add(new Shard(marker, expeditionCode));
+                }
+            });
+        }
+
+        shards.sort(
+                Comparator.comparing((Shard s) -> s.marker)
+                        .thenComparing(s -> s.expeditionCode, Comparator.nullsFirst(Comparator.naturalOrder()))
+        );
+        return shards;
+    }
+
+    private void writeShard(Shard shard) {
+        FastaExportCriteria shardCriteria = new FastaExportCriteria(
+                criteria.projectId(),
+                criteria.conceptAlias(),
+                shard.expeditionCode == null ? criteria.expeditionCodes() : Collections.singleton(shard.expeditionCode),
+                Collections.singleton(shard.marker),
+                criteria.publicExpeditionsOnly()
+        );
+
+        try {
+            shard.file = File.createTempFile("fasta-shard", ".fasta");
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(shard.file), StandardCharsets.UTF_8))) {
+                fastaRepository.streamRecords(networkId, shardCriteria, parentEntity.getConceptAlias(), parentEntity.getUniqueKey(),
+                        headerTemplate.parentAttributes(), FastaStreamWriter.DEFAULT_FETCH_SIZE, record -> {
+                            try {
+                                FastaQueryWriter.writeRecord(writer, headerTemplate, record);
+                            } catch (IOException e) {
+                                throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+                            }
+                        });
+            }
+        } catch (IOException e) {
+            throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+        }
+    }
+
+    private Map<String, File> concatenate(List<Shard> shards) {
+        Map<String, File> markerFiles = new LinkedHashMap<>();
+
+        try {
+            FileChannel out = null;
+            String currentMarker = null;
+
+            try {
+                for (Shard shard : shards) {
+                    if (out == null || !shard.marker.equals(currentMarker)) {
+                        if (out != null) out.close();
+
+                        File file = FileUtils.createFile(filename(shard.marker), System.getProperty("java.io.tmpdir"));
+                        markerFiles.put(shard.marker, file);
+
+                        out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                        currentMarker = shard.marker;
+                    }
+
+                    try (FileChannel in = FileChannel.open(shard.file.toPath(), StandardOpenOption.READ)) {
+                        long position = 0;
+                        long size = in.size();
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
+                        }
+                    }
+                }
+            } finally {
+                if (out != null) out.close();
+            }
+        } catch (IOException e) {
+            markerFiles.values().forEach(File::delete);
+            throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+        }
+
+        return markerFiles;
+    }
+
+    private static String filename(String marker) {
+        return StringUtils.isBlank(marker) ? "output.fasta" : marker + ".fasta";
+    }
+
+    private static class Shard {
+        private final String marker;
+        // null if sharding by marker
+        private final String expeditionCode;
+        private volatile File file;
+
+        private Shard(String marker, String expeditionCode) {
+            this.marker = marker;
+            this.expeditionCode = expeditionCode;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package biocode.fims.fasta;
+
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.query.PostgresUtils;
+import org.apache.commons.text.StringSubstitutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * @author rjewing
+ */
+@Transactional
+public class PostgresFastaRepository implements FastaRepository {
+    private final static Logger logger = LoggerFactory.getLogger(PostgresFastaRepository.class);
+
+    private static final int HASH_BATCH_SIZE = 1000;
+    private static final int UNHASHED_FETCH_SIZE = 1000;
+    private static final int SEQUENCE_FETCH_SIZE = 1000;
+    private static final String TOMBSTONE_SCRIPT = "db/fasta-tombstones.sql";
+    private static final String EXPORT_VERSIONS_SCRIPT = "db/fasta-export-versions.sql";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Properties sql;
+    private boolean tombstoneSchemaInstalled;
+    private boolean exportVersionsInstalled;
+
+    public PostgresFastaRepository(NamedParameterJdbcTemplate jdbcTemplate, Properties sql) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void findSequenceHashes(int networkId, int projectId, String conceptAlias, List<String> markers,
+                                   Collection<Long> hashes, SequenceHashCallback callback) {
+        if (markers.isEmpty() || hashes.isEmpty()) return;
+
+        Map<String, Object> tableMap = PostgresUtils.getTableMap(networkId, conceptAlias);
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("projectId", projectId);
+        sqlParams.put("markers", markers);
+
+        String query = StringSubstitutor.replace(sql.getProperty("getSequenceHashes"), tableMap);
+        List<String> batch = new ArrayList<>(HASH_BATCH_SIZE);
+
+        for (Iterator<Long> it = hashes.iterator(); it.hasNext(); ) {
+            batch.add(SequenceHasher.toHex(it.next()));
+            if (batch.size() < HASH_BATCH_SIZE && it.hasNext()) continue;
+
+            sqlParams.put("hashes", batch);
+            jdbcTemplate.query(
+                    query,
+                    sqlParams,
+                    (RowCallbackHandler) rs -> callback.accept(
+                            rs.getString("expeditionCode"),
+                            rs.getString("identifier"),
+                            rs.getString("marker"),
+                            SequenceHasher.fromHex(rs.getString("hash"))
+                    )
+            );
+            batch = new ArrayList<>(HASH_BATCH_SIZE);
+        }
+    }
+
+    @Override
+    public void backfillSequenceHashes(int networkId, String conceptAlias) {
+        Map<String, Object> tableMap = new HashMap<>(PostgresUtils.getTableMap(networkId, conceptAlias));
+        String indexName = conceptAlias + "_sequence_hash_idx";
+        tableMap.put("indexName", indexName);
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("entityTable", tableMap.get("table"));
+        sqlParams.put("indexName", indexName);
+
+        // the index is only created once the backfill is complete
+        if (sequenceHashIndexExists(sqlParams)) return;
+
+        // takes an exclusive lock on the table until the transaction completes, so the backfill is only run once when
+        // multiple servers are started at the same time. Disabling the triggers keeps the hash updates from modifying
+        // the records for the change feed & export cache
+        jdbcTemplate.getJdbcTemplate().execute(StringSubstitutor.replace(sql.getProperty("disableUserTriggers"), tableMap));
+        if (sequenceHashIndexExists(sqlParams)) {
+            jdbcTemplate.getJdbcTemplate().execute(StringSubstitutor.replace(sql.getProperty("enableUserTriggers"), tableMap));
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        String update = StringSubstitutor.replace(sql.getProperty("setSequenceHash"), tableMap);
+        List<Map<String, Object>> batch = new ArrayList<>(HASH_BATCH_SIZE);
+        int[] count = {0};
+
+        cursorTemplate(UNHASHED_FETCH_SIZE).query(
+                StringSubstitutor.replace(sql.getProperty("getUnhashedSequences"), tableMap),
+                Collections.emptyMap(),
+                (RowCallbackHandler) rs -> {
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("expeditionId", rs.getInt("expeditionId"));
+                    params.put("localIdentifier", rs.getString("localIdentifier"));
+                    params.put("hash", SequenceHasher.toHex(SequenceHasher.hash(rs.getString("sequence"))));
+                    batch.add(params);
+
+                    if (batch.size() == HASH_BATCH_SIZE) {
+                        count[0] += updateBatch(update, batch);
+                    }
+                }
+        );
+        count[0] += updateBatch(update, batch);
+
+        jdbcTemplate.getJdbcTemplate().execute(StringSubstitutor.replace(sql.getProperty("createSequenceHashIndex"), tableMap));
+        jdbcTemplate.getJdbcTemplate().execute(StringSubstitutor.replace(sql.getProperty("enableUserTriggers"), tableMap));
+
+        logger.info("Backfilled " + count[0] + " sequence hashes for " + conceptAlias + " in network " + networkId + " in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private boolean sequenceHashIndexExists(Map<String, Object> sqlParams) {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.queryForObject(sql.getProperty("sequenceHashIndexExists"), sqlParams, Boolean.class)
+        );
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamSequences(int networkId, String conceptAlias, String marker, SequenceCallback callback) {
+        Map<String, Object> tableMap = PostgresUtils.getTableMap(networkId, conceptAlias);
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("marker", marker);
+
+        stream(sql.getProperty("getNetworkSequences"), tableMap, sqlParams, callback);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamRecords(int networkId, FastaExportCriteria criteria, String parentConceptAlias, String parentUniqueKey,
+                              List<String> parentAttributes, int fetchSize, Consumer<Map<String, Object>> consumer) {
+        streamRecords(networkId, criteria, parentConceptAlias, parentUniqueKey, parentAttributes, null, 0, fetchSize, consumer);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamChanges(int networkId, FastaExportCriteria criteria, String parentConceptAlias, String parentUniqueKey,
+                              List<String> parentAttributes, FastaChangeCursor cursor, int limit,
+                              Consumer<Map<String, Object>> consumer) {
+        streamRecords(networkId, criteria, parentConceptAlias, parentUniqueKey, parentAttributes, cursor, limit,
+                Math.min(limit, FastaStreamWriter.DEFAULT_FETCH_SIZE), consumer);
+    }
+
+    @Override
+    public SortedMap<String, SortedSet<String>> getMarkersByExpedition(int networkId, FastaExportCriteria criteria) {
+        Map<String, Object> tableMap = new HashMap<>(PostgresUtils.getTableMap(networkId, criteria.conceptAlias()));
+        tableMap.put("publicExpeditionFilter", criteria.publicExpeditionsOnly() ? sql.getProperty("publicExpeditionFilter") : "");
+        tableMap.put("expeditionFilter", criteria.expeditionCodes().isEmpty() ? "" : sql.getProperty("expeditionFilter"));
+        tableMap.put("markerFilter", markerFilter(criteria, "markerFilter", "noMarkerFilter"));
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("projectId", criteria.projectId());
+        sqlParams.put("expeditionCodes", new ArrayList<>(criteria.expeditionCodes()));
+        sqlParams.put("markers", new ArrayList<>(criteria.markers()));
+
+        SortedMap<String, SortedSet<String>> markersByExpedition = new TreeMap<>();
+        jdbcTemplate.query(
+                StringSubstitutor.replace(sql.getProperty("getMarkersByExpedition"), tableMap),
+                sqlParams,
+                (RowCallbackHandler) rs -> markersByExpedition
+                        .computeIfAbsent(rs.getString("expeditionCode"), k -> new TreeSet<>())
+                        .add(rs.getString("marker"))
+        );
+
+        return markersByExpedition;
+    }
+
+    @Override
+    public SortedMap<String, Long> getExportVersions(FastaExportCriteria criteria) {
+        installExportVersions();
+
+        Map<String, Object> tableMap = new HashMap<>();
+        tableMap.put("publicExpeditionFilter", criteria.publicExpeditionsOnly() ? sql.getProperty("publicExpeditionFilter") : "");
+        tableMap.put("expeditionFilter", criteria.expeditionCodes().isEmpty() ? "" : sql.getProperty("expeditionFilter"));
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("projectId", criteria.projectId());
+        sqlParams.put("expeditionCodes", new ArrayList<>(criteria.expeditionCodes()));
+
+        SortedMap<String, Long> versions = new TreeMap<>();
+        jdbcTemplate.query(
+                StringSubstitutor.replace(sql.getProperty("getExportVersions"), tableMap),
+                sqlParams,
+                (RowCallbackHandler) rs -> versions.put(rs.getString("expeditionCode"), rs.getLong("version"))
+        );
+
+        return versions;
+    }
+
+    @Override
+    public void incrementExportVersions(int projectId, Collection<String> expeditionCodes) {
+        if (expeditionCodes.isEmpty()) return;
+        installExportVersions();
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("projectId", projectId);
+        sqlParams.put("expeditionCodes", new ArrayList<>(expeditionCodes));
+
+        jdbcTemplate.update(sql.getProperty("incrementExportVersions"), sqlParams);
+    }
+
+    @Override
+    public List<FastaTombstone> getDeletions(int networkId, FastaExportCriteria criteria, FastaChangeCursor cursor, int limit) {
+        Map<String, Object> tableMap = new HashMap<>(PostgresUtils.getTableMap(networkId, criteria.conceptAlias()));
+
+        // w/o the trigger, deletions would silently be missing from the results
+        Boolean installed = jdbcTemplate.queryForObject(
+                sql.getProperty("tombstonesInstalled"),
+                Collections.singletonMap("entityTable", tableMap.get("table")),
+                Boolean.class
+        );
+        if (!Boolean.TRUE.equals(installed)) {
+            throw new FimsRuntimeException(FastaWriteCode.TOMBSTONES_NOT_INSTALLED, 500, criteria.conceptAlias());
+        }
+
+        tableMap.put("publicExpeditionFilter", criteria.publicExpeditionsOnly() ? sql.getProperty("tombstonePublicExpeditionFilter") : "");
+        tableMap.put("expeditionFilter", criteria.expeditionCodes().isEmpty() ? "" : sql.getProperty("tombstoneExpeditionFilter"));
+        tableMap.put("markerFilter", markerFilter(criteria, "tombstoneMarkerFilter", "tombstoneNoMarkerFilter"));
+        tableMap.put("afterFilter", cursor.after() == null ? "" : sql.getProperty("tombstoneAfterFilter"));
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("networkId", networkId);
+        sqlParams.put("projectId", criteria.projectId());
+        sqlParams.put("conceptAlias", criteria.conceptAlias());
+        sqlParams.put("expeditionCodes", new ArrayList<>(criteria.expeditionCodes()));
+        sqlParams.put("markers", new ArrayList<>(criteria.markers()));
+        putCursorParams(sqlParams, cursor);
+        sqlParams.put("limit", limit);
+
+        return jdbcTemplate.query(
+                StringSubstitutor.replace(sql.getProperty("getDeletions"), tableMap),
+                sqlParams,
+                (rs, rowNum) -> new FastaTombstone(
+                        rs.getString("bcid"),
+                        rs.getString("expeditionCode"),
+                        rs.getString("marker"),
+                        rs.getTimestamp("deleted")
+                )
+        );
+    }
+
+    @Override
+    public void installTombstones(int networkId, String conceptAlias) {
+        synchronized (this) {
+            if (!tombstoneSchemaInstalled) {
+                // the script is idempotent & contains plpgsql functions, so is executed as a single statement
+                jdbcTemplate.getJdbcTemplate().execute(readResource(TOMBSTONE_SCRIPT));
+                tombstoneSchemaInstalled = true;
+            }
+        }
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("networkId", networkId);
+        sqlParams.put("conceptAlias", conceptAlias);
+
+        jdbcTemplate.query(sql.getProperty("installTombstoneTrigger"), sqlParams, (RowCallbackHandler) rs -> {
+        });
+    }
+
+    @Override
+    public Set<String> getPublicExpeditionCodes(int projectId) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                sql.getProperty("getPublicExpeditionCodes"),
+                Collections.singletonMap("projectId", projectId),
+                String.class
+        ));
+    }
+
+    @Override
+    public Date currentTimestamp() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject("SELECT now()", Timestamp.class);
+    }
+
+    private synchronized void installExportVersions() {
+        if (exportVersionsInstalled) return;
+
+        jdbcTemplate.getJdbcTemplate().execute(readResource(EXPORT_VERSIONS_SCRIPT));
+        exportVersionsInstalled = true;
+    }
+
+    private void streamRecords(int networkId, FastaExportCriteria criteria, String parentConceptAlias, String parentUniqueKey,
+                               List<String> parentAttributes, FastaChangeCursor cursor, int limit, int fetchSize,
+                               Consumer<Map<String, Object>> consumer) {
+        Map<String, Object> tableMap = new HashMap<>(PostgresUtils.getTableMap(networkId, criteria.conceptAlias()));
+        tableMap.put("parentTable", PostgresUtils.getTableMap(networkId, parentConceptAlias).get("table"));
+        tableMap.put("publicExpeditionFilter", criteria.publicExpeditionsOnly() ? sql.getProperty("publicExpeditionFilter") : "");
+        tableMap.put("expeditionFilter", criteria.expeditionCodes().isEmpty() ? "" : sql.getProperty("expeditionFilter"));
+        tableMap.put("markerFilter", markerFilter(criteria, "markerFilter", "noMarkerFilter"));
+        tableMap.put("modifiedFilter", cursor == null ? "" : sql.getProperty("modifiedFilter"));
+        tableMap.put("afterFilter", cursor == null || cursor.after() == null ? "" : sql.getProperty("afterFilter"));
+        tableMap.put("orderBy", cursor == null ? sql.getProperty("recordsOrderBy") : sql.getProperty("changesOrderBy"));
+        tableMap.put("limit", limit > 0 ? "LIMIT :limit" : "");
+
+        Map<String, Object> sqlParams = new HashMap<>();
+        sqlParams.put("projectId", criteria.projectId());
+        sqlParams.put("conceptAlias", criteria.conceptAlias());
+        sqlParams.put("expeditionCodes", new ArrayList<>(criteria.expeditionCodes()));
+        sqlParams.put("markers", new ArrayList<>(criteria.markers()));
+        if (cursor != null) putCursorParams(sqlParams, cursor);
+        if (limit > 0) sqlParams.put("limit", limit);
+
+        // the attribute uris are bound as parameters & the columns are aliased by index
+        StringBuilder parentColumns = new StringBuilder();
+        for (int i = 0; i < parentAttributes.size(); i++) {
+            parentColumns.append(", p.data->>:parentAttribute").append(i).append(" AS \"parentAttribute").append(i).append("\"");
+            sqlParams.put("parentAttribute" + i, parentAttributes.get(i));
+        }
+        tableMap.put("parentColumns", parentColumns.toString());
+
+        cursorTemplate(fetchSize).query(
+                StringSubstitutor.replace(sql.getProperty("streamRecords"), tableMap),
+                sqlParams,
+                (RowCallbackHandler) rs -> {
+                    Map<String, Object> record = new HashMap<>();
+                    putIfNotNull(record, "bcid", rs.getString("bcid"));
+                    putIfNotNull(record, "expeditionCode", rs.getString("expeditionCode"));
+                    putIfNotNull(record, "modified", rs.getTimestamp("modified"));
+                    putIfNotNull(record, FastaProps.MARKER.uri(), rs.getString("marker"));
+                    putIfNotNull(record, FastaProps.SEQUENCE.uri(), rs.getString("sequence"));
+                    putIfNotNull(record, parentUniqueKey, rs.getString("parentIdentifier"));
+                    for (int i = 0; i < parentAttributes.size(); i++) {
+                        putIfNotNull(record, parentAttributes.get(i), rs.getString("parentAttribute" + i));
+                    }
+                    consumer.accept(record);
+                }
+        );
+    }
+
+    /**
+     * records w/o a marker are included if the markers contain {@link FastaExportCriteria#NO_MARKER}
+     */
+    private String markerFilter(FastaExportCriteria criteria, String markerFilter, String noMarkerFilter) {
+        if (criteria.markers().isEmpty()) return "";
+        return sql.getProperty(criteria.markers().contains(FastaExportCriteria.NO_MARKER) ? noMarkerFilter : markerFilter);
+    }
+
+    private static void putCursorParams(Map<String, Object> sqlParams, FastaChangeCursor cursor) {
+        sqlParams.put("since", cursor.since());
+        sqlParams.put("until", cursor.until());
+        if (cursor.after() != null) {
+            sqlParams.put("after", cursor.after());
+            sqlParams.put("afterBcid", cursor.afterBcid());
+        }
+    }
+
+    /**
+     * postgres only uses a server-side cursor if the fetchSize is set & we are in a transaction. we don't want to
+     * change the fetchSize of the shared JdbcTemplate, so we use a new template w/ the same DataSource
+     */
+    private NamedParameterJdbcTemplate cursorTemplate(int fetchSize) {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorTemplate.setFetchSize(fetchSize);
+        return new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+
+    private static String readResource(String path) {
+        try (InputStream is = new ClassPathResource(path).getInputStream()) {
+            return StreamUtils.copyToString(is, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ServerErrorException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int updateBatch(String update, List<Map<String, Object>> batch) {
+        if (batch.isEmpty()) return 0;
+
+        jdbcTemplate.batchUpdate(update, batch.toArray(new Map[batch.size()]));
+        int size = batch.size();
+        batch.clear();
+        return size;
+    }
+
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        if (value != null) map.put(key, value);
+    }
+
+    private void stream(String query, Map<String, Object> tableMap, Map<String, Object> sqlParams, SequenceCallback callback) {
+        cursorTemplate(SEQUENCE_FETCH_SIZE).query(
+                StringSubstitutor.replace(query, tableMap),
+                sqlParams,
+                (RowCallbackHandler) rs -> callback.accept(
+                        rs.getInt("projectId"),
+                        rs.getString("expeditionCode"),
+                        rs.getString("identifier"),
+                        rs.getString("marker"),
+                        rs.getString("sequence")
+                )
+        );
+    }
+}
@@ -0,0 +1,98 @@
+package biocode.fims.fasta;
+
+/**
+ * Fast, non-cryptographic 64 bit hash of normalized nucleotide sequences.
+ * <p>
+ * Sequences are normalized while hashing: case is ignored, 'U' is treated as 'T' and whitespace and gaps ('-' and '.')
+ * are skipped. The hash uses the MurmurHash3 x64 mixing functions over 8 normalized characters at a time.
+ *
+ * @author rjewing
+ */
+public final class SequenceHasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long SEED = 0x9747b28cL;
+
+    private static final byte[] NORMALIZED = new byte[128];
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            NORMALIZED[c] = (byte) c;
+            NORMALIZED[Character.toLowerCase(c)] = (byte) c;
+        }
+        NORMALIZED['U'] = 'T';
+        NORMALIZED['u'] = 'T';
+        for (char c = '0'; c <= '9'; c++) {
+            NORMALIZED[c] = (byte) c;
+        }
+        NORMALIZED['*'] = '*';
+        NORMALIZED['?'] = '?';
+        // everything else (whitespace, gaps, control chars) is 0 and is skipped
+    }
+
+    private SequenceHasher() {
+    }
+
+    public static long hash(CharSequence sequence) {
+        long h = SEED;
+        long k = 0;
+        int shift = 0;
+        long length = 0;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            long b;
+
+            if (c < 128) {
+                b = NORMALIZED[c];
+                if (b == 0) continue;
+            } else {
+                b = c & 0xFF;
+            }
+
+            k |= b << shift;
+            shift += 8;
+            length++;
+
+            if (shift == 64) {
+                h ^= mixK(k);
+                h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+                k = 0;
+                shift = 0;
+            }
+        }
+
+        if (shift > 0) h ^= mixK(k);
+
+        h ^= length;
+        return fmix(h);
+    }
+
+    /**
+     * @return the hash as a fixed length hex string, as stored w/ the record
+     */
+    public static String toHex(long hash) {
+        String hex = Long.toHexString(hash);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    public static long fromHex(String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    private static long mixK(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        k *= C2;
+        return k;
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
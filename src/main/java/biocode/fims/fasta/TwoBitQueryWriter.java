@@ -0,0 +1,373 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.fimsExceptions.errorCodes.FileCode;
+import biocode.fims.fimsExceptions.errorCodes.QueryCode;
+import biocode.fims.query.writers.QueryWriter;
+import biocode.fims.utils.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Writes fasta records in the UCSC .2bit format, a file for each marker. Sequences are packed 4 bases per byte & the
+ * file begins w/ an index of sequence names (the record bcid) to file offsets, so clients can memory-map the file and
+ * read any sequence directly.
+ * <p>
+ * See https://genome.ucsc.edu/FAQ/FAQformat.html#format7
+ * <p>
+ * Like the UCSC tools, any base other than A, C, G or T (ex. ambiguity codes & gaps) is stored as an N, and lowercase
+ * bases are stored as mask blocks. Files larger than 4GB are written as version 1, which uses 64-bit index offsets.
+ * <p>
+ * Sequence names are limited to 255 bytes. Longer names are truncated & suffixed w/ a hash of the full name, so they
+ * remain unique. Records w/o a marker are written to output.2bit.
+ * <p>
+ * Records are streamed from the db. The sequence records & index entries are written to temporary files as they are
+ * read, so memory use does not depend on the number of records. Once all records are read, the header & index are
+ * written followed by the sequence records.
+ *
+ * @author rjewing
+ */
+public class TwoBitQueryWriter implements QueryWriter {
+    private final static Logger logger = LoggerFactory.getLogger(TwoBitQueryWriter.class);
+
+    static final int SIGNATURE = 0x1A412743;
+    static final int MAX_NAME_LENGTH = 255;
+    private static final int HEADER_SIZE = 16;
+    private static final long MAX_VERSION_0_OFFSET = 0xFFFFFFFFL;
+    // '~' followed by 16 hex chars
+    private static final int NAME_HASH_LENGTH = 17;
+
+    // T=0, C=1, A=2, G=3. All other bases are -1 and stored as N
+    private static final byte[] BASE_CODES = new byte[128];
+
+    static {
+        Arrays.fill(BASE_CODES, (byte) -1);
+        BASE_CODES['T'] = BASE_CODES['t'] = 0;
+        BASE_CODES['U'] = BASE_CODES['u'] = 0;
+        BASE_CODES['C'] = BASE_CODES['c'] = 1;
+        BASE_CODES['A'] = BASE_CODES['a'] = 2;
+        BASE_CODES['G'] = BASE_CODES['g'] = 3;
+    }
+
+    private final FastaRepository fastaRepository;
+    private final int networkId;
+    private final FastaExportCriteria criteria;
+    private final int fetchSize;
+    private final long maxVersion0Size;
+    private final Entity parentEntity;
+
+    public TwoBitQueryWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config) {
+        this(fastaRepository, networkId, criteria, config, FastaStreamWriter.DEFAULT_FETCH_SIZE);
+    }
+
+    public TwoBitQueryWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config,
+                             int fetchSize) {
+        this(fastaRepository, networkId, criteria, config, fetchSize, MAX_VERSION_0_OFFSET);
+    }
+
+    /**
+     * @param maxVersion0Size files larger than this are written as version 1. Only lowered for testing
+     */
+    TwoBitQueryWriter(FastaRepository fastaRepository, int networkId, FastaExportCriteria criteria, Config config,
+                      int fetchSize, long maxVersion0Size) {
+        Entity entity = config.entity(criteria.conceptAlias());
+        if (entity == null || !Objects.equals(entity.type(), FastaEntity.TYPE)) {
+            throw new FimsRuntimeException(FastaWriteCode.INVALID_ENTITY, 500, entity == null ? null : entity.type());
+        }
+
+        this.fastaRepository = fastaRepository;
+        this.networkId = networkId;
+        this.criteria = criteria;
+        this.fetchSize = fetchSize;
+        this.maxVersion0Size = maxVersion0Size;
+
+        parentEntity = config.entity(entity.getParentEntity());
+    }
+
+    /**
+     * writes the matching records to a .2bit file for each unique marker
+     *
+     * @return
+     */
+    @Override
+    public List<File> write() {
+        Map<String, MarkerFile> markerFiles = new LinkedHashMap<>();
+        List<File> files = new ArrayList<>();
+        int[] shortenedNames = {0};
+
+        try {
+            fastaRepository.streamRecords(networkId, criteria, parentEntity.getConceptAlias(), parentEntity.getUniqueKey(),
+                    Collections.emptyList(), fetchSize, record -> {
+                        String marker = Objects.toString(record.get(FastaProps.MARKER.uri()), "");
+                        String bcid = (String) record.get("bcid");
+
+                        try {
+                            MarkerFile markerFile = markerFiles.get(marker);
+                            if (markerFile == null) {
+                                markerFile = new MarkerFile(maxVersion0Size);
+                                markerFiles.put(marker, markerFile);
+                            }
+
+                            if (bcid.length() > MAX_NAME_LENGTH) shortenedNames[0]++;
+
+                            markerFile.add(name(bcid), Objects.toString(record.get(FastaProps.SEQUENCE.uri()), ""));
+                        } catch (IOException e) {
+                            throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+                        }
+                    });
+
+            for (Map.Entry<String, MarkerFile> e : markerFiles.entrySet()) {
+                String filename = StringUtils.isBlank(e.getKey()) ? "output.2bit" : e.getKey() + ".2bit";
+                File file = FileUtils.createFile(filename, System.getProperty("java.io.tmpdir"));
+                e.getValue().writeTo(file);
+                files.add(file);
+            }
+        } catch (IOException e) {
+            files.forEach(File::delete);
+            throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+        } finally {
+            markerFiles.values().forEach(MarkerFile::delete);
+        }
+
+        if (shortenedNames[0] > 0) {
+            logger.warn(shortenedNames[0] + " sequence names were longer then " + MAX_NAME_LENGTH +
+                    " bytes & were shortened in the .2bit export");
+        }
+
+        if (files.isEmpty()) {
+            throw new FimsRuntimeException(QueryCode.NO_RESOURCES, 400);
+        }
+
+        return files;
+    }
+
+    /**
+     * @return the name as ASCII bytes. Names longer than {@link #MAX_NAME_LENGTH} are truncated & suffixed w/ '~' and
+     * a hash of the full name
+     */
+    static byte[] name(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length <= MAX_NAME_LENGTH) return bytes;
+
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be supported by all jvms
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder suffix = new StringBuilder("~");
+        for (int i = 0; i < 8; i++) {
+            suffix.append(String.format("%02x", hash[i]));
+        }
+
+        byte[] shortened = Arrays.copyOf(bytes, MAX_NAME_LENGTH);
+        System.arraycopy(suffix.toString().getBytes(StandardCharsets.US_ASCII), 0, shortened,
+                MAX_NAME_LENGTH - NAME_HASH_LENGTH, NAME_HASH_LENGTH);
+        return shortened;
+    }
+
+    /**
+     * Encode a sequence record:
+     * <p>
+     * dnaSize, nBlockCount, nBlockStarts[], nBlockSizes[], maskBlockCount, maskBlockStarts[], maskBlockSizes[],
+     * reserved, packedDna
+     */
+    static ByteBuffer encode(CharSequence sequence) {
+        int len = sequence.length();
+        BlockList nBlocks = new BlockList();
+        BlockList maskBlocks = new BlockList();
+        byte[] packed = new byte[(len + 3) / 4];
+
+        int nStart = -1;
+        int maskStart = -1;
+
+        for (int i = 0; i < len; i++) {
+            char c = sequence.charAt(i);
+            int code = c < 128 ? BASE_CODES[c] : -1;
+
+            if (code == -1) {
+                if (nStart == -1) nStart = i;
+                code = 0; // N's are stored as T
+            } else if (nStart != -1) {
+                nBlocks.add(nStart, i - nStart);
+                nStart = -1;
+            }
+
+            if (Character.isLowerCase(c)) {
+                if (maskStart == -1) maskStart = i;
+            } else if (maskStart != -1) {
+                maskBlocks.add(maskStart, i - maskStart);
+                maskStart = -1;
+            }
+
+            packed[i >> 2] |= code << (6 - ((i & 3) << 1));
+        }
+
+        if (nStart != -1) nBlocks.add(nStart, len - nStart);
+        if (maskStart != -1) maskBlocks.add(maskStart, len - maskStart);
+
+        ByteBuffer buffer = ByteBuffer
+                .allocate(16 + 4 * nBlocks.size() + 4 * maskBlocks.size() + packed.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(len);
+        nBlocks.writeBlocks(buffer);
+        maskBlocks.writeBlocks(buffer);
+        buffer.putInt(0); // reserved
+        buffer.put(packed);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * the sequence records & index entries for a single marker. Index entries are written w/ offsets relative to the
+     * start of the first sequence record
+     */
+    private static class MarkerFile {
+        private final File data;
+        private final File index;
+        private final FileChannel dataChannel;
+        private final DataOutputStream indexStream;
+        private final long maxVersion0Size;
+        private int count;
+        private long dataSize;
+        private long nameBytes;
+
+        private MarkerFile(long maxVersion0Size) throws IOException {
+            this.maxVersion0Size = maxVersion0Size;
+            data = File.createTempFile("twobit", ".dat");
+            index = File.createTempFile("twobit", ".idx");
+            dataChannel = FileChannel.open(data.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            indexStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+        }
+
+        private void add(byte[] nameBytes, String sequence) throws IOException {
+            indexStream.writeByte(nameBytes.length);
+            indexStream.write(nameBytes);
+            indexStream.writeLong(dataSize);
+
+            ByteBuffer record = encode(sequence);
+            dataSize += record.remaining();
+            while (record.hasRemaining()) {
+                dataChannel.write(record);
+            }
+
+            this.nameBytes += nameBytes.length;
+            count++;
+        }
+
+        private void writeTo(File file) throws IOException {
+            indexStream.close();
+            dataChannel.close();
+
+            long indexSize = count + nameBytes + 4L * count;
+            int version = 0;
+            if (HEADER_SIZE + indexSize + dataSize > maxVersion0Size) {
+                version = 1;
+                indexSize += 4L * count;
+            }
+            long dataOffset = HEADER_SIZE + indexSize;
+
+            try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(SIGNATURE);
+                buffer.putInt(version);
+                buffer.putInt(count);
+                buffer.putInt(0); // reserved
+
+                byte[] name = new byte[MAX_NAME_LENGTH];
+                for (int i = 0; i < count; i++) {
+                    int nameLength = in.readUnsignedByte();
+                    in.readFully(name, 0, nameLength);
+                    long offset = dataOffset + in.readLong();
+
+                    if (buffer.remaining() < 1 + nameLength + 8) flush(buffer, out);
+
+                    buffer.put((byte) nameLength);
+                    buffer.put(name, 0, nameLength);
+                    if (version == 1) buffer.putLong(offset);
+                    else buffer.putInt((int) offset);
+                }
+                flush(buffer, out);
+
+                try (FileChannel dataIn = FileChannel.open(data.toPath(), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < dataSize) {
+                        position += dataIn.transferTo(position, dataSize - position, out);
+                    }
+                }
+            }
+        }
+
+        private void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void delete() {
+            try {
+                indexStream.close();
+                dataChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            data.delete();
+            index.delete();
+        }
+    }
+
+    /**
+     * growable list of (start, size) block pairs
+     */
+    private static class BlockList {
+        private int[] starts = new int[4];
+        private int[] sizes = new int[4];
+        private int size;
+
+        private void add(int start, int blockSize) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                sizes = Arrays.copyOf(sizes, size * 2);
+            }
+            starts[size] = start;
+            sizes[size++] = blockSize;
+        }
+
+        /**
+         * @return the number of int values written by {@link #writeBlocks}, excluding the count
+         */
+        private int size() {
+            return size * 2;
+        }
+
+        private void writeBlocks(ByteBuffer buffer) {
+            buffer.putInt(size);
+            for (int i = 0; i < size; i++) buffer.putInt(starts[i]);
+            for (int i = 0; i < size; i++) buffer.putInt(sizes[i]);
+        }
+    }
+}
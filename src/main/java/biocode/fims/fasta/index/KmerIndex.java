@@ -0,0 +1,376 @@
+package biocode.fims.fasta.index;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory k-mer inverted index of nucleotide sequences.
+ * <p>
+ * Each distinct k-mer maps to a postings list of the (ascending) ids of the sequences containing that k-mer. Postings
+ * are stored as primitive int arrays, and k-mers as primitive longs (see {@link Kmers}), so the memory used is ~4 bytes
+ * per distinct k-mer per sequence.
+ * <p>
+ * Replaced and removed sequences are marked as deleted, and are skipped when searching. Once more then
+ * {@link #COMPACT_THRESHOLD} of the indexed sequences are deleted, the index is compacted, dropping the deleted ids
+ * from the postings.
+ *
+ * @author rjewing
+ */
+public class KmerIndex {
+    public static final double COMPACT_THRESHOLD = .25;
+    private static final long[] EMPTY_KMERS = new long[0];
+
+    private final int k;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // kmer -> index into postings
+    private LongIntHashMap kmers = new LongIntHashMap();
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private long postingCount;
+
+    // sequence id -> info
+    private List<Entry> entries = new ArrayList<>();
+    private final Map<Entry, Integer> ids = new HashMap<>();
+    private BitSet deleted = new BitSet();
+
+    // reusable per search scratch space, so we don't allocate an array the size of the index for every query
+    private final Queue<SearchBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    public KmerIndex(int k) {
+        if (k < 1 || k > Kmers.MAX_K) throw new IllegalArgumentException("k must be between 1 and " + Kmers.MAX_K);
+        this.k = k;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    /**
+     * index the sequence. If a sequence for the same projectId, expeditionCode & identifier has already been indexed,
+     * it is replaced.
+     */
+    public void add(int projectId, String expeditionCode, String identifier, CharSequence sequence) {
+        long[] sequenceKmers = distinctKmers(sequence);
+        Entry entry = new Entry(projectId, expeditionCode, identifier);
+
+        lock.writeLock().lock();
+        try {
+            Integer existing = ids.get(entry);
+            if (existing != null) {
+                deleted.set(existing);
+                maybeCompact();
+            }
+
+            int id = entries.size();
+            entries.add(entry);
+            ids.put(entry, id);
+
+            for (long kmer : sequenceKmers) {
+                int slot = kmers.get(kmer);
+
+                if (slot == LongIntHashMap.NO_VALUE) {
+                    slot = kmers.size();
+                    kmers.put(kmer, slot);
+                    ensurePostingsCapacity(slot + 1);
+                    postings[slot] = new int[4];
+                } else if (postingSizes[slot] == postings[slot].length) {
+                    postings[slot] = Arrays.copyOf(postings[slot], postings[slot].length * 2);
+                }
+
+                postings[slot][postingSizes[slot]++] = id;
+            }
+            postingCount += sequenceKmers.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int projectId, String expeditionCode, String identifier) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(new Entry(projectId, expeditionCode, identifier));
+            if (id != null) {
+                deleted.set(id);
+                maybeCompact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove all sequences for the expedition
+     */
+    public void removeExpedition(int projectId, String expeditionCode) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<Entry, Integer>> it = ids.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Entry, Integer> e = it.next();
+
+                if (e.getKey().projectId == projectId && Objects.equals(e.getKey().expeditionCode, expeditionCode)) {
+                    deleted.set(e.getValue());
+                    it.remove();
+                }
+            }
+
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of indexed sequences, excluding removed sequences
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the indexed sequences sharing the most k-mers with the query sequence.
+     *
+     * @param sequence   the query sequence
+     * @param projectIds only return sequences belonging to one of these projects
+     * @param minShared  the minimum number of shared k-mers required for a hit
+     * @param limit      the max number of hits to return
+     * @return hits ordered by the number of shared k-mers descending
+     */
+    public List<KmerSearchHit> search(CharSequence sequence, Collection<Integer> projectIds, int minShared, int limit) {
+        return search(sequence, projectIds, null, minShared, limit);
+    }
+
+    /**
+     * Find the indexed sequences sharing the most k-mers with the query sequence.
+     *
+     * @param sequence        the query sequence
+     * @param projectIds      only return sequences belonging to one of these projects
+     * @param expeditionCodes if not null, only return sequences belonging to one of these expeditions
+     * @param minShared       the minimum number of shared k-mers required for a hit
+     * @param limit           the max number of hits to return
+     * @return hits ordered by the number of shared k-mers descending
+     */
+    public List<KmerSearchHit> search(CharSequence sequence, Collection<Integer> projectIds,
+                                      Collection<String> expeditionCodes, int minShared, int limit) {
+        long[] queryKmers = distinctKmers(sequence);
+        if (queryKmers.length == 0 || limit < 1) return Collections.emptyList();
+
+        SearchBuffer buffer = buffers.poll();
+        if (buffer == null) buffer = new SearchBuffer();
+
+        lock.readLock().lock();
+        try {
+            buffer.ensureCapacity(entries.size());
+            int[] shared = buffer.shared;
+            int[] touched = buffer.touched;
+            int touchedSize = 0;
+
+            for (long kmer : queryKmers) {
+                int slot = kmers.get(kmer);
+                if (slot == LongIntHashMap.NO_VALUE) continue;
+
+                int[] posting = postings[slot];
+                for (int i = 0, size = postingSizes[slot]; i < size; i++) {
+                    if (shared[posting[i]]++ == 0) touched[touchedSize++] = posting[i];
+                }
+            }
+
+            // min-heap of the best hits so far, ties broken by id so results are stable
+            PriorityQueue<int[]> best = new PriorityQueue<>(
+                    (a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(b[0], a[0])
+            );
+
+            for (int t = 0; t < touchedSize; t++) {
+                int id = touched[t];
+                int count = shared[id];
+                // reset the buffer for the next search
+                shared[id] = 0;
+
+                if (count < Math.max(1, minShared) || deleted.get(id)) continue;
+                Entry entry = entries.get(id);
+                if (!projectIds.contains(entry.projectId)) continue;
+                if (expeditionCodes != null && !expeditionCodes.contains(entry.expeditionCode)) continue;
+
+                if (best.size() < limit) {
+                    best.add(new int[]{id, count});
+                } else if (count > best.peek()[1] || (count == best.peek()[1] && id < best.peek()[0])) {
+                    best.poll();
+                    best.add(new int[]{id, count});
+                }
+            }
+
+            List<KmerSearchHit> hits = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                int[] hit = best.poll();
+                Entry entry = entries.get(hit[0]);
+                hits.add(new KmerSearchHit(entry.projectId, entry.expeditionCode, entry.identifier, hit[1], queryKmers.length));
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * @return a rough estimate of the heap memory used by the index
+     */
+    public long bytesEstimate() {
+        lock.readLock().lock();
+        try {
+            // postings + kmer map & posting arrays + entries, ids & the entry objects
+            return postingCount * 4 + kmers.size() * 48L + entries.size() * 128L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of ids in the index, including deleted ids which have not been compacted yet
+     */
+    int capacity() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the deleted ids from the postings if more then {@link #COMPACT_THRESHOLD} of the ids are deleted.
+     * Must be called while holding the write lock.
+     */
+    private void maybeCompact() {
+        int deletedCount = entries.size() - ids.size();
+        if (deletedCount == 0 || deletedCount < entries.size() * COMPACT_THRESHOLD) return;
+
+        // old id -> new id. ids are re-assigned in the same order, so the postings stay sorted
+        int[] newIds = new int[entries.size()];
+        List<Entry> newEntries = new ArrayList<>(ids.size());
+
+        for (int id = 0; id < entries.size(); id++) {
+            if (deleted.get(id)) {
+                newIds[id] = -1;
+            } else {
+                newIds[id] = newEntries.size();
+                newEntries.add(entries.get(id));
+            }
+        }
+
+        LongIntHashMap newKmers = new LongIntHashMap(kmers.size());
+        int[][] newPostings = new int[Math.max(1024, kmers.size())][];
+        int[] newPostingSizes = new int[newPostings.length];
+        long[] newPostingCount = {0};
+
+        kmers.forEach((kmer, slot) -> {
+            int[] posting = postings[slot];
+            int size = 0;
+
+            for (int i = 0; i < postingSizes[slot]; i++) {
+                int id = newIds[posting[i]];
+                if (id != -1) posting[size++] = id;
+            }
+
+            // drop k-mers which only occurred in deleted sequences
+            if (size == 0) return;
+
+            int newSlot = newKmers.size();
+            newKmers.put(kmer, newSlot);
+            newPostings[newSlot] = size == posting.length ? posting : Arrays.copyOf(posting, Math.max(4, size));
+            newPostingSizes[newSlot] = size;
+            newPostingCount[0] += size;
+        });
+
+        for (Map.Entry<Entry, Integer> e : ids.entrySet()) {
+            e.setValue(newIds[e.getValue()]);
+        }
+
+        entries = newEntries;
+        deleted = new BitSet();
+        kmers = newKmers;
+        postings = newPostings;
+        postingSizes = newPostingSizes;
+        postingCount = newPostingCount[0];
+        // the buffers may be much larger then needed now
+        buffers.clear();
+    }
+
+    private long[] distinctKmers(CharSequence sequence) {
+        long[] values = new long[Math.max(0, sequence.length() - k + 1)];
+        int[] count = {0};
+
+        Kmers.forEach(sequence, k, kmer -> {
+            // gaps & whitespace are skipped, so there can be at most sequence.length() - k + 1 kmers
+            values[count[0]++] = kmer;
+        });
+
+        if (count[0] == 0) return EMPTY_KMERS;
+
+        Arrays.sort(values, 0, count[0]);
+
+        int distinct = 1;
+        for (int i = 1; i < count[0]; i++) {
+            if (values[i] != values[distinct - 1]) values[distinct++] = values[i];
+        }
+        return Arrays.copyOf(values, distinct);
+    }
+
+    private void ensurePostingsCapacity(int capacity) {
+        if (capacity <= postings.length) return;
+
+        int newCapacity = Math.max(capacity, postings.length * 2);
+        postings = Arrays.copyOf(postings, newCapacity);
+        postingSizes = Arrays.copyOf(postingSizes, newCapacity);
+    }
+
+    private static class SearchBuffer {
+        // sequence id -> number of k-mers shared w/ the query. all zeros between searches
+        private int[] shared = new int[0];
+        // the ids w/ a non-zero count
+        private int[] touched = new int[0];
+
+        private void ensureCapacity(int capacity) {
+            if (shared.length >= capacity) return;
+
+            shared = new int[capacity + capacity / 4];
+            touched = new int[shared.length];
+        }
+    }
+
+    private static class Entry {
+        private final int projectId;
+        private final String expeditionCode;
+        private final String identifier;
+
+        private Entry(int projectId, String expeditionCode, String identifier) {
+            this.projectId = projectId;
+            this.expeditionCode = expeditionCode;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry entry = (Entry) o;
+            return projectId == entry.projectId &&
+                    Objects.equals(expeditionCode, entry.expeditionCode) &&
+                    Objects.equals(identifier, entry.identifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectId, expeditionCode, identifier);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package biocode.fims.fasta.index;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * @author rjewing
+ */
+public class KmerSearchHit {
+    @JsonProperty
+    private final int projectId;
+    @JsonProperty
+    private final String expeditionCode;
+    @JsonProperty
+    private final String identifier;
+    @JsonProperty
+    private final int sharedKmers;
+    @JsonProperty
+    private final double score;
+
+    public KmerSearchHit(int projectId, String expeditionCode, String identifier, int sharedKmers, int queryKmers) {
+        this.projectId = projectId;
+        this.expeditionCode = expeditionCode;
+        this.identifier = identifier;
+        this.sharedKmers = sharedKmers;
+        this.score = queryKmers == 0 ? 0 : (double) sharedKmers / queryKmers;
+    }
+
+    public int projectId() {
+        return projectId;
+    }
+
+    public String expeditionCode() {
+        return expeditionCode;
+    }
+
+    public String identifier() {
+        return identifier;
+    }
+
+    public int sharedKmers() {
+        return sharedKmers;
+    }
+
+    /**
+     * @return the fraction of the query sequences distinct k-mers found in this sequence
+     */
+    public double score() {
+        return score;
+    }
+}
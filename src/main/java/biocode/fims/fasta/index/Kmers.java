@@ -0,0 +1,73 @@
+package biocode.fims.fasta.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Utilities for enumerating the k-mers of nucleotide sequences.
+ * <p>
+ * k-mers are encoded 2 bits per base (A=0, C=1, G=2, T/U=3) into a long, so k can be at most 31. Case is ignored,
+ * whitespace and gaps are skipped and any k-mer containing a base other then ACGTU is skipped.
+ *
+ * @author rjewing
+ */
+public final class Kmers {
+    public static final int MAX_K = 31;
+
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        CODES['A'] = CODES['a'] = 0;
+        CODES['C'] = CODES['c'] = 1;
+        CODES['G'] = CODES['g'] = 2;
+        CODES['T'] = CODES['t'] = 3;
+        CODES['U'] = CODES['u'] = 3;
+        // skipped chars
+        CODES['-'] = CODES['.'] = CODES[' '] = CODES['\t'] = CODES['\n'] = CODES['\r'] = -2;
+    }
+
+    private Kmers() {
+    }
+
+    /**
+     * call the consumer with the encoded value of each k-mer in the sequence, in sequence order
+     *
+     * @param sequence
+     * @param k        between 1 and {@link #MAX_K}
+     * @param consumer
+     */
+    public static void forEach(CharSequence sequence, int k, LongConsumer consumer) {
+        if (k < 1 || k > MAX_K) throw new IllegalArgumentException("k must be between 1 and " + MAX_K);
+
+        long mask = (1L << (2 * k)) - 1;
+        long kmer = 0;
+        int valid = 0;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            int code = c < 128 ? CODES[c] : -1;
+
+            if (code == -2) continue;
+            if (code == -1) {
+                valid = 0;
+                continue;
+            }
+
+            kmer = ((kmer << 2) | code) & mask;
+            if (++valid >= k) consumer.accept(kmer);
+        }
+    }
+
+    /**
+     * 64 bit finalizer from MurmurHash3. Used to turn encoded k-mers into well distributed hashes
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,139 @@
+package biocode.fims.fasta.index;
+
+import java.util.Arrays;
+
+/**
+ * Minimal open addressing hash map from primitive long keys to non-negative int values.
+ * <p>
+ * This avoids boxing every key and entry object, so large numbers of sequence hashes can be indexed with ~12 bytes per
+ * slot.
+ *
+ * @author rjewing
+ */
+public class LongIntHashMap {
+    public static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = .6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int threshold;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @param key
+     * @return the value for the key, or {@link #NO_VALUE} if the key is not present
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+
+        for (int i = slot(key, mask); values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+        }
+
+        return NO_VALUE;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * @param key
+     * @param value must be >= 0
+     * @return the previous value for the key, or {@link #NO_VALUE} if the key was not present
+     */
+    public int put(long key, int value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * @param key
+     * @param value must be >= 0
+     * @return the existing value for the key, or {@link #NO_VALUE} if the value was added
+     */
+    public int putIfAbsent(long key, int value) {
+        return put(key, value, false);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != NO_VALUE) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    private int put(long key, int value, boolean replace) {
+        if (value < 0) throw new IllegalArgumentException("value must be >= 0");
+
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+
+        for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                if (replace) values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+
+        if (++size > threshold) rehash();
+
+        return NO_VALUE;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(keys.length << 1);
+        int mask = keys.length - 1;
+
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == NO_VALUE) continue;
+
+            int i = slot(oldKeys[j], mask);
+            while (values[i] != NO_VALUE) i = (i + 1) & mask;
+
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(long key, int mask) {
+        // keys are usually already well mixed hashes, but fold the high bits in case they are not
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+}
@@ -0,0 +1,67 @@
+package biocode.fims.fasta.index;
+
+import java.util.Arrays;
+
+/**
+ * MinHash sketches of the k-mer sets of nucleotide sequences. The fraction of matching sketch values between 2
+ * sketches estimates the Jaccard similarity of the k-mer sets.
+ *
+ * @author rjewing
+ */
+public class MinHash {
+    private final int k;
+    private final long[] seeds;
+
+    public MinHash(int k, int numHashes) {
+        if (numHashes < 1) throw new IllegalArgumentException("numHashes must be > 0");
+        if (k < 1 || k > Kmers.MAX_K) throw new IllegalArgumentException("k must be between 1 and " + Kmers.MAX_K);
+
+        this.k = k;
+        this.seeds = new long[numHashes];
+
+        // fixed seeds so sketches are comparable between instances
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < numHashes; i++) {
+            seed = Kmers.mix(seed + 0x9E3779B97F4A7C15L);
+            seeds[i] = seed;
+        }
+    }
+
+    /**
+     * @param sequence
+     * @return the sketch, or null if the sequence doesn't contain any k-mers
+     */
+    public long[] sketch(CharSequence sequence) {
+        long[] sketch = new long[seeds.length];
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        boolean[] hasKmers = {false};
+
+        Kmers.forEach(sequence, k, kmer -> {
+            hasKmers[0] = true;
+            long h = Kmers.mix(kmer);
+            for (int i = 0; i < seeds.length; i++) {
+                long v = Kmers.mix(h ^ seeds[i]);
+                if (v < sketch[i]) sketch[i] = v;
+            }
+        });
+
+        return hasKmers[0] ? sketch : null;
+    }
+
+    public int numHashes() {
+        return seeds.length;
+    }
+
+    /**
+     * @return the estimated Jaccard similarity of the k-mer sets the sketches were created from
+     */
+    public static double similarity(long[] a, long[] b) {
+        if (a.length != b.length) throw new IllegalArgumentException("sketches must be the same size");
+
+        int matches = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) matches++;
+        }
+        return (double) matches / a.length;
+    }
+}
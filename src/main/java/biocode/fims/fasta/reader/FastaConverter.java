@@ -4,23 +4,42 @@ import biocode.fims.config.models.FastaEntity;
 import biocode.fims.config.project.ProjectConfig;
 import biocode.fims.fasta.FastaProps;
 import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.fasta.index.LongIntHashMap;
 import biocode.fims.fimsExceptions.FimsRuntimeException;
 import biocode.fims.fimsExceptions.errorCodes.DataReaderCode;
 import biocode.fims.reader.DataConverter;
 import biocode.fims.records.Record;
 import biocode.fims.records.RecordSet;
 
+import java.util.*;
+
 /**
  * @author rjewing
  */
 public class FastaConverter implements DataConverter {
+    private final FastaRepository fastaRepository;
     protected ProjectConfig config;
 
     private String parentKey;
 
-    public FastaConverter() {}
+    /**
+     * Records are not checked for duplicates of stored sequences. Use {@link #FastaConverter(FastaRepository)} to
+     * include the stored sequence check.
+     */
+    public FastaConverter() {
+        this(null);
+    }
+
+    /**
+     * @param fastaRepository used to mark records w/ the same sequence as a stored record
+     */
+    public FastaConverter(FastaRepository fastaRepository) {
+        this.fastaRepository = fastaRepository;
+    }
 
-    private FastaConverter(ProjectConfig projectConfig) {
+    private FastaConverter(FastaRepository fastaRepository, ProjectConfig projectConfig) {
+        this.fastaRepository = fastaRepository;
         this.config = projectConfig;
     }
 
@@ -38,6 +57,7 @@ public class FastaConverter implements DataConverter {
         parentKey = config.entity(parent).getUniqueKeyURI();
 
         updateRecords(recordSet);
+        markExistingDuplicates(recordSet, networkId);
     }
 
     /**
@@ -56,8 +76,69 @@ public class FastaConverter implements DataConverter {
         }
     }
 
+    /**
+     * Mark any records which have the same sequence & marker as a sequence already stored in the project. Only the
+     * stored records w/ the same hash as an uploaded record are read from the db. Their hashes are looked up in an
+     * index of the uploaded records hashes, so the stored sequences are never compared to each uploaded sequence.
+     * <p>
+     * Stored records which will be replaced by this upload are ignored. Skipped if no FastaRepository was provided.
+     *
+     * @param recordSet
+     * @param networkId
+     */
+    private void markExistingDuplicates(RecordSet recordSet, int networkId) {
+        if (fastaRepository == null || networkId == 0 || recordSet.expeditionCode() == null) return;
+
+        List<FastaRecord> records = new ArrayList<>();
+        List<String> markers = new ArrayList<>();
+
+        for (Record r : recordSet.recordsToPersist()) {
+            if (!(r instanceof FastaRecord) || ((FastaRecord) r).packedSequence() == null) continue;
+            records.add((FastaRecord) r);
+
+            String marker = r.get(FastaProps.MARKER.uri());
+            if (!markers.contains(marker)) markers.add(marker);
+        }
+
+        if (records.isEmpty()) return;
+
+        // hash -> index of the last record w/ that hash. next[i] holds the index of the previous record w/ the same
+        // hash, so duplicate sequences within the upload are chained together
+        LongIntHashMap index = new LongIntHashMap(records.size());
+        int[] next = new int[records.size()];
+        Arrays.fill(next, LongIntHashMap.NO_VALUE);
+
+        for (int i = 0; i < records.size(); i++) {
+            next[i] = index.put(records.get(i).sequenceHash(), i);
+        }
+
+        String expeditionCode = recordSet.expeditionCode();
+
+        Set<Long> hashes = new HashSet<>();
+        records.forEach(r -> hashes.add(r.sequenceHash()));
+
+        fastaRepository.findSequenceHashes(networkId, recordSet.projectId(), recordSet.conceptAlias(), markers, hashes,
+                (storedExpeditionCode, identifier, marker, hash) -> {
+                    boolean sameExpedition = Objects.equals(expeditionCode, storedExpeditionCode);
+                    // all existing records in the expedition will be removed
+                    if (sameExpedition && recordSet.reload()) return;
+
+                    int i = index.get(hash);
+
+                    for (; i != LongIntHashMap.NO_VALUE; i = next[i]) {
+                        FastaRecord r = records.get(i);
+
+                        if (!Objects.equals(marker, r.get(FastaProps.MARKER.uri()))) continue;
+                        // this record will be replaced by the uploaded record
+                        if (sameExpedition && Objects.equals(identifier, r.get(FastaProps.IDENTIFIER.uri()))) continue;
+
+                        if (r.duplicateOfIdentifier() == null) r.setDuplicateOf(identifier, storedExpeditionCode);
+                    }
+                });
+    }
+
     @Override
     public DataConverter newInstance(ProjectConfig projectConfig) {
-        return new FastaConverter(projectConfig);
+        return new FastaConverter(fastaRepository, projectConfig);
     }
 }
@@ -0,0 +1,174 @@
+package biocode.fims.fasta.reader;
+
+/**
+ * Single pass tokenizer for fasta header lines.
+ * <p>
+ * The identifier is everything up to the first whitespace. The remainder of the header is scanned for metadata pairs in
+ * either of the following forms:
+ * <p>
+ * - key=value, key="quoted value" or key='quoted value' (curly double quotes are also accepted). Whitespace around
+ *   '=' is allowed
+ * - [key = value] as written by the FastaQueryWriter
+ * <p>
+ * Any other text is ignored. Only the identifier, keys & values are allocated.
+ *
+ * @author rjewing
+ */
+public final class FastaHeaderTokenizer {
+
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(String key, String value);
+    }
+
+    private FastaHeaderTokenizer() {
+    }
+
+    /**
+     * @param header   the header line w/o the leading '>'
+     * @param consumer called for each key/value pair in the order they appear in the header
+     * @return the identifier, or null if header is null
+     */
+    public static String tokenize(String header, PairConsumer consumer) {
+        if (header == null) return null;
+
+        int len = header.length();
+        int i = skipWhitespace(header, 0);
+        int identifierStart = i;
+
+        while (i < len && !Character.isWhitespace(header.charAt(i))) i++;
+        String identifier = header.substring(identifierStart, i);
+
+        while ((i = skipWhitespace(header, i)) < len) {
+            i = header.charAt(i) == '['
+                    ? bracketPair(header, i + 1, consumer)
+                    : pair(header, i, consumer);
+        }
+
+        return identifier;
+    }
+
+    /**
+     * parse a [key = value] pair
+     *
+     * @param start the index following the '['
+     * @return the index following the pair
+     */
+    private static int bracketPair(String header, int start, PairConsumer consumer) {
+        int len = header.length();
+        int eq = -1;
+        int i = start;
+
+        for (; i < len && header.charAt(i) != ']'; i++) {
+            char c = header.charAt(i);
+            if (c == '=' && eq == -1) eq = i;
+            else if (eq != -1 && isOpenQuote(c) && isBlank(header, eq + 1, i)) {
+                // quoted value may contain ']'
+                i = closingQuote(header, i);
+                if (i == len) break;
+            }
+        }
+
+        if (eq != -1) {
+            String key = trim(header, start, eq);
+            if (!key.isEmpty()) consumer.accept(key, unquote(trim(header, eq + 1, Math.min(i, len))));
+        }
+
+        return i < len ? i + 1 : len;
+    }
+
+    /**
+     * parse a key=value pair. If the token is not followed by '=', it is skipped
+     *
+     * @return the index following the pair or token
+     */
+    private static int pair(String header, int start, PairConsumer consumer) {
+        int len = header.length();
+        int i = start;
+
+        while (i < len && header.charAt(i) != '=' && !Character.isWhitespace(header.charAt(i))) i++;
+        int keyEnd = i;
+
+        i = skipWhitespace(header, i);
+        if (i == len || header.charAt(i) != '=' || keyEnd == start) {
+            // not a pair, skip the token
+            return keyEnd == start ? start + 1 : keyEnd;
+        }
+
+        i = skipWhitespace(header, i + 1);
+
+        String value;
+        if (i < len && isOpenQuote(header.charAt(i))) {
+            int close = closingQuote(header, i);
+            value = unquote(header.substring(i, Math.min(close + 1, len)));
+            i = close + 1;
+        } else {
+            int valueStart = i;
+            while (i < len && !Character.isWhitespace(header.charAt(i))) i++;
+            value = header.substring(valueStart, i);
+        }
+
+        consumer.accept(header.substring(start, keyEnd), value);
+        return Math.min(i, len);
+    }
+
+    private static boolean isOpenQuote(char c) {
+        return c == '"' || c == '\'' || c == '\u201C';
+    }
+
+    private static char closeQuoteFor(char c) {
+        return c == '\u201C' ? '\u201D' : c;
+    }
+
+    /**
+     * @param openIndex the index of the opening quote
+     * @return the index of the closing quote, or the header length if the quote is not closed
+     */
+    private static int closingQuote(String header, int openIndex) {
+        char close = closeQuoteFor(header.charAt(openIndex));
+        int i = openIndex + 1;
+
+        for (; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '\\') i++;
+            else if (c == close) return i;
+        }
+
+        return header.length();
+    }
+
+    /**
+     * remove surrounding quotes & any escape chars from the value
+     */
+    private static String unquote(String value) {
+        if (value.isEmpty() || !isOpenQuote(value.charAt(0))) return value;
+
+        char close = closeQuoteFor(value.charAt(0));
+        int end = value.length() > 1 && value.charAt(value.length() - 1) == close ? value.length() - 1 : value.length();
+
+        if (value.indexOf('\\') == -1) return value.substring(1, end);
+
+        StringBuilder sb = new StringBuilder(end);
+        for (int i = 1; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < end) c = value.charAt(++i);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isBlank(String s, int start, int end) {
+        return skipWhitespace(s, start) >= end;
+    }
+
+    private static String trim(String s, int start, int end) {
+        start = skipWhitespace(s, start);
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) end--;
+        return s.substring(start, end);
+    }
+}
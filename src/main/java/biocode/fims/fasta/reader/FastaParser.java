@@ -0,0 +1,191 @@
+package biocode.fims.fasta.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming pull parser for fasta formatted data.
+ * <p>
+ * The parser reads from a {@link ReadableByteChannel} (or a pre-filled {@link ByteBuffer}) through a single reusable
+ * buffer, scanning bytes directly instead of allocating a String for each line. Sequence data is accumulated in a
+ * growable {@link StringBuilder} which is reset, not re-allocated, between records, so parsing time is linear in the
+ * size of the input.
+ * <p>
+ * Line terminators (\n, \r\n and \r) are stripped. Any sequence data found before the first header is returned as a
+ * record with a null header.
+ * <p>
+ * usage:
+ * <pre>
+ *     try (FastaParser parser = new FastaParser(channel)) {
+ *         while (parser.next()) {
+ *             parser.header();
+ *             parser.sequence();
+ *         }
+ *     }
+ * </pre>
+ *
+ * @author rjewing
+ */
+public class FastaParser implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final StringBuilder sequence;
+
+    private byte[] headerBytes = new byte[256];
+    private int headerLength;
+    private String header;
+
+    private boolean atLineStart = true;
+    private boolean inHeader;
+    private boolean lastWasCR;
+    private boolean pendingHeader;
+
+    public FastaParser(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FastaParser(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+        this.sequence = new StringBuilder(1024);
+    }
+
+    /**
+     * Parse the fasta data contained in the provided buffer. The buffer is read from its current position to its limit.
+     *
+     * @param buffer
+     */
+    public FastaParser(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+        this.sequence = new StringBuilder(1024);
+    }
+
+    /**
+     * advance to the next record
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() throws IOException {
+        header = null;
+        sequence.setLength(0);
+        boolean started = false;
+
+        // we stopped on the '>' of this record's header during the previous call
+        if (pendingHeader) {
+            pendingHeader = false;
+            startHeader();
+            started = true;
+        }
+
+        while (fill()) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+
+                if (b == '\n' || b == '\r') {
+                    // \r\n is a single line terminator
+                    boolean crlf = b == '\n' && lastWasCR;
+                    lastWasCR = b == '\r';
+                    if (crlf) continue;
+
+                    if (inHeader) endHeader();
+                    atLineStart = true;
+                    continue;
+                }
+                lastWasCR = false;
+
+                // > deliminates the next identifier, sequence block in the fasta file
+                if (atLineStart && b == '>') {
+                    atLineStart = false;
+
+                    if (started) {
+                        pendingHeader = true;
+                        return true;
+                    }
+
+                    startHeader();
+                    started = true;
+                    continue;
+                }
+                atLineStart = false;
+
+                if (inHeader) {
+                    appendHeaderByte(b);
+                } else {
+                    // if we are here, we are in between 2 identifiers. This means this is all sequence data
+                    sequence.append((char) (b & 0xFF));
+                    started = true;
+                }
+            }
+        }
+
+        // the final header may not be terminated by a new line
+        if (inHeader) endHeader();
+
+        return started;
+    }
+
+    /**
+     * @return the header line of the current record, minus the leading '>'
+     */
+    public String header() {
+        return header;
+    }
+
+    /**
+     * @return the sequence of the current record, with line terminators removed
+     */
+    public String sequence() {
+        return sequence.toString();
+    }
+
+    /**
+     * @return the sequence of the current record. The returned value is only valid until the next call to {@link #next()}
+     */
+    public CharSequence sequenceChars() {
+        return sequence;
+    }
+
+    private void startHeader() {
+        inHeader = true;
+        headerLength = 0;
+    }
+
+    private void endHeader() {
+        inHeader = false;
+        header = new String(headerBytes, 0, headerLength, StandardCharsets.UTF_8);
+    }
+
+    private void appendHeaderByte(byte b) {
+        if (headerLength == headerBytes.length) {
+            headerBytes = Arrays.copyOf(headerBytes, headerBytes.length * 2);
+        }
+        headerBytes[headerLength++] = b;
+    }
+
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining()) return true;
+        if (channel == null) return false;
+
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+
+        return read > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+}
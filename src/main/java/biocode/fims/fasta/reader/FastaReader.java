@@ -1,5 +1,6 @@
 package biocode.fims.fasta.reader;
 
+import biocode.fims.config.models.Attribute;
 import biocode.fims.config.project.ProjectConfig;
 import biocode.fims.fasta.FastaProps;
 import biocode.fims.config.models.Entity;
@@ -12,50 +13,99 @@ import biocode.fims.records.Record;
 import biocode.fims.records.RecordMetadata;
 import biocode.fims.records.RecordSet;
 import biocode.fims.reader.DataReader;
+import biocode.fims.utils.Compression;
 import org.springframework.util.Assert;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 
 /**
- * DataReader implementation for Fasta files. Currently only the identifiers and the sequences
- * are read from the file
+ * DataReader implementation for Fasta files.
  * <p>
- * TODO: read in additional metadata provided for a each sequence ex. ">ALC111 organism="new findings" genus="alpha"
+ * Headers are parsed by the {@link FastaHeaderTokenizer}. The identifier is everything in the header up to the first
+ * space. Any metadata pairs in the header (ex. ">ALC111 organism="new findings" [genus = alpha]") whose key is the uri
+ * or column of a fasta entity attribute are added to the record. If the header contains the parent entity's unique key,
+ * its value is used as the parent identifier instead of the header identifier. This allows files exported by the
+ * {@link biocode.fims.fasta.FastaQueryWriter} to be re-uploaded.
  * <p>
+ * Files larger then the parallelThreshold are memory-mapped and parsed in parallel by the {@link ParallelFastaParser}.
+ * <p>
+ * gzip, bzip2 and zstd compressed files (ex. .fasta.gz, .fa.bz2, .fasta.zst) are decompressed as they are parsed. A
+ * compressed file must have a fasta extension before the compression extension.
  * <p>
  * This Reader expects the following RecordMetadata:
  * <p>
  * - {@link FastaReader.CONCEPT_ALIAS_KEY}
  * - {@link FastaProps.MARKER}
+ * <p>
+ * If {@link FastaReader.MULTI_MARKER_KEY} is true, {@link FastaProps.MARKER} is not required. Instead the marker of each
+ * record is read from the "marker" metadata pair in the header (ex. ">ALC111 [marker = COI]"), so a file containing
+ * sequences for multiple markers can be loaded, validated & persisted in a single upload. Records are grouped by marker,
+ * in the order each marker first appears in the file.
+ * <p>
+ * Note: {@link #getRecordSets()} builds every record in the file. The validators & converters run on complete RecordSets,
+ * which hold a List of records, so there is no streaming mode & heap use grows w/ the number of records. The file is
+ * parsed lazily & the sequences are held as {@link biocode.fims.fasta.PackedSequence}s to keep the per record cost low.
  */
 public class FastaReader implements DataReader {
     public static final String CONCEPT_ALIAS_KEY = "conceptAlias";
+    public static final String MULTI_MARKER_KEY = "multiMarker";
     public static final List<String> EXTS = Arrays.asList("fasta", "fa", "mpfa", "fna", "fas", "txt");
+    public static final List<String> COMPRESSED_EXTS = Arrays.asList("gz", "gzip", "bz2", "zst");
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 64 * 1024 * 1024; // 64 MB
+
+    private final int parallelism;
+    private final long parallelThreshold;
 
     protected File file;
     protected ProjectConfig config;
     private RecordMetadata recordMetadata;
     private List<RecordSet> recordSets;
+    private Entity entity;
+    private Compression compression;
+    // header metadata key -> attribute uri
+    private Map<String, String> headerAttributes;
+    private boolean multiMarker;
     String parentUniqueKeyUri;
 
     /**
      * This is only to be used for passing the class into the DataReaderFactory
      */
     public FastaReader() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * This is only to be used for passing the class into the DataReaderFactory
+     *
+     * @param parallelism       the number of threads used to parse files larger then the parallelThreshold
+     * @param parallelThreshold the file size in bytes above which files will be parsed in parallel
+     */
+    public FastaReader(int parallelism, long parallelThreshold) {
+        this.parallelism = parallelism;
+        this.parallelThreshold = parallelThreshold;
     }
 
     public FastaReader(File file, ProjectConfig projectConfig, RecordMetadata recordMetadata) {
+        this(file, projectConfig, recordMetadata, Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    public FastaReader(File file, ProjectConfig projectConfig, RecordMetadata recordMetadata, int parallelism,
+                       long parallelThreshold) {
         Assert.notNull(file);
         Assert.notNull(projectConfig);
         Assert.notNull(recordMetadata);
         this.file = file;
         this.config = projectConfig;
         this.recordMetadata = recordMetadata;
+        this.parallelism = parallelism;
+        this.parallelThreshold = parallelThreshold;
 
         if (!recordMetadata.has(FastaProps.MARKER.uri()) && recordMetadata.has(FastaProps.MARKER.uri())) {
             recordMetadata.add(
@@ -64,27 +114,58 @@ public class FastaReader implements DataReader {
         }
         // so we know which one we are dealing with
         if (!recordMetadata.has(CONCEPT_ALIAS_KEY) ||
-                !recordMetadata.has(FastaProps.MARKER.uri())) {
+                (!recordMetadata.has(FastaProps.MARKER.uri()) && !isMultiMarker(recordMetadata))) {
             throw new FimsRuntimeException(DataReaderCode.MISSING_METADATA, 500);
         }
+
+        // handlesExtension only sees the last extension, so check that a compressed file is a compressed fasta file
+        if (!isFastaFilename(file.getName())) {
+            throw new FimsRuntimeException(FastaReaderCode.INVALID_EXTENSION, 400, file.getName());
+        }
     }
 
+    /**
+     * @param ext the file extension. Either a single extension (ex. "fasta", "gz"), or a fasta extension followed by a
+     *            compression extension (ex. "fasta.gz")
+     */
     @Override
     public boolean handlesExtension(String ext) {
-        return EXTS.contains(ext.toLowerCase());
+        if (ext == null) return false;
+        ext = ext.toLowerCase();
+
+        int i = ext.lastIndexOf('.');
+        if (i == -1) return EXTS.contains(ext) || COMPRESSED_EXTS.contains(ext);
+        return EXTS.contains(ext.substring(0, i)) && COMPRESSED_EXTS.contains(ext.substring(i + 1));
+    }
+
+    /**
+     * @return true if the filename has a fasta extension, optionally followed by a compression extension
+     * (ex. "a.fasta", "a.fa.gz")
+     */
+    public static boolean isFastaFilename(String filename) {
+        String name = filename.toLowerCase();
+
+        int i = name.lastIndexOf('.');
+        if (i == -1) return false;
+
+        if (COMPRESSED_EXTS.contains(name.substring(i + 1))) {
+            name = name.substring(0, i);
+            i = name.lastIndexOf('.');
+            if (i == -1) return false;
+        }
+
+        return EXTS.contains(name.substring(i + 1));
     }
 
     @Override
     public DataReader newInstance(File file, ProjectConfig projectConfig, RecordMetadata recordMetadata) {
-        return new FastaReader(file, projectConfig, recordMetadata);
+        return new FastaReader(file, projectConfig, recordMetadata, parallelism, parallelThreshold);
     }
 
     @Override
     public List<RecordSet> getRecordSets() {
         if (recordSets == null) {
-            Entity entity = this.config.entity((String) recordMetadata.remove(CONCEPT_ALIAS_KEY));
-            Entity parentEntity = this.config.entity(entity.getParentEntity());
-            this.parentUniqueKeyUri = parentEntity.getUniqueKeyURI();
+            Entity entity = getEntity();
 
             List<Record> records = parseFasta();
 
@@ -92,6 +173,8 @@ public class FastaReader implements DataReader {
                 throw new FimsRuntimeException(FastaReaderCode.NO_DATA, 400);
             }
 
+            if (multiMarker) records = groupByMarker(records);
+
             recordSets = Collections.singletonList(
                     new RecordSet(entity, records, recordMetadata.reload())
             );
@@ -101,63 +184,135 @@ public class FastaReader implements DataReader {
     }
 
     /**
-     * parse the fasta file identifier-sequence pairs, populating the fastaSequences property
+     * Records are parsed lazily as the returned iterator is consumed. The caller is responsible for closing the
+     * iterator if it is not fully consumed.
      */
-    private List<Record> parseFasta() {
-        List<Record> fastaRecords = new ArrayList<>();
+    private FastaRecordIterator iterator() {
+        getEntity();
+        return new FastaRecordIterator(openParser(), this::newRecord);
+    }
 
-        try {
-            FileReader input = new FileReader(this.file);
-            BufferedReader bufRead = new BufferedReader(input);
-            String line;
-            String identifier = null;
-            String sequence = "";
+    /**
+     * @return the records grouped by marker, in the order each marker first appears
+     */
+    private List<Record> groupByMarker(List<Record> records) {
+        Map<String, List<Record>> recordsByMarker = new LinkedHashMap<>();
+
+        for (Record r : records) {
+            recordsByMarker.computeIfAbsent(r.get(FastaProps.MARKER.uri()), k -> new ArrayList<>()).add(r);
+        }
+
+        if (recordsByMarker.size() == 1) return records;
 
-            while ((line = bufRead.readLine()) != null) {
+        List<Record> grouped = new ArrayList<>(records.size());
+        recordsByMarker.values().forEach(grouped::addAll);
+        return grouped;
+    }
 
-                // > deliminates the next identifier, sequence block in the fasta file
-                if (line.startsWith(">")) {
+    private Entity getEntity() {
+        if (entity == null) {
+            multiMarker = isMultiMarker(recordMetadata);
+            // remove so these aren't added to each record
+            recordMetadata.remove(MULTI_MARKER_KEY);
+            if (multiMarker) recordMetadata.remove(FastaProps.MARKER.uri());
 
-                    if (!sequence.isEmpty() || identifier != null) {
-                        fastaRecords.add(
-                                new FastaRecord(parentUniqueKeyUri, identifier, sequence, recordMetadata)
-                        );
+            entity = this.config.entity((String) recordMetadata.remove(CONCEPT_ALIAS_KEY));
+            Entity parentEntity = this.config.entity(entity.getParentEntity());
+            this.parentUniqueKeyUri = parentEntity.getUniqueKeyURI();
 
-                        // after putting the sequence into the object, reset the sequence
-                        sequence = "";
+            headerAttributes = new HashMap<>();
+            for (Attribute a : entity.getAttributes()) {
+                if (isInternalProp(a.getUri())) continue;
+                headerAttributes.put(a.getColumn(), a.getUri());
+                headerAttributes.put(a.getUri(), a.getUri());
+            }
+            headerAttributes.put(parentEntity.getUniqueKey(), parentUniqueKeyUri);
+            headerAttributes.put(parentUniqueKeyUri, parentUniqueKeyUri);
+        }
+        return entity;
+    }
 
-                    }
+    private static boolean isMultiMarker(RecordMetadata recordMetadata) {
+        return recordMetadata.has(MULTI_MARKER_KEY) &&
+                Boolean.parseBoolean(String.valueOf(recordMetadata.get(MULTI_MARKER_KEY)));
+    }
 
-                    int endIdentifierIndex;
+    /**
+     * these props are set by the reader and can not be overridden by header metadata
+     */
+    private boolean isInternalProp(String uri) {
+        return FastaProps.IDENTIFIER.uri().equals(uri) ||
+                FastaProps.SEQUENCE.uri().equals(uri) ||
+                FastaProps.MARKER.uri().equals(uri);
+    }
 
-                    if (line.contains(" ")) {
-                        endIdentifierIndex = line.indexOf(" ");
-                    } else if (line.contains("\n")) {
-                        endIdentifierIndex = line.indexOf("\n");
-                    } else {
-                        endIdentifierIndex = line.length();
-                    }
+    /**
+     * parse the fasta file identifier-sequence pairs, populating the fastaSequences property
+     */
+    private List<Record> parseFasta() {
+        if (parallelism > 1 && file.length() > parallelThreshold && compression() == Compression.NONE) {
+            return new ParallelFastaParser(file, parallelism).parse(this::newRecord);
+        }
 
-                    // parse the identifier - minus the deliminator
-                    identifier = line.substring(1, endIdentifierIndex);
+        List<Record> fastaRecords = new ArrayList<>();
 
-                } else {
-                    // if we are here, we are in between 2 identifiers. This means this is all sequence data
-                    sequence += line;
-                }
-            }
+        try (FastaRecordIterator it = iterator()) {
+            it.forEachRemaining(fastaRecords::add);
+        }
 
-            // need to put the last sequence data into the hashmap
-            if (identifier != null) {
-                fastaRecords.add(
-                        new FastaRecord(parentUniqueKeyUri, identifier, sequence, recordMetadata)
-                );
+        return fastaRecords;
+    }
+
+    private FastaParser openParser() {
+        try {
+            if (compression() == Compression.NONE) {
+                return new FastaParser(FileChannel.open(file.toPath(), StandardOpenOption.READ));
             }
+
+            return new FastaParser(Channels.newChannel(compression().decompress(new FileInputStream(file))));
         } catch (IOException e) {
             throw new ServerErrorException(e);
         }
+    }
 
-        return fastaRecords;
+    private Compression compression() {
+        if (compression == null) {
+            try {
+                compression = Compression.detect(file);
+            } catch (IOException e) {
+                throw new ServerErrorException(e);
+            }
+        }
+        return compression;
+    }
+
+    private Record newRecord(String header, CharSequence sequence) {
+        Map<String, String> metadata = new HashMap<>();
+        String identifier = FastaHeaderTokenizer.tokenize(header, (key, value) -> {
+            if (multiMarker && FastaProps.MARKER.uri().equalsIgnoreCase(key)) {
+                metadata.put(FastaProps.MARKER.uri(), value);
+                return;
+            }
+
+            String uri = headerAttributes.get(key);
+            if (uri != null) metadata.put(uri, value);
+        });
+
+        if (multiMarker && isBlank(metadata.get(FastaProps.MARKER.uri()))) {
+            throw new FimsRuntimeException(FastaReaderCode.MISSING_MARKER, 400, identifier);
+        }
+
+        String parentIdentifier = metadata.containsKey(parentUniqueKeyUri)
+                ? metadata.remove(parentUniqueKeyUri)
+                : identifier;
+
+        FastaRecord record = new FastaRecord(parentUniqueKeyUri, parentIdentifier, sequence, recordMetadata);
+        metadata.forEach(record::set);
+        return record;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
     }
 
     @Override
@@ -0,0 +1,75 @@
+package biocode.fims.fasta.reader;
+
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.records.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Lazily parses records from a {@link FastaParser}. Only a single record is parsed ahead of the caller, so the
+ * memory used is independent of the size of the fasta file.
+ * <p>
+ * The underlying parser is closed once all records have been read, or when {@link #close()} is called.
+ *
+ * @author rjewing
+ */
+public class FastaRecordIterator implements Iterator<Record>, Closeable {
+    private final FastaParser parser;
+    private final BiFunction<String, CharSequence, Record> recordMapper;
+
+    private Record next;
+    private boolean done;
+
+    /**
+     * @param parser       the parser to read records from
+     * @param recordMapper called with the header and sequence of each parsed record
+     */
+    public FastaRecordIterator(FastaParser parser, BiFunction<String, CharSequence, Record> recordMapper) {
+        this.parser = parser;
+        this.recordMapper = recordMapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (done) return false;
+
+        try {
+            if (parser.next()) {
+                next = recordMapper.apply(parser.header(), parser.sequenceChars());
+                return true;
+            }
+        } catch (IOException e) {
+            close();
+            throw new ServerErrorException(e);
+        }
+
+        close();
+        return false;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        Record record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() {
+        if (done) return;
+        done = true;
+
+        try {
+            parser.close();
+        } catch (IOException e) {
+            throw new ServerErrorException(e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package biocode.fims.fasta.reader;
+
+import biocode.fims.exceptions.FastaReaderCode;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.fimsExceptions.ServerErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Parses large fasta files by memory-mapping the file and splitting it into chunks at record ('>') boundaries.
+ * Each chunk is parsed by a {@link FastaParser} on a fork-join pool and the results are merged in file order.
+ *
+ * @author rjewing
+ */
+public class ParallelFastaParser {
+    // each chunk must fit in a single MappedByteBuffer
+    private static final long MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int parallelism;
+
+    public ParallelFastaParser(File file, int parallelism) {
+        this.file = file;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * parse the file, converting each header, sequence pair using the provided mapper
+     *
+     * @param mapper called with the header (minus the leading '>') and sequence of each record. Must be thread-safe.
+     * @return the mapped records in the order they appear in the file
+     */
+    public <R> List<R> parse(BiFunction<String, CharSequence, R> mapper) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Long> boundaries = chunkBoundaries(channel);
+            List<Future<List<R>>> futures = new ArrayList<>();
+
+            for (int i = 0; i < boundaries.size() - 1; i++) {
+                MappedByteBuffer chunk = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        boundaries.get(i),
+                        boundaries.get(i + 1) - boundaries.get(i)
+                );
+                futures.add(pool.submit(() -> parseChunk(chunk, mapper)));
+            }
+
+            List<R> records = new ArrayList<>();
+            for (Future<List<R>> future : futures) {
+                records.addAll(future.get());
+            }
+            return records;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new ServerErrorException(e.getCause());
+        } catch (IOException e) {
+            throw new ServerErrorException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private <R> List<R> parseChunk(ByteBuffer chunk, BiFunction<String, CharSequence, R> mapper) throws IOException {
+        List<R> records = new ArrayList<>();
+
+        FastaParser parser = new FastaParser(chunk);
+        while (parser.next()) {
+            records.add(mapper.apply(parser.header(), parser.sequenceChars()));
+        }
+
+        return records;
+    }
+
+    /**
+     * split the file into roughly equal chunks. Every chunk except the first starts with the '>' of a header line.
+     *
+     * @return the chunk offsets, starting with 0 and ending with the file size
+     */
+    private List<Long> chunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkCount = Math.max(
+                (long) parallelism * CHUNKS_PER_THREAD,
+                (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE
+        );
+        long targetChunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, size / chunkCount));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+
+        long position = targetChunkSize;
+        while (position < size) {
+            long boundary = nextRecordStart(channel, position, size);
+            if (boundary >= size) break;
+
+            // a single record may be larger then the target chunk size. Make sure we never create a chunk that can't be mapped
+            long previous = boundaries.get(boundaries.size() - 1);
+            if (boundary - previous > Integer.MAX_VALUE) {
+                throw new FimsRuntimeException(FastaReaderCode.RECORD_TOO_LARGE, 400);
+            }
+
+            boundaries.add(boundary);
+            position = boundary + targetChunkSize;
+        }
+
+        if (size - boundaries.get(boundaries.size() - 1) > Integer.MAX_VALUE) {
+            throw new FimsRuntimeException(FastaReaderCode.RECORD_TOO_LARGE, 400);
+        }
+        boundaries.add(size);
+
+        return boundaries;
+    }
+
+    /**
+     * find the offset of the next '>' which starts a line, at or after the given position
+     */
+    private long nextRecordStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+        // we need the previous byte to know if position is the start of a line
+        long offset = position - 1;
+        byte prev = 0;
+        boolean first = true;
+
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) break;
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (!first && b == '>' && (prev == '\n' || prev == '\r')) {
+                    return offset + buffer.position() - 1;
+                }
+                first = false;
+                prev = b;
+            }
+            offset += read;
+        }
+
+        return size;
+    }
+}
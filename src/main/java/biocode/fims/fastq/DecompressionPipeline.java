@@ -0,0 +1,101 @@
+package biocode.fims.fastq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads (and decompresses) a stream on a separate thread, handing off filled buffers to the consumer through a small
+ * bounded queue. Buffers are recycled, so at most QUEUED_BUFFERS + 1 buffers are allocated regardless of the stream size.
+ *
+ * @author rjewing
+ */
+class DecompressionPipeline {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int QUEUED_BUFFERS = 4;
+    private static final Chunk EOF = new Chunk(null, 0, null);
+
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(QUEUED_BUFFERS + 1);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_BUFFERS + 1);
+    private final Future<?> future;
+
+    /**
+     * @param is       the stream to read. The stream is closed once it has been read or the pipeline is closed
+     * @param executor the executor to read the stream on
+     */
+    DecompressionPipeline(InputStream is, ExecutorService executor) {
+        for (int i = 0; i <= QUEUED_BUFFERS; i++) {
+            free.add(new byte[BUFFER_SIZE]);
+        }
+        future = executor.submit(() -> read(is));
+    }
+
+    private void read(InputStream is) {
+        try (InputStream in = is) {
+            while (true) {
+                byte[] buffer = free.take();
+
+                int length = 0;
+                int n = 0;
+                while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += n;
+                }
+
+                if (length > 0) filled.put(new Chunk(buffer, length, null));
+                if (n == -1) {
+                    filled.put(EOF);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // there is always room for the error, as the queue can hold every buffer plus 1
+            filled.offer(new Chunk(null, 0, e));
+        } catch (InterruptedException e) {
+            // the consumer has stopped reading
+        }
+    }
+
+    /**
+     * @return the next filled chunk, or null if the end of the stream has been reached. The chunk must be returned via
+     * {@link #release} once it has been consumed
+     */
+    Chunk next() throws IOException, InterruptedException {
+        Chunk chunk = filled.take();
+        if (chunk.error != null) throw chunk.error;
+        return chunk == EOF ? null : chunk;
+    }
+
+    void release(Chunk chunk) {
+        free.offer(chunk.buffer);
+    }
+
+    /**
+     * stop reading the stream. This must always be called, even if the stream has been completely read
+     */
+    void close() {
+        future.cancel(true);
+    }
+
+    static class Chunk {
+        private final byte[] buffer;
+        private final int length;
+        private final IOException error;
+
+        private Chunk(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int length() {
+            return length;
+        }
+    }
+}
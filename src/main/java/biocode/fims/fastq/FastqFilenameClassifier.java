@@ -0,0 +1,160 @@
+package biocode.fims.fastq;
+
+import biocode.fims.utils.Compression;
+
+/**
+ * Single pass classifier for fastq filenames, shared by reading, validation & extraction of fastq files.
+ * <p>
+ * A filename is {stem}.(fq|fastq)[.(gz|gzip|bz2)], where the extensions are case-insensitive. The stem is interpreted as:
+ * <p>
+ * - single: {sampleId}[-anything], where sampleId consists of the characters [a-zA-Z0-9+=:._()~*]
+ * - paired: {sampleId}{separator}[anything]{mate}, where separator is 1 of [._|-], & mate is the final 1 or 2. The
+ * sampleId is the longest valid prefix, ex. "abc_R1_001.fq" has sampleId "abc_R1" & mate 1
+ * <p>
+ * These are the same rules previously expressed as regular expressions in FastqReader & FastqFilenamesRule.
+ *
+ * @author rjewing
+ */
+public class FastqFilenameClassifier {
+
+    public static class Classification {
+        private final String singleId;
+        private final String pairedId;
+        private final int mate;
+        private final Compression compression;
+
+        private Classification(String singleId, String pairedId, int mate, Compression compression) {
+            this.singleId = singleId;
+            this.pairedId = pairedId;
+            this.mate = mate;
+            this.compression = compression;
+        }
+
+        /**
+         * @return the sample id if this is a valid single-end filename, otherwise null
+         */
+        public String singleId() {
+            return singleId;
+        }
+
+        /**
+         * @return the sample id if this is a valid paired-end filename, otherwise null
+         */
+        public String pairedId() {
+            return pairedId;
+        }
+
+        /**
+         * @return the sample id for the given library layout, or null if the filename is not valid for that layout
+         */
+        public String sampleId(boolean paired) {
+            return paired ? pairedId : singleId;
+        }
+
+        /**
+         * @return 1 or 2 if this is a valid paired-end filename, otherwise 0
+         */
+        public int mate() {
+            return mate;
+        }
+
+        public Compression compression() {
+            return compression;
+        }
+    }
+
+    private FastqFilenameClassifier() {
+    }
+
+    /**
+     * @param filename
+     * @return the classification, or null if the filename is not a valid single or paired-end fastq filename
+     */
+    public static Classification classify(String filename) {
+        if (filename == null) return null;
+
+        int end = filename.length();
+        Compression compression = Compression.NONE;
+
+        if (endsWithIgnoreCase(filename, end, ".gz")) {
+            compression = Compression.GZIP;
+            end -= 3;
+        } else if (endsWithIgnoreCase(filename, end, ".gzip")) {
+            compression = Compression.GZIP;
+            end -= 5;
+        } else if (endsWithIgnoreCase(filename, end, ".bz2")) {
+            compression = Compression.BZIP2;
+            end -= 4;
+        }
+
+        if (endsWithIgnoreCase(filename, end, ".fq")) {
+            end -= 3;
+        } else if (endsWithIgnoreCase(filename, end, ".fastq")) {
+            end -= 6;
+        } else {
+            return null;
+        }
+
+        // end is now the length of the stem. Find the run of valid sampleId chars at the start of the stem
+        int run = 0;
+        while (run < end && isIdChar(filename.charAt(run))) run++;
+        if (run == 0) return null;
+
+        for (int i = run; i < end; i++) {
+            if (isLineTerminator(filename.charAt(i))) return null;
+        }
+
+        String singleId = null;
+        if (run == end || filename.charAt(run) == '-') {
+            singleId = filename.substring(0, run);
+        }
+
+        String pairedId = null;
+        int mate = 0;
+        char last = filename.charAt(end - 1);
+        if (last == '1' || last == '2') {
+            // the sampleId is the longest prefix which is followed by a separator & at least 1 more char
+            for (int i = Math.min(run, end - 2); i > 0; i--) {
+                if (isSeparator(filename.charAt(i))) {
+                    pairedId = filename.substring(0, i);
+                    mate = last - '0';
+                    break;
+                }
+            }
+        }
+
+        if (singleId == null && pairedId == null) return null;
+        return new Classification(singleId, pairedId, mate, compression);
+    }
+
+    private static boolean endsWithIgnoreCase(String s, int end, String suffix) {
+        return end >= suffix.length() && s.regionMatches(true, end - suffix.length(), suffix, 0, suffix.length());
+    }
+
+    private static boolean isIdChar(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) return true;
+
+        switch (c) {
+            case '+':
+            case '=':
+            case ':':
+            case '.':
+            case '_':
+            case '(':
+            case ')':
+            case '~':
+            case '*':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '_' || c == '|' || c == '-';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
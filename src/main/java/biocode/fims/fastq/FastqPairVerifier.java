@@ -0,0 +1,232 @@
+package biocode.fims.fastq;
+
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.utils.Compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Verifies that the 2 files of each paired-end fastq submission are mates.
+ * <p>
+ * The {@link FastqQualityScanner} detects mismatched pairs in the same pass as the content checks. This is used to
+ * describe the first mismatch of those pairs.
+ * <p>
+ * Both files are read in lock-step, 1 record at a time, checking that the read names agree & that both files contain
+ * the same number of reads. Verification of a pair stops at the first mismatch. Each file is decompressed on a
+ * separate thread, & pairs are verified in parallel on a bounded pool.
+ * <p>
+ * The read name is the header up to the first whitespace, excluding any /1 or /2 mate suffix. This does not check the
+ * record formatting, see {@link FastqQualityScanner}.
+ *
+ * @author rjewing
+ */
+public class FastqPairVerifier {
+
+    public static class Pair {
+        private final String filename1;
+        private final File file1;
+        private final String filename2;
+        private final File file2;
+
+        public Pair(String filename1, File file1, String filename2, File file2) {
+            this.filename1 = filename1;
+            this.file1 = file1;
+            this.filename2 = filename2;
+            this.file2 = file2;
+        }
+
+        public String filename1() {
+            return filename1;
+        }
+
+        public String filename2() {
+            return filename2;
+        }
+    }
+
+    private final int parallelism;
+
+    public FastqPairVerifier(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @param pairs
+     * @return a description of each pair which failed verification
+     */
+    public List<String> verify(List<Pair> pairs) {
+        List<String> errors = new ArrayList<>();
+        if (pairs.isEmpty()) return errors;
+
+        int threads = Math.min(parallelism, pairs.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // 1 decompressor for each file of the pairs currently being verified
+        ExecutorService decompressors = Executors.newFixedThreadPool(threads * 2);
+
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (Pair pair : pairs) {
+                futures.add(pool.submit(() -> verify(pair, decompressors)));
+            }
+
+            for (Future<String> future : futures) {
+                String error = future.get();
+                if (error != null) errors.add(error);
+            }
+            return errors;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new ServerErrorException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException(e);
+        } finally {
+            pool.shutdownNow();
+            decompressors.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a description of the first mismatch, or null if the files are mates
+     */
+    private String verify(Pair pair, ExecutorService decompressors) throws InterruptedException {
+        String prefix = "\"" + pair.filename1 + "\" & \"" + pair.filename2 + "\": ";
+        MateReader mate1 = null;
+        MateReader mate2 = null;
+
+        try {
+            mate1 = new MateReader(new DecompressionPipeline(Compression.openDecompressed(pair.file1), decompressors));
+            mate2 = new MateReader(new DecompressionPipeline(Compression.openDecompressed(pair.file2), decompressors));
+
+            long reads = 0;
+            while (true) {
+                boolean has1 = mate1.next();
+                boolean has2 = mate2.next();
+
+                if (!has1 && !has2) return null;
+                if (!has1 || !has2) {
+                    String shorter = has1 ? pair.filename2 : pair.filename1;
+                    return prefix + "read counts do not match. \"" + shorter + "\" ends after " + reads + " reads";
+                }
+
+                reads++;
+                if (!mate1.sameName(mate2)) {
+                    return prefix + "read names do not match at read " + reads + " (\"" + mate1.name() + "\" != \"" + mate2.name() + "\")";
+                }
+            }
+        } catch (IOException e) {
+            return prefix + "unable to read files. The files may be corrupt or truncated";
+        } finally {
+            if (mate1 != null) mate1.close();
+            if (mate2 != null) mate2.close();
+        }
+    }
+
+    /**
+     * reads the name of each record, skipping the remaining lines
+     */
+    private static class MateReader {
+        private final DecompressionPipeline pipeline;
+        private DecompressionPipeline.Chunk chunk;
+        private int position;
+        private boolean eof;
+        private byte[] name = new byte[256];
+        private int nameLength;
+
+        private MateReader(DecompressionPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        /**
+         * advance to the next record
+         *
+         * @return false if the end of the file has been reached
+         */
+        private boolean next() throws IOException, InterruptedException {
+            int b;
+            // skip blank lines between records
+            do {
+                b = read();
+            } while (b == '\n' || b == '\r');
+
+            if (b == -1) return false;
+            if (b == '@') b = read();
+
+            nameLength = 0;
+            while (b != -1 && b != '\n' && b != '\r' && b != ' ' && b != '\t') {
+                if (nameLength == name.length) name = Arrays.copyOf(name, name.length * 2);
+                name[nameLength++] = (byte) b;
+                b = read();
+            }
+            if (b != '\n') skipLine();
+
+            if (nameLength >= 2 && name[nameLength - 2] == '/' &&
+                    (name[nameLength - 1] == '1' || name[nameLength - 1] == '2')) {
+                nameLength -= 2;
+            }
+
+            // sequence, separator & quality lines
+            skipLine();
+            skipLine();
+            skipLine();
+            return true;
+        }
+
+        private boolean sameName(MateReader other) {
+            if (nameLength != other.nameLength) return false;
+            for (int i = 0; i < nameLength; i++) {
+                if (name[i] != other.name[i]) return false;
+            }
+            return true;
+        }
+
+        private String name() {
+            return new String(name, 0, nameLength, StandardCharsets.US_ASCII);
+        }
+
+        private int read() throws IOException, InterruptedException {
+            if (!fill()) return -1;
+            return chunk.buffer()[position++] & 0xFF;
+        }
+
+        private void skipLine() throws IOException, InterruptedException {
+            while (fill()) {
+                byte[] buffer = chunk.buffer();
+                int length = chunk.length();
+
+                for (int i = position; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        position = i + 1;
+                        return;
+                    }
+                }
+                position = length;
+            }
+        }
+
+        /**
+         * @return false if there is no more data
+         */
+        private boolean fill() throws IOException, InterruptedException {
+            if (chunk != null && position < chunk.length()) return true;
+            if (eof) return false;
+
+            if (chunk != null) pipeline.release(chunk);
+            chunk = pipeline.next();
+            position = 0;
+
+            if (chunk == null) eof = true;
+            return !eof;
+        }
+
+        private void close() {
+            pipeline.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package biocode.fims.fastq;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * A small number of reads from a fastq file. See {@link FastqPreviewReader}
+ *
+ * @author rjewing
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FastqPreview {
+
+    public static class Read {
+        @JsonProperty
+        public final String header;
+        @JsonProperty
+        public final String sequence;
+        @JsonProperty
+        public final String quality;
+
+        public Read(String header, String sequence, String quality) {
+            this.header = header;
+            this.sequence = sequence;
+            this.quality = quality;
+        }
+    }
+
+    private final String filename;
+    private final long offset;
+    private final Long nextOffset;
+    private final Long size;
+    private final List<Read> reads;
+
+    public FastqPreview(String filename, long offset, Long nextOffset, Long size, List<Read> reads) {
+        this.filename = filename;
+        this.offset = offset;
+        this.nextOffset = nextOffset;
+        this.size = size;
+        this.reads = reads;
+    }
+
+    @JsonProperty
+    public String filename() {
+        return filename;
+    }
+
+    /**
+     * @return the uncompressed offset of the first read
+     */
+    @JsonProperty
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return the uncompressed offset following the last read, or null if the end of the file was reached
+     */
+    @JsonProperty
+    public Long nextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the uncompressed size of the file, or null if unknown
+     */
+    @JsonProperty
+    public Long size() {
+        return size;
+    }
+
+    @JsonProperty
+    public List<Read> reads() {
+        return reads;
+    }
+}
@@ -0,0 +1,215 @@
+package biocode.fims.fastq;
+
+import biocode.fims.fimsExceptions.BadRequestException;
+import biocode.fims.utils.Compression;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a small number of records from an arbitrary offset in a (possibly compressed) fastq file.
+ * <p>
+ * Uncompressed files are read directly from the offset. Gzip files w/ a {@link GzipIndex} are decompressed starting at
+ * the nearest checkpoint before the offset. All other files are decompressed from the start of the file.
+ * <p>
+ * A single member gzip file only has a checkpoint at the start of the file, so to bound the work done per request, at
+ * most {@link #MAX_UNINDEXED_BYTES} are decompressed before the offset is reached.
+ *
+ * @author rjewing
+ */
+public class FastqPreviewReader {
+    public static final int MAX_READS = 1000;
+    public static final long MAX_UNINDEXED_BYTES = 128 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long maxUnindexedBytes;
+
+    public FastqPreviewReader() {
+        this(MAX_UNINDEXED_BYTES);
+    }
+
+    FastqPreviewReader(long maxUnindexedBytes) {
+        this.maxUnindexedBytes = maxUnindexedBytes;
+    }
+
+    /**
+     * @param file
+     * @param filename the name of the file to include in the preview
+     * @param index    the gzip index of the file, may be null
+     * @param offset   the uncompressed offset to start at. The preview starts w/ the 1st record at or after the offset
+     * @param limit    the max number of reads to return
+     * @return
+     * @throws BadRequestException if more then {@link #MAX_UNINDEXED_BYTES} would need to be decompressed to reach
+     *                             the offset
+     * @throws IOException
+     */
+    public FastqPreview read(File file, String filename, GzipIndex index, long offset, int limit) throws IOException {
+        Compression compression = Compression.detect(file);
+
+        // start 1 byte early, so we can tell if the offset is the start of a line
+        long target = Math.max(0, offset - 1);
+        long start = 0;
+        Long size = null;
+
+        FileInputStream fis = new FileInputStream(file);
+        InputStream is;
+        try {
+            if (compression == Compression.NONE) {
+                start = Math.min(target, file.length());
+                fis.getChannel().position(start);
+                size = file.length();
+                is = fis;
+            } else if (compression == Compression.GZIP && index != null) {
+                target = Math.min(target, index.uncompressedSize());
+                GzipIndex.Checkpoint checkpoint = index.checkpoint(target);
+                start = checkpoint.uncompressedOffset();
+                fis.getChannel().position(checkpoint.compressedOffset());
+                size = index.uncompressedSize();
+                is = new GZIPInputStream(fis, BUFFER_SIZE);
+            } else {
+                is = compression.decompress(fis);
+            }
+
+            if (compression != Compression.NONE && target - start > maxUnindexedBytes) {
+                throw new BadRequestException(
+                        "offset " + offset + " is too far from the nearest seek point in this file (" + start + "). " +
+                                "At most " + maxUnindexedBytes + " bytes can be skipped"
+                );
+            }
+        } catch (IOException | RuntimeException e) {
+            fis.close();
+            throw e;
+        }
+
+        try (LineReader reader = new LineReader(new BufferedInputStream(is, BUFFER_SIZE), start)) {
+            reader.skip(target - start);
+
+            // if we are not at the start of a line, discard the partial line
+            if (offset > 0 && reader.read() != '\n') reader.readLine();
+
+            return read(reader, filename, Math.min(limit, MAX_READS), size);
+        }
+    }
+
+    private FastqPreview read(LineReader reader, String filename, int limit, Long size) throws IOException {
+        List<FastqPreview.Read> reads = new ArrayList<>();
+
+        // we may be in the middle of a record. A quality line can begin w/ '@', so a record starts at the first
+        // line beginning w/ '@' which is followed by a line beginning w/ '+' 2 lines later
+        LinkedList<Line> window = new LinkedList<>();
+        while (true) {
+            while (window.size() < 3) {
+                Line line = reader.readLine();
+                if (line == null) return new FastqPreview(filename, reader.position(), null, size, reads);
+                if (window.isEmpty() && line.text.isEmpty()) continue;
+                window.add(line);
+            }
+
+            if (window.get(0).text.startsWith("@") && window.get(2).text.startsWith("+")) break;
+            window.removeFirst();
+        }
+
+        long first = window.getFirst().start;
+        while (reads.size() < limit) {
+            while (!window.isEmpty() && window.getFirst().text.isEmpty()) window.removeFirst();
+            while (window.size() < 4) {
+                Line line = reader.readLine();
+                if (line == null) break;
+                if (window.isEmpty() && line.text.isEmpty()) continue;
+                window.add(line);
+            }
+
+            // ignore an incomplete record at the end of the file
+            if (window.size() < 4) return new FastqPreview(filename, first, null, size, reads);
+
+            String header = window.removeFirst().text;
+            String sequence = window.removeFirst().text;
+            window.removeFirst();
+            String quality = window.removeFirst().text;
+
+            reads.add(new FastqPreview.Read(header, sequence, quality));
+        }
+
+        return new FastqPreview(filename, first, reader.atEnd() ? null : reader.position(), size, reads);
+    }
+
+    private static class Line {
+        private final String text;
+        // uncompressed offset of the start of the line
+        private final long start;
+
+        private Line(String text, long start) {
+            this.text = text;
+            this.start = start;
+        }
+    }
+
+    /**
+     * ascii line reader which tracks the uncompressed offset
+     */
+    private static class LineReader implements Closeable {
+        private final InputStream is;
+        private final StringBuilder sb = new StringBuilder();
+        private long position;
+
+        private LineReader(InputStream is, long position) {
+            this.is = is;
+            this.position = position;
+        }
+
+        private int read() throws IOException {
+            int b = is.read();
+            if (b != -1) position++;
+            return b;
+        }
+
+        private void skip(long n) throws IOException {
+            while (n > 0) {
+                long skipped = is.skip(n);
+                if (skipped <= 0) {
+                    // skip may return 0 before the end of the stream, so check w/ read
+                    if (read() == -1) return;
+                    skipped = 1;
+                } else {
+                    position += skipped;
+                }
+                n -= skipped;
+            }
+        }
+
+        /**
+         * @return the next line, excluding the line terminator, or null if the end of the stream has been reached
+         */
+        private Line readLine() throws IOException {
+            long start = position;
+            sb.setLength(0);
+
+            int b;
+            while ((b = read()) != -1 && b != '\n') {
+                if (b != '\r') sb.append((char) b);
+            }
+
+            if (b == -1 && position == start) return null;
+            return new Line(sb.toString(), start);
+        }
+
+        private boolean atEnd() throws IOException {
+            is.mark(1);
+            int b = is.read();
+            is.reset();
+            return b == -1;
+        }
+
+        private long position() {
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            is.close();
+        }
+    }
+}
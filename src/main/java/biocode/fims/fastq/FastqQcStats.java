@@ -0,0 +1,154 @@
+package biocode.fims.fastq;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Content statistics for a single fastq file, computed by the {@link FastqQualityScanner}
+ *
+ * @author rjewing
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FastqQcStats {
+
+    public enum QualityEncoding {
+        PHRED_33(33),
+        PHRED_64(64),
+        // all quality scores fall in the range shared by both encodings
+        UNKNOWN(33);
+
+        private final int offset;
+
+        QualityEncoding(int offset) {
+            this.offset = offset;
+        }
+
+        public int offset() {
+            return offset;
+        }
+    }
+
+    // lowest quality char which is only valid in phred+64 (Solexa) encoded files
+    private static final int MIN_PHRED_64 = ';';
+    // highest quality char expected in phred+33 encoded Illumina files (Q41)
+    private static final int MAX_ILLUMINA_PHRED_33 = 'J';
+
+    private final String filename;
+    private long reads;
+    private long bases;
+    private long qualitySum;
+    private int minQuality = Integer.MAX_VALUE;
+    private int maxQuality = Integer.MIN_VALUE;
+    // lengthCounts[len] is the number of reads of length len
+    private long[] lengthCounts = new long[256];
+    private String error;
+    // order dependent hash of the read names
+    private long readNamesHash;
+
+    public FastqQcStats(String filename) {
+        this.filename = filename;
+    }
+
+    void addRead(int length, long qualitySum, int minQuality, int maxQuality) {
+        reads++;
+        bases += length;
+        this.qualitySum += qualitySum;
+        if (minQuality < this.minQuality) this.minQuality = minQuality;
+        if (maxQuality > this.maxQuality) this.maxQuality = maxQuality;
+
+        if (length >= lengthCounts.length) {
+            lengthCounts = Arrays.copyOf(lengthCounts, Math.max(length + 1, lengthCounts.length * 2));
+        }
+        lengthCounts[length]++;
+    }
+
+    void addReadName(long nameHash) {
+        readNamesHash = (Long.rotateLeft(readNamesHash, 31) ^ nameHash) * 0x9E3779B97F4A7C15L;
+    }
+
+    void invalid(String error) {
+        this.error = error;
+    }
+
+    @JsonProperty
+    public String filename() {
+        return filename;
+    }
+
+    @JsonProperty
+    public long reads() {
+        return reads;
+    }
+
+    @JsonProperty
+    public long bases() {
+        return bases;
+    }
+
+    @JsonProperty
+    public QualityEncoding encoding() {
+        if (bases == 0) return null;
+        if (minQuality < MIN_PHRED_64) return QualityEncoding.PHRED_33;
+        if (maxQuality > MAX_ILLUMINA_PHRED_33) return QualityEncoding.PHRED_64;
+        return QualityEncoding.UNKNOWN;
+    }
+
+    /**
+     * @return the mean phred quality score of all bases in the file
+     */
+    @JsonProperty
+    public Double meanQuality() {
+        if (bases == 0) return null;
+        return (double) (qualitySum - (long) encoding().offset() * bases) / bases;
+    }
+
+    /**
+     * @return read length -> number of reads w/ that length
+     */
+    @JsonProperty
+    public SortedMap<Integer, Long> readLengths() {
+        SortedMap<Integer, Long> histogram = new TreeMap<>();
+        for (int i = 0; i < lengthCounts.length; i++) {
+            if (lengthCounts[i] > 0) histogram.put(i, lengthCounts[i]);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return description of the first formatting error found in the file, or null if the file is valid
+     */
+    @JsonProperty
+    public String error() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return error == null && reads > 0;
+    }
+
+    /**
+     * @return true if both files contain the same number of reads w/ the same read names, in the same order. Only
+     * meaningful if both files are valid
+     */
+    @JsonIgnore
+    public boolean sameReadNames(FastqQcStats other) {
+        return reads == other.reads && readNamesHash == other.readNamesHash;
+    }
+
+    @Override
+    public String toString() {
+        return "FastqQcStats{" +
+                "filename='" + filename + '\'' +
+                ", reads=" + reads +
+                ", bases=" + bases +
+                ", encoding=" + encoding() +
+                ", meanQuality=" + meanQuality() +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
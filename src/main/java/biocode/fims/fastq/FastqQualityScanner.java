@@ -0,0 +1,217 @@
+package biocode.fims.fastq;
+
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.utils.Compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams the contents of uploaded fastq files, computing {@link FastqQcStats} for each file.
+ * <p>
+ * Files are scanned in parallel on a bounded pool. Each file is decompressed on a separate thread, which hands off
+ * filled buffers to the parsing thread through a small bounded queue, so decompression & parsing are pipelined. Memory
+ * use is bounded by the number of buffers per file, regardless of the file size.
+ * <p>
+ * Records are expected to be in the standard 4 line format. Scanning a file stops at the first formatting error.
+ * <p>
+ * The read names are hashed in the same pass, so the mates of paired-end files can be compared w/o reading the files
+ * again (see {@link FastqQcStats#sameReadNames}). The read name is the header up to the first whitespace, excluding any
+ * /1 or /2 mate suffix.
+ *
+ * @author rjewing
+ */
+public class FastqQualityScanner {
+    private final int parallelism;
+
+    public FastqQualityScanner(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @param files filename -> file to scan
+     * @return filename -> stats, in the same order as files
+     */
+    public Map<String, FastqQcStats> scan(Map<String, File> files) {
+        Map<String, FastqQcStats> results = new LinkedHashMap<>();
+        if (files.isEmpty()) return results;
+
+        int threads = Math.min(parallelism, files.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // at most 1 decompressor is running for each parser, so this pool never starves
+        ExecutorService decompressors = Executors.newFixedThreadPool(threads);
+
+        try {
+            Map<String, Future<FastqQcStats>> futures = new LinkedHashMap<>();
+            files.forEach((name, file) -> futures.put(name, pool.submit(() -> scan(name, file, decompressors))));
+
+            for (Map.Entry<String, Future<FastqQcStats>> e : futures.entrySet()) {
+                results.put(e.getKey(), e.getValue().get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new ServerErrorException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException(e);
+        } finally {
+            pool.shutdownNow();
+            decompressors.shutdownNow();
+        }
+    }
+
+    private FastqQcStats scan(String name, File file, ExecutorService decompressors) throws InterruptedException {
+        FastqQcStats stats = new FastqQcStats(name);
+        Parser parser = new Parser(stats);
+
+        DecompressionPipeline pipeline;
+        try {
+            pipeline = new DecompressionPipeline(Compression.openDecompressed(file), decompressors);
+        } catch (IOException e) {
+            stats.invalid("unable to read file");
+            return stats;
+        }
+
+        try {
+            DecompressionPipeline.Chunk chunk;
+            while ((chunk = pipeline.next()) != null) {
+                boolean valid = parser.feed(chunk.buffer(), chunk.length());
+                pipeline.release(chunk);
+                if (!valid) return stats;
+            }
+            parser.finish();
+        } catch (IOException e) {
+            stats.invalid("unable to read file. The file may be corrupt or truncated");
+        } finally {
+            pipeline.close();
+        }
+
+        return stats;
+    }
+
+    /**
+     * single pass, byte at a time parser. Records may span buffer boundaries
+     */
+    static class Parser {
+        private static final int HEADER = 0;
+        private static final int SEQUENCE = 1;
+        private static final int SEPARATOR = 2;
+        private static final int QUALITY = 3;
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final FastqQcStats stats;
+        private int line = HEADER;
+        private int lineLength;
+        private byte[] name = new byte[256];
+        private int nameLength;
+        private boolean nameComplete;
+        private int sequenceLength;
+        private long qualitySum;
+        private int minQuality = Integer.MAX_VALUE;
+        private int maxQuality = Integer.MIN_VALUE;
+
+        Parser(FastqQcStats stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * @return false if the data is invalid & parsing should stop
+         */
+        boolean feed(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                int c = buffer[i] & 0xFF;
+
+                if (c == '\n') {
+                    if (!endLine()) return false;
+                    continue;
+                } else if (c == '\r') {
+                    continue;
+                }
+
+                if (line == QUALITY) {
+                    if (c < '!' || c > '~') return error("invalid quality score character '" + (char) c + "'");
+                    qualitySum += c;
+                    if (c < minQuality) minQuality = c;
+                    if (c > maxQuality) maxQuality = c;
+                } else if (lineLength == 0) {
+                    if (line == HEADER && c != '@') return error("expected a header line starting with '@'");
+                    if (line == SEPARATOR && c != '+') return error("expected a separator line starting with '+'");
+                } else if (line == HEADER && !nameComplete) {
+                    if (c == ' ' || c == '\t') {
+                        nameComplete = true;
+                    } else {
+                        if (nameLength == name.length) name = Arrays.copyOf(name, name.length * 2);
+                        name[nameLength++] = (byte) c;
+                    }
+                }
+
+                lineLength++;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return false if the data ends w/ an incomplete record
+         */
+        boolean finish() {
+            if (lineLength > 0 && !endLine()) return false;
+            if (line != HEADER) return error("incomplete record at the end of the file");
+            return true;
+        }
+
+        private boolean endLine() {
+            switch (line) {
+                case HEADER:
+                    // ignore blank lines between records
+                    if (lineLength == 0) return true;
+                    stats.addReadName(hashName());
+                    nameLength = 0;
+                    nameComplete = false;
+                    break;
+                case SEQUENCE:
+                    sequenceLength = lineLength;
+                    break;
+                case SEPARATOR:
+                    if (lineLength == 0) return error("expected a separator line starting with '+'");
+                    break;
+                case QUALITY:
+                    if (lineLength != sequenceLength) {
+                        return error("quality length (" + lineLength + ") does not match sequence length (" + sequenceLength + ")");
+                    }
+                    stats.addRead(sequenceLength, qualitySum, minQuality, maxQuality);
+                    qualitySum = 0;
+                    minQuality = Integer.MAX_VALUE;
+                    maxQuality = Integer.MIN_VALUE;
+                    break;
+            }
+
+            line = (line + 1) & 3;
+            lineLength = 0;
+            return true;
+        }
+
+        private long hashName() {
+            int length = nameLength;
+            if (length >= 2 && name[length - 2] == '/' && (name[length - 1] == '1' || name[length - 1] == '2')) {
+                length -= 2;
+            }
+
+            long h = FNV_OFFSET;
+            for (int i = 0; i < length; i++) {
+                h ^= name[i] & 0xFF;
+                h *= FNV_PRIME;
+            }
+            return h;
+        }
+
+        private boolean error(String msg) {
+            stats.invalid("read " + (stats.reads() + 1) + ": " + msg);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package biocode.fims.fastq;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Seek points into a gzip file. Each checkpoint is the start of a gzip member, so decompression can begin at any
+ * checkpoint w/o decompressing the preceding data. See {@link GzipIndexBuilder}
+ *
+ * @author rjewing
+ */
+public class GzipIndex {
+    private static final int MAGIC = 0x475A4958; // GZIX
+    private static final int VERSION = 1;
+
+    public static class Checkpoint {
+        private final long compressedOffset;
+        private final long uncompressedOffset;
+
+        Checkpoint(long compressedOffset, long uncompressedOffset) {
+            this.compressedOffset = compressedOffset;
+            this.uncompressedOffset = uncompressedOffset;
+        }
+
+        public long compressedOffset() {
+            return compressedOffset;
+        }
+
+        public long uncompressedOffset() {
+            return uncompressedOffset;
+        }
+    }
+
+    private final List<Checkpoint> checkpoints;
+    private final long uncompressedSize;
+
+    GzipIndex(List<Checkpoint> checkpoints, long uncompressedSize) {
+        this.checkpoints = Collections.unmodifiableList(checkpoints);
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     * Index files are stored in a sibling directory of the submission directory, as every file in the submission
+     * directory is uploaded to the SRA.
+     *
+     * @param submissionDir
+     * @return
+     */
+    public static File indexDir(Path submissionDir) {
+        return Paths.get(submissionDir.toString() + ".index").toFile();
+    }
+
+    /**
+     * @param submissionDir
+     * @param filename      the name of the indexed file
+     * @return
+     */
+    public static File indexFile(Path submissionDir, String filename) {
+        return new File(indexDir(submissionDir), filename + ".gzi");
+    }
+
+    public static GzipIndex read(File file) throws IOException {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IOException("invalid gzip index file: " + file);
+            }
+
+            long uncompressedSize = is.readLong();
+            int count = is.readInt();
+
+            List<Checkpoint> checkpoints = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                checkpoints.add(new Checkpoint(is.readLong(), is.readLong()));
+            }
+
+            return new GzipIndex(checkpoints, uncompressedSize);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeLong(uncompressedSize);
+            os.writeInt(checkpoints.size());
+
+            for (Checkpoint c : checkpoints) {
+                os.writeLong(c.compressedOffset);
+                os.writeLong(c.uncompressedOffset);
+            }
+        }
+    }
+
+    /**
+     * @param uncompressedOffset
+     * @return the last checkpoint at or before the given offset
+     */
+    public Checkpoint checkpoint(long uncompressedOffset) {
+        int lo = 0;
+        int hi = checkpoints.size() - 1;
+
+        // checkpoints are sorted by offset & the first checkpoint is always the start of the file
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (checkpoints.get(mid).uncompressedOffset <= uncompressedOffset) lo = mid;
+            else hi = mid - 1;
+        }
+
+        return checkpoints.get(lo);
+    }
+
+    public List<Checkpoint> checkpoints() {
+        return checkpoints;
+    }
+
+    public long uncompressedSize() {
+        return uncompressedSize;
+    }
+}
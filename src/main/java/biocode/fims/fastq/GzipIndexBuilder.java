@@ -0,0 +1,262 @@
+package biocode.fims.fastq;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Builds a {@link GzipIndex} from the compressed bytes of a gzip file as they are written, so the index can be built
+ * while the file is copied, w/o reading the file a 2nd time.
+ * <p>
+ * A checkpoint is recorded at the start of a gzip member once at least {@link #DEFAULT_SPAN} bytes of uncompressed data
+ * have been seen since the previous checkpoint. For bgzip files, the size of each member is read from the member
+ * header, & the compressed data is not inflated. For other multi-member gzip files, each member is inflated to find the
+ * end of the member. A single member gzip file can only be indexed at the start of the file, see
+ * {@link FastqPreviewReader#MAX_UNINDEXED_BYTES}.
+ *
+ * @author rjewing
+ */
+public class GzipIndexBuilder extends OutputStream {
+    public static final long DEFAULT_SPAN = 1024 * 1024;
+
+    private static final int HEADER = 0;
+    private static final int BODY = 1;
+    private static final int TRAILER = 2;
+    // the remaining data is ignored (ex. trailing padding)
+    private static final int DONE = 3;
+
+    private static final int TRAILER_SIZE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final long span;
+    private final List<GzipIndex.Checkpoint> checkpoints = new ArrayList<>();
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] scratch = new byte[64 * 1024];
+    private final byte[] trailer = new byte[TRAILER_SIZE];
+
+    private int state = HEADER;
+    private byte[] header = new byte[64];
+    private int headerSize;
+    private int trailerSize;
+    // the remaining compressed bytes of a bgzip member, or -1 if the member is inflated
+    private long bodyRemaining;
+    private long memberSize;
+    private long compressedOffset;
+    private long memberStart;
+    private int members;
+    private long uncompressedOffset;
+    private long lastCheckpoint;
+    private boolean invalid;
+
+    public GzipIndexBuilder() {
+        this(DEFAULT_SPAN);
+    }
+
+    public GzipIndexBuilder(long span) {
+        this.span = span;
+    }
+
+    /**
+     * @return the index, or null if the data was not a complete gzip file
+     */
+    public GzipIndex index() {
+        if (invalid || members == 0 || (state != HEADER && state != DONE) || headerSize > 0) return null;
+        return new GzipIndex(new ArrayList<>(checkpoints), uncompressedOffset);
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0 && state != DONE) {
+            int consumed;
+
+            switch (state) {
+                case HEADER:
+                    consumed = header(b, off, len);
+                    break;
+                case BODY:
+                    consumed = body(b, off, len);
+                    break;
+                default:
+                    consumed = trailer(b, off, len);
+                    break;
+            }
+
+            compressedOffset += consumed;
+            off += consumed;
+            len -= consumed;
+        }
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private int header(byte[] b, int off, int len) {
+        if (headerSize == 0) {
+            memberStart = compressedOffset;
+            if (members == 0 || uncompressedOffset - lastCheckpoint >= span) {
+                checkpoints.add(new GzipIndex.Checkpoint(compressedOffset, uncompressedOffset));
+                lastCheckpoint = uncompressedOffset;
+            }
+        }
+
+        // we don't know the header length until it is parsed, so buffer everything & hand off any excess to the body
+        if (headerSize + len > header.length) {
+            header = Arrays.copyOf(header, Math.max(header.length * 2, headerSize + len));
+        }
+        System.arraycopy(b, off, header, headerSize, len);
+        headerSize += len;
+
+        int blockSize = blockSize();
+        int length = headerLength();
+
+        if (length == -1) {
+            // not a gzip member. Any data after the 1st member is ignored, ex. trailing zero padding
+            if (members == 0) invalid = true;
+
+            GzipIndex.Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+            if (last.compressedOffset() == memberStart) checkpoints.remove(checkpoints.size() - 1);
+
+            headerSize = 0;
+            state = DONE;
+            return len;
+        } else if (length == 0) {
+            return len;
+        }
+
+        int excess = headerSize - length;
+        bodyRemaining = blockSize == -1 ? -1 : blockSize - length - TRAILER_SIZE;
+        headerSize = 0;
+        state = BODY;
+
+        if (bodyRemaining < -1) {
+            invalid = true;
+            state = DONE;
+        }
+
+        return len - excess;
+    }
+
+    private int body(byte[] b, int off, int len) {
+        if (bodyRemaining >= 0) {
+            int n = (int) Math.min(len, bodyRemaining);
+            bodyRemaining -= n;
+            if (bodyRemaining == 0) state = TRAILER;
+            return n;
+        }
+
+        inflater.setInput(b, off, len);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(scratch);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            invalid = true;
+            state = DONE;
+            return len;
+        }
+
+        if (!inflater.finished()) return len;
+
+        memberSize = inflater.getBytesWritten();
+        int remaining = inflater.getRemaining();
+        inflater.reset();
+        state = TRAILER;
+        return len - remaining;
+    }
+
+    private int trailer(byte[] b, int off, int len) {
+        int n = Math.min(len, TRAILER_SIZE - trailerSize);
+        System.arraycopy(b, off, trailer, trailerSize, n);
+        trailerSize += n;
+
+        if (trailerSize == TRAILER_SIZE) {
+            if (bodyRemaining == 0) {
+                // bgzip member, use ISIZE. bgzip members are always < 64KB so ISIZE will not have overflowed
+                memberSize = (trailer[4] & 0xFFL) | (trailer[5] & 0xFFL) << 8 | (trailer[6] & 0xFFL) << 16 | (trailer[7] & 0xFFL) << 24;
+            }
+            uncompressedOffset += memberSize;
+            members++;
+            trailerSize = 0;
+            state = HEADER;
+        }
+
+        return n;
+    }
+
+    /**
+     * @return the header length, 0 if more data is needed, or -1 if the data is not a gzip header
+     */
+    private int headerLength() {
+        if (headerSize >= 1 && (header[0] & 0xFF) != 0x1F) return -1;
+        if (headerSize >= 2 && (header[1] & 0xFF) != 0x8B) return -1;
+        // CM must be deflate
+        if (headerSize >= 3 && header[2] != 8) return -1;
+        if (headerSize < 10) return 0;
+
+        int flags = header[3] & 0xFF;
+        int pos = 10;
+
+        if ((flags & FEXTRA) != 0) {
+            if (headerSize < pos + 2) return 0;
+            pos += 2 + u16(pos);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipString(pos);
+            if (pos == -1) return 0;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipString(pos);
+            if (pos == -1) return 0;
+        }
+        if ((flags & FHCRC) != 0) pos += 2;
+
+        return headerSize < pos ? 0 : pos;
+    }
+
+    /**
+     * @return the total size of the member from the bgzip BC extra subfield, or -1 if this is not a complete bgzip header
+     */
+    private int blockSize() {
+        if (headerSize < 12 || (header[3] & FEXTRA) == 0) return -1;
+
+        int end = 12 + u16(10);
+        if (headerSize < end) return -1;
+
+        int pos = 12;
+        while (pos + 4 <= end) {
+            int length = u16(pos + 2);
+            if (header[pos] == 'B' && header[pos + 1] == 'C' && length == 2 && pos + 6 <= end) {
+                return u16(pos + 4) + 1;
+            }
+            pos += 4 + length;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the position following the zero terminated string starting at pos, or -1 if more data is needed
+     */
+    private int skipString(int pos) {
+        while (pos < headerSize && header[pos] != 0) pos++;
+        return pos < headerSize ? pos + 1 : -1;
+    }
+
+    private int u16(int pos) {
+        return (header[pos] & 0xFF) | (header[pos + 1] & 0xFF) << 8;
+    }
+}
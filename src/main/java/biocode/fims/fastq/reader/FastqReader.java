@@ -2,6 +2,7 @@ package biocode.fims.fastq.reader;
 
 import biocode.fims.config.models.Entity;
 import biocode.fims.exceptions.FastqReaderCode;
+import biocode.fims.fastq.FastqFilenameClassifier;
 import biocode.fims.fastq.FastqProps;
 import biocode.fims.fastq.FastqRecord;
 import biocode.fims.fimsExceptions.FimsRuntimeException;
@@ -19,8 +20,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static biocode.fims.fastq.FastqProps.LIBRARY_LAYOUT;
 
@@ -38,16 +37,13 @@ public class FastqReader implements DataReader {
     private static final String CONCEPT_ALIAS_KEY = "conceptAlias";
     private static final List<String> EXTS = Arrays.asList("txt");
 
-    private static final Pattern SINGLE_ID_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PAIRED_ID_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[12]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
-
     protected File file;
     protected ProjectConfig config;
     private RecordMetadata recordMetadata;
     private List<RecordSet> recordSets;
     private Map<String, List<String>> filenames;
     private String parentUniqueKeyUri;
-    private Pattern pattern;
+    private boolean paired;
 
     /**
      * This is only to be used for passing the class into the DataReaderFactory
@@ -69,11 +65,7 @@ public class FastqReader implements DataReader {
             throw new FimsRuntimeException(DataReaderCode.MISSING_METADATA, 500);
         }
 
-        if (((String) recordMetadata.get(LIBRARY_LAYOUT.uri())).equalsIgnoreCase("single")) {
-            this.pattern = SINGLE_ID_PATTERN;
-        } else {
-            this.pattern = PAIRED_ID_PATTERN;
-        }
+        this.paired = !((String) recordMetadata.get(LIBRARY_LAYOUT.uri())).equalsIgnoreCase("single");
     }
 
     @Override
@@ -133,11 +125,10 @@ public class FastqReader implements DataReader {
 
             while ((line = br.readLine()) != null) {
                 if (line.trim().equals("")) continue;;
-                Matcher matcher = pattern.matcher(line);
-
-                if (matcher.matches()) {
-                    String id = matcher.group(1);
+                FastqFilenameClassifier.Classification classification = FastqFilenameClassifier.classify(line);
+                String id = classification == null ? null : classification.sampleId(paired);
 
+                if (id != null) {
                     recordFilenames.computeIfAbsent(id, k -> new ArrayList<>()).add(line);
                 } else {
                     recordFilenames.computeIfAbsent(line, k -> new ArrayList<>()).add(line);
@@ -13,7 +13,9 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Domain object representing the information necessary to submit to sra for a new submission
@@ -42,6 +44,13 @@ public class SraSubmission {
     }
 
     public SraSubmission(SraSubmissionData data, SraUploadMetadata metadata, User user, String url) {
+        this(data, metadata, user, url, Collections.emptyMap());
+    }
+
+    /**
+     * @param checksums filename -> hex encoded md5 checksum of the file
+     */
+    public SraSubmission(SraSubmissionData data, SraUploadMetadata metadata, User user, String url, Map<String, String> checksums) {
         organization = new Organization(user, url);
         this.releaseDate = metadata.releaseDate;
         this.submitter = user.getSraUsername();
@@ -65,7 +74,7 @@ public class SraSubmission {
             String bioProjectId = finalBioProject == null ? null : finalBioProject.getIdentifier();
             this.actions.add(
                     SubmittableSraMetadata.fromMetadata(
-                            m, metadata.bioProjectAccession, bioProjectId
+                            m, metadata.bioProjectAccession, bioProjectId, checksums
                     )
             );
         });
@@ -10,7 +10,9 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElements;
 import javax.xml.bind.annotation.XmlType;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -59,6 +61,14 @@ public class SubmittableSraMetadata {
     }
 
     public static SubmittableSraMetadata fromMetadata(SraMetadata m, String bioProjectAccession, String bioProjectId) {
+        return fromMetadata(m, bioProjectAccession, bioProjectId, Collections.emptyMap());
+    }
+
+    /**
+     * @param checksums filename -> hex encoded md5 checksum. Files without a checksum are submitted without one
+     */
+    public static SubmittableSraMetadata fromMetadata(SraMetadata m, String bioProjectAccession, String bioProjectId,
+                                                      Map<String, String> checksums) {
 
         List<AttributeRef> refs = new ArrayList<>();
         refs.add(new AttributeRef(bioProjectId, bioProjectAccession, "BioProject"));
@@ -70,8 +80,10 @@ public class SubmittableSraMetadata {
                 .collect(Collectors.toList());
 
         List<File> files = new ArrayList<>();
-        files.add(new File(m.get("filename")));
-        if (!StringUtils.isBlank(m.getOrDefault("filename2", ""))) files.add(new File(m.get("filename2")));
+        files.add(new File(m.get("filename"), checksums.get(m.get("filename"))));
+        if (!StringUtils.isBlank(m.getOrDefault("filename2", ""))) {
+            files.add(new File(m.get("filename2"), checksums.get(m.get("filename2"))));
+        }
 
         return new SubmittableSraMetadata(m.get("library_ID"), files, refs, attributes);
     }
@@ -111,12 +123,15 @@ public class SubmittableSraMetadata {
         private static String dataType = "generic-data";
         @XmlAttribute(name = "file_path")
         private String path;
+        @XmlAttribute(name = "md5")
+        private String md5;
 
         File() {
         }
 
-        private File(String path) {
+        private File(String path, String md5) {
             this.path = path;
+            this.md5 = md5;
         }
     }
 }
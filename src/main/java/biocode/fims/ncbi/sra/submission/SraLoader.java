@@ -1,6 +1,12 @@
 package biocode.fims.ncbi.sra.submission;
 
 import com.sun.xml.bind.v2.runtime.IllegalAnnotationsException;
+import biocode.fims.fastq.FastqFilenameClassifier;
+import biocode.fims.fastq.FastqPairVerifier;
+import biocode.fims.fastq.FastqQcStats;
+import biocode.fims.fastq.FastqQualityScanner;
+import biocode.fims.fastq.GzipIndex;
+import biocode.fims.fastq.GzipIndexBuilder;
 import biocode.fims.models.SraSubmissionEntry;
 import biocode.fims.models.User;
 import biocode.fims.ncbi.models.GeomeBioSample;
@@ -10,7 +16,7 @@ import biocode.fims.ncbi.models.submission.SraSubmission;
 import biocode.fims.repositories.SraSubmissionRepository;
 import biocode.fims.rest.models.SraUploadMetadata;
 import biocode.fims.rest.responses.SraUploadResponse;
-import biocode.fims.utils.FileUtils;
+import biocode.fims.utils.Compression;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +27,12 @@ import javax.xml.bind.Marshaller;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -42,13 +52,20 @@ public class SraLoader {
     private final User user;
 
     private final ArrayList<String> invalidFiles;
+    private final ArrayList<String> duplicateFiles;
     private final String url;
     private final SraSubmissionRepository sraSubmissionRepository;
+    private final FastqQualityScanner qualityScanner;
+    private final FastqPairVerifier pairVerifier;
     private Map<String, List<File>> files;
+    private Map<String, FastqQcStats> qcStats;
+    // filename -> hex encoded md5 checksum
+    private Map<String, String> checksums;
     private Path submissionDir;
 
     public SraLoader(SraUploadMetadata metadata, ZipInputStream is, SraSubmissionData sraSubmissionData,
-                     String sraSubmissionDir, User user, String appUrl, SraSubmissionRepository sraSubmissionRepository) {
+                     String sraSubmissionDir, User user, String appUrl, SraSubmissionRepository sraSubmissionRepository,
+                     FastqQualityScanner qualityScanner, FastqPairVerifier pairVerifier) {
         this.metadata = metadata;
         this.is = is;
         this.sraSubmissionData = sraSubmissionData;
@@ -56,8 +73,12 @@ public class SraLoader {
         this.user = user;
         this.url = appUrl;
         this.sraSubmissionRepository = sraSubmissionRepository;
+        this.qualityScanner = qualityScanner;
+        this.pairVerifier = pairVerifier;
         invalidFiles = new ArrayList<>();
+        duplicateFiles = new ArrayList<>();
         files = new HashMap<>();
+        checksums = new HashMap<>();
     }
 
     public SraUploadResponse upload() {
@@ -77,6 +98,16 @@ public class SraLoader {
             return new SraUploadResponse(false, "Invalid/corrupt zip file.");
         }
 
+        if (duplicateFiles.size() > 0) {
+            logger.debug("Duplicate files found");
+            deleteSubmissionDir();
+            return new SraUploadResponse(
+                    false,
+                    "The following files are included more then once in the zip file: \"" +
+                            String.join("\", \"", duplicateFiles) + "\"."
+            );
+        }
+
         logger.debug("Checking for missing files");
         // check that all filenames are present
         List<String> missingFiles = checkForMissingFiles(filteredSubmissionData);
@@ -92,7 +123,32 @@ public class SraLoader {
             );
         }
 
-        logger.debug("No missing files found. Writing submission xml");
+        logger.debug("No missing files found. Checking file contents");
+        // catch bad data now, instead of after the (very long) upload to the SRA
+        List<String> invalidContents = checkFileContents(filteredSubmissionData);
+
+        if (invalidContents.size() > 0) {
+            logger.debug("Invalid fastq files found");
+            deleteSubmissionDir();
+            return new SraUploadResponse(
+                    false,
+                    "The following files are not valid fastq files:\n" + String.join("\n", invalidContents)
+            );
+        }
+
+        logger.debug("File contents are valid. Checking paired files");
+        List<String> invalidPairs = checkPairs(filteredSubmissionData);
+
+        if (invalidPairs.size() > 0) {
+            logger.debug("Invalid paired files found");
+            deleteSubmissionDir();
+            return new SraUploadResponse(
+                    false,
+                    "The following paired files are not mates:\n" + String.join("\n", invalidPairs)
+            );
+        }
+
+        logger.debug("Paired files are valid. Writing submission xml");
         logger.error("testing logger.error");
 
         try {
@@ -125,13 +181,13 @@ public class SraLoader {
         logger.debug("sra submission is valid");
 
         // validate is from
-        return new SraUploadResponse(true, null);
+        return new SraUploadResponse(true, null, new ArrayList<>(qcStats.values()));
     }
 
     private void writeSubmissionXml(SraSubmissionData filteredSubmissionData) throws JAXBException {
         try {
             logger.debug("creating SraSubmission object");
-            SraSubmission submission = new SraSubmission(filteredSubmissionData, metadata, user, url);
+            SraSubmission submission = new SraSubmission(filteredSubmissionData, metadata, user, url, checksums);
             logger.debug("initiating JAXBContext: " + JAXBContext.JAXB_CONTEXT_FACTORY);
             JAXBContext jaxbContext = JAXBContext.newInstance(SraSubmission.class);
             logger.debug("creating marshaller");
@@ -158,6 +214,54 @@ public class SraLoader {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * @return a description of each required file which failed the content checks
+     */
+    private List<String> checkFileContents(SraSubmissionData filteredSubmissionData) {
+        Map<String, File> requiredFiles = new LinkedHashMap<>();
+        filteredSubmissionData.sraMetadata.stream()
+                .flatMap(m -> Stream.of(m.get("filename"), m.get("filename2")))
+                .filter(n -> !StringUtils.isBlank(n))
+                .forEach(n -> requiredFiles.put(n, files.get(n).get(0)));
+
+        qcStats = qualityScanner.scan(requiredFiles);
+
+        return qcStats.values().stream()
+                .filter(s -> !s.isValid())
+                .map(s -> s.filename() + ": " + (s.error() == null ? "no reads found" : s.error()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The read names are hashed while scanning the file contents, so the mates of each pair are compared w/o reading
+     * the files again. Only pairs which do not match are re-read, to describe the first mismatch.
+     *
+     * @return a description of each pair of files which are not mates
+     */
+    private List<String> checkPairs(SraSubmissionData filteredSubmissionData) {
+        List<FastqPairVerifier.Pair> mismatched = filteredSubmissionData.sraMetadata.stream()
+                .filter(m -> !StringUtils.isBlank(m.get("filename")) && !StringUtils.isBlank(m.get("filename2")))
+                .filter(m -> !qcStats.get(m.get("filename")).sameReadNames(qcStats.get(m.get("filename2"))))
+                .map(m -> new FastqPairVerifier.Pair(
+                        m.get("filename"),
+                        files.get(m.get("filename")).get(0),
+                        m.get("filename2"),
+                        files.get(m.get("filename2")).get(0)
+                ))
+                .collect(Collectors.toList());
+
+        if (mismatched.isEmpty()) return Collections.emptyList();
+
+        List<String> errors = pairVerifier.verify(mismatched);
+        // should not happen, but don't accept the pairs if the verifier can't find the mismatch
+        if (errors.isEmpty()) {
+            return mismatched.stream()
+                    .map(p -> "\"" + p.filename1() + "\" & \"" + p.filename2() + "\": read names do not match")
+                    .collect(Collectors.toList());
+        }
+        return errors;
+    }
+
     private SraSubmissionData getSraSubmissionData() {
         List<GeomeBioSample> bioSamples = sraSubmissionData.bioSamples.stream()
                 .filter(b -> metadata.bioSamples.contains(b.get("sample_name")))
@@ -189,18 +293,15 @@ public class SraLoader {
             ze = is.getNextEntry();
         }
 
-        // These suffixes are from FastqFilenamesRule
-        List<String> fileSuffixes = Arrays.asList("fq", "fastq", "gz", "gzip", "bz2");
-
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[64 * 1024];
         while (ze != null) {
             String fileName = ze.getName().replace(zipRootDir, "");
-            String ext = FileUtils.getExtension(fileName, "");
+            FastqFilenameClassifier.Classification classification = FastqFilenameClassifier.classify(fileName);
 
-            // ignore nested directories & unsupported file extensions
+            // ignore nested directories & files which are not valid fastq filenames
             if (ze.isDirectory() ||
                     fileName.split(File.separator).length > 1 ||
-                    !fileSuffixes.contains(ext.toLowerCase())) {
+                    classification == null) {
                 logger.info("ignoring dir/unsupported file: " + ze.getName());
 
                 // don't report about hidden osx included dir
@@ -223,28 +324,78 @@ public class SraLoader {
                 continue;
             }
 
+            // don't overwrite the file & checksum of an earlier entry w/ the same name
+            if (files.containsKey(fileName)) {
+                logger.info("duplicate file: " + ze.getName());
+                duplicateFiles.add(fileName);
+                ze = is.getNextEntry();
+                continue;
+            }
+
             File file = new File(submissionDir.toString(), ze.getName());
 
             logger.debug("unzipping file: " + fileName + " to: " + file.getAbsolutePath());
 
-            try (FileOutputStream fos = new FileOutputStream(file)) {
+            // compute the checksum & gzip index as the file is extracted, so we don't need to read the file a 2nd time
+            MessageDigest md5 = newMd5Digest();
+            GzipIndexBuilder indexBuilder = classification.compression() == Compression.GZIP ? new GzipIndexBuilder() : null;
+            try (OutputStream os = new DigestOutputStream(new FileOutputStream(file), md5)) {
                 int len;
                 while ((len = is.read(buffer)) > 0) {
-                    fos.write(buffer, 0, len);
+                    os.write(buffer, 0, len);
+                    if (indexBuilder != null) indexBuilder.write(buffer, 0, len);
                 }
 
                 files.computeIfAbsent(fileName, k -> new ArrayList<>()).add(file);
+                checksums.put(fileName, toHex(md5.digest()));
             } catch (Exception e) {
                 logger.debug("Failed to extract file", e);
                 invalidFiles.add(ze.getName());
+            } finally {
+                if (indexBuilder != null) indexBuilder.close();
             }
 
+            if (indexBuilder != null) writeIndex(file, indexBuilder.index());
+
             ze = is.getNextEntry();
         }
     }
 
+    /**
+     * the index is only used for previewing the file, so failures are ignored
+     */
+    private void writeIndex(File file, GzipIndex index) {
+        if (index == null) return;
+
+        try {
+            index.write(GzipIndex.indexFile(getSubmissionDirectory(), file.getName()));
+        } catch (IOException e) {
+            logger.debug("Failed to write gzip index", e);
+        }
+    }
+
+    private static MessageDigest newMd5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     private void deleteSubmissionDir() {
-        File dir = getSubmissionDirectory().toFile();
+        deleteDir(getSubmissionDirectory().toFile());
+        deleteDir(GzipIndex.indexDir(getSubmissionDirectory()));
+    }
+
+    private void deleteDir(File dir) {
         if (!dir.exists()) return;
         File[] files = dir.listFiles();
         if (files != null) {
@@ -1,6 +1,7 @@
 package biocode.fims.ncbi.sra.submission;
 
 import biocode.fims.application.config.TissueProperties;
+import biocode.fims.fastq.GzipIndex;
 import biocode.fims.models.SraSubmissionEntry;
 import biocode.fims.ncbi.models.submission.SraSubmissionReport;
 import biocode.fims.repositories.SraSubmissionRepository;
@@ -100,6 +101,7 @@ public class SubmissionReporter {
                             "You should have received an email from the SRA asking you to take ownership of your submission. If you did not, please contact geome.help@gmail.com."
             );
             submission.getSubmissionDir().toFile().delete();
+            deleteDir(GzipIndex.indexDir(submission.getSubmissionDir()));
         } else if (submission.getStatus().equals(SraSubmissionEntry.Status.SUBMISSION_ERROR)) {
             EmailUtils.sendEmail(
                     submission.getUser().getEmail(),
@@ -108,4 +110,18 @@ public class SubmissionReporter {
             );
         }
     }
+
+    /**
+     * the gzip indexes are only used to preview the submitted files
+     */
+    private void deleteDir(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!dir.delete()) logger.warn("Failed to delete dir: " + dir);
+    }
 }
@@ -0,0 +1,94 @@
+package biocode.fims.rest.helpers;
+
+/**
+ * A single byte range parsed from an http Range header (RFC 7233). Multiple ranges are not supported.
+ *
+ * @author rjewing
+ */
+public class ByteRange {
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param header the Range header value
+     * @param length the length of the resource
+     * @return the requested range, or null if the header is missing, malformed or requests multiple ranges. In which
+     * case the entire resource should be returned. If the range can not be satisfied, {@link #isSatisfiable()} will
+     * return false.
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null) return null;
+        header = header.trim();
+
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) return null;
+
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        if (spec.indexOf(',') != -1) return null;
+
+        int dash = spec.indexOf('-');
+        if (dash == -1) return null;
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            // suffix range, the last n bytes
+            if (first.isEmpty()) {
+                if (last.isEmpty()) return null;
+                long suffix = Long.parseLong(last);
+                if (suffix < 0) return null;
+                if (suffix == 0 || length == 0) return new ByteRange(-1, -1);
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+            if (start < 0 || end < start) return null;
+            if (start >= length) return new ByteRange(-1, -1);
+
+            return new ByteRange(start, Math.min(end, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean isSatisfiable() {
+        return start >= 0;
+    }
+
+    /**
+     * @return the first byte position, inclusive
+     */
+    public long start() {
+        return start;
+    }
+
+    /**
+     * @return the last byte position, inclusive
+     */
+    public long end() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param length the length of the resource
+     * @return the Content-Range header value
+     */
+    public String contentRange(long length) {
+        return isSatisfiable()
+                ? "bytes " + start + "-" + end + "/" + length
+                : "bytes */" + length;
+    }
+}
@@ -1,7 +1,10 @@
 package biocode.fims.rest.responses;
 
+import biocode.fims.fastq.FastqQcStats;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
+import java.util.List;
+
 /**
  * @author rjewing
  */
@@ -9,9 +12,16 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 public class SraUploadResponse {
     public final boolean success;
     public final String message;
+    // content stats of each uploaded fastq file
+    public final List<FastqQcStats> qcStats;
 
     public SraUploadResponse(boolean success, String message) {
+        this(success, message, null);
+    }
+
+    public SraUploadResponse(boolean success, String message, List<FastqQcStats> qcStats) {
         this.success = success;
         this.message = message;
+        this.qcStats = qcStats;
     }
 }
@@ -0,0 +1,468 @@
+package biocode.fims.rest.services.subResources;
+
+import biocode.fims.application.config.FimsProperties;
+import biocode.fims.application.config.TissueProperties;
+import biocode.fims.authorizers.ProjectAuthorizer;
+import biocode.fims.authorizers.QueryAuthorizer;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaChangeFeed;
+import biocode.fims.fasta.FastaChangeToken;
+import biocode.fims.fasta.FastaChanges;
+import biocode.fims.fasta.FastaExportCriteria;
+import biocode.fims.fasta.FastaExportJob;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.fasta.FastaStreamWriter;
+import biocode.fims.fasta.ParallelFastaQueryWriter;
+import biocode.fims.fasta.TwoBitQueryWriter;
+import biocode.fims.fasta.index.KmerSearchHit;
+import biocode.fims.fimsExceptions.BadRequestException;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.fimsExceptions.ForbiddenRequestException;
+import biocode.fims.fimsExceptions.errorCodes.FileCode;
+import biocode.fims.models.Project;
+import biocode.fims.models.User;
+import biocode.fims.rest.FimsController;
+import biocode.fims.rest.helpers.ByteRange;
+import biocode.fims.rest.responses.FileResponse;
+import biocode.fims.service.FastaExportCache;
+import biocode.fims.service.FastaExportExecutor;
+import biocode.fims.service.FastaExportJobService;
+import biocode.fims.service.FastaSequenceIndexService;
+import biocode.fims.service.ProjectService;
+import biocode.fims.tools.FileCache;
+import biocode.fims.utils.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author rjewing
+ */
+@Controller
+@Produces(MediaType.APPLICATION_JSON)
+public class FastaResource extends FimsController {
+    private static final int MAX_LIMIT = 1000;
+    private static final int MAX_CHANGES_LIMIT = 10000;
+
+    private final ProjectService projectService;
+    private final ProjectAuthorizer projectAuthorizer;
+    private final QueryAuthorizer queryAuthorizer;
+    private final FastaSequenceIndexService fastaSequenceIndexService;
+    private final FastaRepository fastaRepository;
+    private final FastaExportCache fastaExportCache;
+    private final FileCache fileCache;
+    private final FastaExportJobService fastaExportJobService;
+    private final FastaExportExecutor fastaExportExecutor;
+    private final TissueProperties tissueProperties;
+
+    @Autowired
+    public FastaResource(FimsProperties props, ProjectService projectService, ProjectAuthorizer projectAuthorizer,
+                         QueryAuthorizer queryAuthorizer, FastaSequenceIndexService fastaSequenceIndexService,
+                         FastaRepository fastaRepository, FastaExportCache fastaExportCache, FileCache fileCache,
+                         FastaExportJobService fastaExportJobService, FastaExportExecutor fastaExportExecutor,
+                         TissueProperties tissueProperties) {
+        super(props);
+        this.projectService = projectService;
+        this.projectAuthorizer = projectAuthorizer;
+        this.queryAuthorizer = queryAuthorizer;
+        this.fastaSequenceIndexService = fastaSequenceIndexService;
+        this.fastaRepository = fastaRepository;
+        this.fastaExportCache = fastaExportCache;
+        this.fileCache = fileCache;
+        this.fastaExportJobService = fastaExportJobService;
+        this.fastaExportExecutor = fastaExportExecutor;
+        this.tissueProperties = tissueProperties;
+    }
+
+    /**
+     * Export fasta sequences. The records are streamed directly to the response as they are read from the db.
+     *
+     * @param projectId
+     * @param entity      the conceptAlias of the fasta entity to export
+     * @param expeditions optional expeditionCodes to export. Defaults to all expeditions in the project
+     * @param markers     optional markers to export. Defaults to all markers
+     * @param format      fasta, gzip (a single gzipped fasta file) or zip (a fasta file per marker)
+     */
+    @Path("{projectId: [0-9]+}/export")
+    @GET
+    @Produces({"application/zip", "application/gzip", MediaType.TEXT_PLAIN})
+    public Response export(@PathParam("projectId") Integer projectId,
+                           @QueryParam("entity") String entity,
+                           @QueryParam("expedition") List<String> expeditions,
+                           @QueryParam("marker") List<String> markers,
+                           @QueryParam("format") @DefaultValue("zip") String format) {
+        Project project = getExportProject(projectId, expeditions);
+        FastaExportCriteria criteria = getExportCriteria(project, entity, expeditions, markers);
+        FastaStreamWriter.Format f = getExportFormat(format);
+
+        FastaStreamWriter writer = new FastaStreamWriter(fastaRepository, project.getNetwork().getId(), criteria, project.getProjectConfig());
+
+        StreamingOutput output = os -> writer.write(os, f);
+
+        return Response.ok(output, f.mediaType())
+                .header("Content-Disposition", "attachment; filename=\"" + criteria.conceptAlias() + "." + f.extension() + "\"")
+                .build();
+    }
+
+    /**
+     * Export fasta sequences to a file. Identical exports are cached until any of the contributing expeditions are
+     * re-uploaded, so repeated requests are cheap. zip exports are written in parallel, sharded by expedition & marker.
+     *
+     * @param projectId
+     * @param entity      the conceptAlias of the fasta entity to export
+     * @param expeditions optional expeditionCodes to export. Defaults to all expeditions in the project
+     * @param markers     optional markers to export. Defaults to all markers
+     * @param format      fasta, gzip (a single gzipped fasta file) or zip (a fasta file per marker)
+     */
+    @Path("{projectId: [0-9]+}/export/file")
+    @GET
+    public FileResponse exportFile(@PathParam("projectId") Integer projectId,
+                                   @QueryParam("entity") String entity,
+                                   @QueryParam("expedition") List<String> expeditions,
+                                   @QueryParam("marker") List<String> markers,
+                                   @QueryParam("format") @DefaultValue("zip") String format) {
+        Project project = getExportProject(projectId, expeditions);
+        FastaExportCriteria criteria = getExportCriteria(project, entity, expeditions, markers);
+        FastaStreamWriter.Format f = getExportFormat(format);
+
+        int networkId = project.getNetwork().getId();
+        FastaExportCache.ExportGenerator generator;
+        if (f == FastaStreamWriter.Format.ZIP) {
+            ParallelFastaQueryWriter writer = new ParallelFastaQueryWriter(fastaRepository, networkId, criteria,
+                    project.getProjectConfig(), fastaExportExecutor.executor(), ParallelFastaQueryWriter.ShardBy.EXPEDITION);
+            generator = writer::writeZip;
+        } else {
+            FastaStreamWriter writer = new FastaStreamWriter(fastaRepository, networkId, criteria, project.getProjectConfig());
+            generator = os -> writer.write(os, f);
+        }
+
+        File file;
+        try {
+            file = fastaExportCache.get(networkId, criteria, project.getProjectConfig(), f, generator);
+        } catch (IOException e) {
+            throw new FimsRuntimeException(FileCode.WRITE_ERROR, 500);
+        }
+
+        String fileId = fileCache.cacheFileForUser(file, userContext.getUser(), criteria.conceptAlias() + "." + f.extension());
+        return new FileResponse(uriInfo.getBaseUriBuilder(), fileId);
+    }
+
+    /**
+     * Export fasta sequences in the UCSC .2bit format. If more then 1 marker is exported, a zip file containing a .2bit
+     * file for each marker is returned.
+     *
+     * @param projectId
+     * @param entity      the conceptAlias of the fasta entity to export
+     * @param expeditions optional expeditionCodes to export. Defaults to all expeditions in the project
+     * @param markers     optional markers to export. Defaults to all markers
+     */
+    @Path("{projectId: [0-9]+}/export/2bit")
+    @GET
+    public FileResponse exportTwoBit(@PathParam("projectId") Integer projectId,
+                                     @QueryParam("entity") String entity,
+                                     @QueryParam("expedition") List<String> expeditions,
+                                     @QueryParam("marker") List<String> markers) {
+        Project project = getExportProject(projectId, expeditions);
+        FastaExportCriteria criteria = getExportCriteria(project, entity, expeditions, markers);
+
+        List<File> files = new TwoBitQueryWriter(fastaRepository, project.getNetwork().getId(), criteria,
+                project.getProjectConfig()).write();
+
+        File file;
+        String filename;
+        if (files.size() == 1) {
+            file = files.get(0);
+            filename = file.getName();
+        } else {
+            Map<String, File> fileMap = new LinkedHashMap<>();
+            files.forEach(f -> fileMap.put(f.getName(), f));
+
+            file = FileUtils.zip(fileMap, defaultOutputDirectory());
+            filename = criteria.conceptAlias() + "-2bit.zip";
+            files.forEach(File::delete);
+        }
+
+        String fileId = fileCache.cacheFileForUser(file, userContext.getUser(), filename);
+        return new FileResponse(uriInfo.getBaseUriBuilder(), fileId);
+    }
+
+    /**
+     * Fetch the fasta records which have been created, modified or deleted since the given token. This allows mirrors to
+     * stay in sync w/o downloading a full export.
+     * <p>
+     * If the response contains more then limit changes or deletions, more is true and the next token will fetch the
+     * following page. Otherwise the next token should be used to poll for new changes. Records may be returned more
+     * then once.
+     *
+     * @param projectId
+     * @param entity      the conceptAlias of the fasta entity
+     * @param since       the next token from a previous response, or an ISO-8601 timestamp (ex. 2018-01-01T00:00:00Z)
+     * @param expeditions optional expeditionCodes to include. Defaults to all expeditions in the project
+     * @param markers     optional markers to include. Defaults to all markers
+     * @param limit       the max number of changes & the max number of deletions to return
+     */
+    @Path("{projectId: [0-9]+}/changes")
+    @GET
+    public FastaChanges changes(@PathParam("projectId") Integer projectId,
+                                @QueryParam("entity") String entity,
+                                @QueryParam("since") String since,
+                                @QueryParam("expedition") List<String> expeditions,
+                                @QueryParam("marker") List<String> markers,
+                                @QueryParam("limit") @DefaultValue("1000") int limit) {
+        Project project = getExportProject(projectId, expeditions);
+        FastaExportCriteria criteria = getExportCriteria(project, entity, expeditions, markers);
+
+        FastaChangeToken token = FastaChangeToken.parse(since);
+        if (token == null) {
+            throw new BadRequestException("since is required and must be a valid token or ISO-8601 timestamp");
+        }
+
+        if (limit < 1 || limit > MAX_CHANGES_LIMIT) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_CHANGES_LIMIT);
+        }
+
+        return new FastaChangeFeed(fastaRepository, project.getNetwork().getId(), criteria, project.getProjectConfig(),
+                tissueProperties.fastaChangeFeedOverlapMillis())
+                .changes(token, limit);
+    }
+
+    /**
+     * Start an asynchronous fasta export. The returned job can be polled for progress, cancelled, and downloaded once
+     * complete.
+     *
+     * @param projectId
+     * @param entity      the conceptAlias of the fasta entity to export
+     * @param expeditions optional expeditionCodes to export. Defaults to all expeditions in the project
+     * @param markers     optional markers to export. Defaults to all markers
+     * @param format      fasta, gzip (a single gzipped fasta file) or zip (a fasta file per marker)
+     */
+    @Path("{projectId: [0-9]+}/export/jobs")
+    @POST
+    public FastaExportJob createExportJob(@PathParam("projectId") Integer projectId,
+                                          @QueryParam("entity") String entity,
+                                          @QueryParam("expedition") List<String> expeditions,
+                                          @QueryParam("marker") List<String> markers,
+                                          @QueryParam("format") @DefaultValue("zip") String format) {
+        Project project = getExportProject(projectId, expeditions);
+        FastaExportCriteria criteria = getExportCriteria(project, entity, expeditions, markers);
+        FastaStreamWriter.Format f = getExportFormat(format);
+
+        FastaStreamWriter writer = new FastaStreamWriter(fastaRepository, project.getNetwork().getId(), criteria, project.getProjectConfig());
+        return fastaExportJobService.submit(writer, f, userContext.getUser(), projectId);
+    }
+
+    /**
+     * Get the status & progress of an export job
+     *
+     * @param jobId
+     */
+    @Path("export/jobs/{jobId}")
+    @GET
+    public FastaExportJob getExportJob(@PathParam("jobId") String jobId) {
+        return getAuthorizedJob(jobId);
+    }
+
+    /**
+     * Cancel an export job
+     *
+     * @param jobId
+     */
+    @Path("export/jobs/{jobId}")
+    @DELETE
+    public FastaExportJob cancelExportJob(@PathParam("jobId") String jobId) {
+        getAuthorizedJob(jobId);
+        return fastaExportJobService.cancel(jobId);
+    }
+
+    /**
+     * Download a completed export job. Supports single byte Range requests so interrupted downloads can be resumed.
+     *
+     * @param jobId
+     * @param range   optional Range header
+     * @param ifRange optional If-Range header. If present & not equal to the ETag, the entire file is returned
+     */
+    @Path("export/jobs/{jobId}/download")
+    @GET
+    @Produces({"application/zip", "application/gzip", MediaType.TEXT_PLAIN})
+    public Response downloadExportJob(@PathParam("jobId") String jobId,
+                                      @HeaderParam("Range") String range,
+                                      @HeaderParam("If-Range") String ifRange) {
+        FastaExportJob job = getAuthorizedJob(jobId);
+
+        if (job.status() != FastaExportJob.Status.COMPLETE || !job.file().exists()) {
+            throw new BadRequestException("Export is not complete");
+        }
+
+        File file = job.file();
+        long length = file.length();
+        String etag = "\"" + job.id() + "-" + length + "\"";
+        String filename = "fasta-export." + job.format().extension();
+
+        ByteRange byteRange = ifRange == null || ifRange.equals(etag) ? ByteRange.parse(range, length) : null;
+
+        if (byteRange != null && !byteRange.isSatisfiable()) {
+            return Response.status(416)
+                    .header("Content-Range", byteRange.contentRange(length))
+                    .build();
+        }
+
+        long start = byteRange == null ? 0 : byteRange.start();
+        long count = byteRange == null ? length : byteRange.length();
+
+        StreamingOutput output = os -> {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(start);
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = count;
+
+                while (remaining > 0) {
+                    int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) break;
+                    os.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        };
+
+        Response.ResponseBuilder builder = byteRange == null
+                ? Response.ok(output, job.format().mediaType())
+                : Response.status(206).entity(output).type(job.format().mediaType())
+                .header("Content-Range", byteRange.contentRange(length));
+
+        return builder
+                .header("Accept-Ranges", "bytes")
+                .header("ETag", etag)
+                .header("Content-Length", count)
+                .header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
+                .build();
+    }
+
+    private FastaExportJob getAuthorizedJob(String jobId) {
+        FastaExportJob job = fastaExportJobService.get(jobId);
+
+        if (job == null) {
+            throw new BadRequestException("Invalid export job");
+        }
+
+        User user = userContext.getUser();
+        if (job.username() != null && (user == null || !job.username().equals(user.getUsername()))) {
+            throw new ForbiddenRequestException("You do not have access to this export job");
+        }
+
+        return job;
+    }
+
+    private Project getExportProject(Integer projectId, List<String> expeditions) {
+        Project project = projectService.getProject(projectId);
+
+        if (project == null) {
+            throw new BadRequestException("Invalid project");
+        }
+
+        if (!queryAuthorizer.authorizedQuery(Collections.singletonList(projectId), new ArrayList<>(expeditions), userContext.getUser())) {
+            throw new ForbiddenRequestException("unauthorized query.");
+        }
+
+        return project;
+    }
+
+    private FastaExportCriteria getExportCriteria(Project project, String entity, List<String> expeditions, List<String> markers) {
+        Entity e = project.getProjectConfig().entity(entity);
+        if (!(e instanceof FastaEntity)) {
+            throw new BadRequestException("Invalid fasta entity");
+        }
+
+        return new FastaExportCriteria(project.getProjectId(), e.getConceptAlias(), expeditions, markers,
+                publicExpeditionsOnly(project));
+    }
+
+    /**
+     * only project members can see private expeditions
+     */
+    private boolean publicExpeditionsOnly(Project project) {
+        User user = userContext.getUser();
+        return user == null || !projectService.isUserMemberOfProject(user, project.getProjectId());
+    }
+
+    private FastaStreamWriter.Format getExportFormat(String format) {
+        FastaStreamWriter.Format f = FastaStreamWriter.Format.fromString(format);
+        if (f == null) {
+            throw new BadRequestException("Invalid format. Must be one of fasta, gzip or zip");
+        }
+        return f;
+    }
+
+    /**
+     * Search the stored sequences of a project for sequences similar to the query sequence. Hits are ranked by the number
+     * of k-mers they share with the query sequence. Only project members will receive hits from private expeditions.
+     *
+     * @param projectId
+     * @param entity    the conceptAlias of the fasta entity to search
+     * @param marker    the marker to search
+     * @param limit     the max number of hits to return
+     * @param sequence  the query sequence
+     */
+    @Path("{projectId: [0-9]+}/search")
+    @POST
+    @Consumes(MediaType.TEXT_PLAIN)
+    public List<KmerSearchHit> search(@PathParam("projectId") Integer projectId,
+                                      @QueryParam("entity") String entity,
+                                      @QueryParam("marker") String marker,
+                                      @QueryParam("limit") @DefaultValue("20") int limit,
+                                      String sequence) {
+        Project project = projectService.getProject(projectId);
+
+        if (project == null) {
+            throw new BadRequestException("Invalid project");
+        }
+
+        if (!projectAuthorizer.userHasAccess(userContext.getUser(), project)) {
+            throw new ForbiddenRequestException("You do not have access to this project");
+        }
+
+        Entity e = project.getProjectConfig().entity(entity);
+        if (!(e instanceof FastaEntity)) {
+            throw new BadRequestException("Invalid fasta entity");
+        }
+
+        if (marker == null || marker.trim().isEmpty()) {
+            throw new BadRequestException("marker is required");
+        }
+
+        if (sequence == null || sequence.trim().isEmpty()) {
+            throw new BadRequestException("a query sequence is required");
+        }
+
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_LIMIT);
+        }
+
+        Set<String> expeditionCodes = publicExpeditionsOnly(project)
+                ? fastaRepository.getPublicExpeditionCodes(projectId)
+                : null;
+
+        return fastaSequenceIndexService.search(
+                project.getNetwork().getId(),
+                e.getConceptAlias(),
+                marker,
+                sequence,
+                Collections.singleton(projectId),
+                expeditionCodes,
+                limit
+        );
+    }
+}
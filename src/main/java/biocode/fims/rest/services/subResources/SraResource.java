@@ -6,13 +6,20 @@ import biocode.fims.authorizers.QueryAuthorizer;
 import biocode.fims.config.models.Entity;
 import biocode.fims.config.models.FastqEntity;
 import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.fastq.FastqPairVerifier;
+import biocode.fims.fastq.FastqPreview;
+import biocode.fims.fastq.FastqPreviewReader;
+import biocode.fims.fastq.FastqQualityScanner;
+import biocode.fims.fastq.GzipIndex;
 import biocode.fims.fimsExceptions.BadRequestException;
 import biocode.fims.fimsExceptions.FimsRuntimeException;
 import biocode.fims.fimsExceptions.ForbiddenRequestException;
+import biocode.fims.fimsExceptions.ServerErrorException;
 import biocode.fims.fimsExceptions.errorCodes.GenericErrorCode;
 import biocode.fims.fimsExceptions.errorCodes.UploadCode;
 import biocode.fims.models.Expedition;
 import biocode.fims.models.Project;
+import biocode.fims.models.SraSubmissionEntry;
 import biocode.fims.models.User;
 import biocode.fims.ncbi.models.SraSubmissionData;
 import biocode.fims.ncbi.sra.submission.*;
@@ -280,7 +287,9 @@ public class SraResource extends ResumableUploadResource {
                         tissueProperties.sraSubmissionDir(),
                         userContext.getUser(),
                         props.appRoot(),
-                        sraSubmissionRepository
+                        sraSubmissionRepository,
+                        new FastqQualityScanner(tissueProperties.fastqQcParallelism()),
+                        new FastqPairVerifier(tissueProperties.fastqQcParallelism())
                 ).upload();
             } finally {
                 if (uploadEntry != null) {
@@ -324,6 +333,60 @@ public class SraResource extends ResumableUploadResource {
         return uploadEntry;
     }
 
+    /**
+     * Preview the reads in an uploaded fastq file, w/o downloading the entire file.
+     *
+     * @param submissionId
+     * @param filename     the name of the fastq file in the submission
+     * @param offset       the uncompressed offset in the file to start at. The preview starts w/ the 1st read at or after this offset
+     * @param limit        the max number of reads to return
+     * @return
+     */
+    @Authenticated
+    @GET
+    @Path("/submissions/{submissionId}/files/{filename}/preview")
+    public FastqPreview preview(@PathParam("submissionId") int submissionId,
+                                @PathParam("filename") String filename,
+                                @QueryParam("offset") @DefaultValue("0") long offset,
+                                @QueryParam("limit") @DefaultValue("10") int limit) {
+        if (offset < 0) throw new BadRequestException("offset must be >= 0");
+        if (limit < 1 || limit > FastqPreviewReader.MAX_READS) {
+            throw new BadRequestException("limit must be between 1 and " + FastqPreviewReader.MAX_READS);
+        }
+
+        SraSubmissionEntry submission = sraSubmissionRepository.findOneById(submissionId);
+
+        if (submission == null) {
+            throw new BadRequestException("Invalid submissionId");
+        } else if (!submission.getUser().equals(userContext.getUser())) {
+            throw new ForbiddenRequestException("You do not have permission to view this submission");
+        }
+
+        java.nio.file.Path dir = submission.getSubmissionDir().toAbsolutePath().normalize();
+        java.nio.file.Path path = dir.resolve(filename).normalize();
+        File file = path.toFile();
+
+        if (!dir.equals(path.getParent()) || !file.isFile()) {
+            throw new BadRequestException("Invalid filename");
+        }
+
+        GzipIndex index = null;
+        File indexFile = GzipIndex.indexFile(submission.getSubmissionDir(), file.getName());
+        if (indexFile.exists()) {
+            try {
+                index = GzipIndex.read(indexFile);
+            } catch (IOException e) {
+                logger.debug("Failed to read gzip index", e);
+            }
+        }
+
+        try {
+            return new FastqPreviewReader().read(file, file.getName(), index, offset, limit);
+        } catch (IOException e) {
+            throw new ServerErrorException(e);
+        }
+    }
+
     private MultiKey getKey(User user, UUID id) {
         return new MultiKey(user.getUserId(), id);
     }
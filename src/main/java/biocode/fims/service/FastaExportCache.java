@@ -0,0 +1,330 @@
+package biocode.fims.service;
+
+import biocode.fims.config.Config;
+import biocode.fims.config.models.Entity;
+import biocode.fims.fasta.FastaExportCriteria;
+import biocode.fims.fasta.FastaHeaderTemplate;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.fasta.FastaStreamWriter;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import biocode.fims.run.DatasetAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Content-addressed cache of generated fasta exports.
+ * <p>
+ * Entries are keyed by a sha-256 hash of the normalized {@link FastaExportCriteria}, output format & resolved
+ * {@link FastaHeaderTemplate}, along with the current export version of each contributing expedition. The version is
+ * incremented in the db by {@link #onSave} whenever any of the expedition's records are saved, including the records
+ * of the fasta entity's parent, so an export is never served after any of its expeditions have been saved, even if
+ * the save was made by another server. The versions are read from the expeditions & version tables (see
+ * {@link FastaRepository#getExportVersions}), so a cache hit does not scan the entity tables. Records modified outside
+ * of a dataset save are not versioned. Entries for expeditions saved by this server are removed immediately, others
+ * once they are evicted. The cache is bounded by the total size of the cached files, evicting the least recently used
+ * entries first.
+ * <p>
+ * Concurrent requests for the same export only generate it once. Other requests wait for the generation to complete.
+ * <p>
+ * The cache index is only held in memory, so any files left in the directory by a previous run are removed on startup.
+ * <p>
+ * Cached files are owned by the cache. Callers receive a link to the cached file via {@link #get}, which remains valid
+ * after the entry is evicted. The link is typically handed to the {@link biocode.fims.tools.FileCache} for download.
+ *
+ * @author rjewing
+ */
+public class FastaExportCache implements DatasetAction {
+    private final static Logger logger = LoggerFactory.getLogger(FastaExportCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    @FunctionalInterface
+    public interface ExportGenerator {
+        void write(OutputStream os) throws IOException;
+    }
+
+    private final FastaRepository fastaRepository;
+    private final File directory;
+    private final long maxBytes;
+    // access ordered for LRU eviction
+    private final LinkedHashMap<String, Entry> entries;
+    // key -> completed once the export has been generated
+    private final Map<String, CompletableFuture<Void>> generating;
+    private long totalBytes;
+
+    public FastaExportCache(FastaRepository fastaRepository, File directory) {
+        this(fastaRepository, directory, DEFAULT_MAX_BYTES);
+    }
+
+    public FastaExportCache(FastaRepository fastaRepository, File directory, long maxBytes) {
+        this.fastaRepository = fastaRepository;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, .75f, true);
+        this.generating = new HashMap<>();
+
+        directory.mkdirs();
+        clearDirectory();
+    }
+
+    /**
+     * Fetch the export from the cache, generating & caching it if necessary.
+     *
+     * @param networkId
+     * @param criteria
+     * @param config    the project config, used to resolve the header template
+     * @param format
+     * @param generator called to write the export on a cache miss
+     * @return a new link to (or copy of) the cached export. The caller is responsible for deleting the file
+     * @throws IOException
+     */
+    public File get(int networkId, FastaExportCriteria criteria, Config config, FastaStreamWriter.Format format,
+                    ExportGenerator generator) throws IOException {
+        String key = key(networkId, criteria, config, format);
+
+        while (true) {
+            CompletableFuture<Void> inProgress;
+
+            synchronized (this) {
+                Entry entry = entries.get(key);
+
+                if (entry != null) {
+                    if (entry.file.exists()) return link(entry.file, format);
+                    // the file was removed out from under us, treat as a miss
+                    remove(key);
+                }
+
+                inProgress = generating.get(key);
+                if (inProgress == null) {
+                    generating.put(key, new CompletableFuture<>());
+                    break;
+                }
+            }
+
+            // another request is generating the same export. Once complete, the export is normally cached, otherwise
+            // this request will generate it
+            inProgress.join();
+        }
+
+        try {
+            return generate(networkId, criteria, config, format, generator, key);
+        } finally {
+            synchronized (this) {
+                generating.remove(key).complete(null);
+            }
+        }
+    }
+
+    private File generate(int networkId, FastaExportCriteria criteria, Config config, FastaStreamWriter.Format format,
+                          ExportGenerator generator, String key) throws IOException {
+        // generate outside of the lock, so other exports are not blocked
+        File tmp = File.createTempFile("export", ".tmp", directory);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            generator.write(os);
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        // the dataset may have been re-uploaded while the export was generated. If so, the export is still
+        // returned, but is not cached under the new versions
+        boolean current = key.equals(key(networkId, criteria, config, format));
+
+        synchronized (this) {
+            File file = new File(directory, key);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            File link = link(file, format);
+            if (current) {
+                entries.put(key, new Entry(file, file.length(), criteria));
+                totalBytes += file.length();
+                evict();
+            } else {
+                file.delete();
+            }
+
+            return link;
+        }
+    }
+
+    @Override
+    public void onSave(int networkId, Dataset dataset) {
+        Set<ExpeditionKey> saved = new HashSet<>();
+        Map<Integer, Set<String>> savedByProject = new HashMap<>();
+        for (RecordSet recordSet : dataset) {
+            saved.add(new ExpeditionKey(recordSet.projectId(), recordSet.expeditionCode()));
+            if (recordSet.expeditionCode() != null) {
+                savedByProject.computeIfAbsent(recordSet.projectId(), k -> new HashSet<>()).add(recordSet.expeditionCode());
+            }
+        }
+
+        // so exports cached by other servers are no longer used
+        savedByProject.forEach(fastaRepository::incrementExportVersions);
+
+        // the saved expeditions now have new versions, so these entries can no longer be reached
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getValue().dependsOn(saved)) {
+                    totalBytes -= e.getValue().size;
+                    e.getValue().file.delete();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    private void clearDirectory() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        int count = 0;
+        for (File file : files) {
+            if (file.isFile() && file.delete()) count++;
+        }
+
+        if (count > 0) logger.info("Removed " + count + " files from the fasta export cache directory");
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        // always keep the most recent entry, even if it is larger than maxBytes
+        while (totalBytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            totalBytes -= entry.size;
+            entry.file.delete();
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * link to the cached file so it can be handed off to the caller. If hard links are not supported, the file is copied
+     */
+    private File link(File file, FastaStreamWriter.Format format) throws IOException {
+        File link = File.createTempFile("fasta-export", "." + format.extension());
+        link.delete();
+
+        try {
+            Files.createLink(link.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.debug("failed to create hard link to cached export, copying instead", e);
+            Files.copy(file.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return link;
+    }
+
+    /**
+     * hash of the normalized criteria, header template & the export versions of the contributing expeditions
+     */
+    private String key(int networkId, FastaExportCriteria criteria, Config config, FastaStreamWriter.Format format) {
+        Entity entity = config.entity(criteria.conceptAlias());
+
+        StringBuilder sb = new StringBuilder()
+                .append(networkId).append('\0')
+                .append(criteria.projectId()).append('\0')
+                .append(criteria.conceptAlias()).append('\0')
+                .append(format.name()).append('\0')
+                .append(criteria.publicExpeditionsOnly()).append('\0')
+                .append("t:").append(FastaHeaderTemplate.template(entity, config)).append('\0');
+
+        for (String marker : criteria.markers()) {
+            sb.append("m:").append(marker).append('\0');
+        }
+
+        for (String expeditionCode : criteria.expeditionCodes()) {
+            sb.append("x:").append(expeditionCode).append('\0');
+        }
+
+        // if the criteria does not specify any expeditions, this includes all expeditions in the project, so adding or
+        // removing an expedition also changes the key
+        for (Map.Entry<String, Long> e : fastaRepository.getExportVersions(criteria).entrySet()) {
+            sb.append("e:").append(e.getKey()).append('@').append(e.getValue()).append('\0');
+        }
+
+        return sha256(sb.toString());
+    }
+
+    private static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final File file;
+        private final long size;
+        private final FastaExportCriteria criteria;
+
+        private Entry(File file, long size, FastaExportCriteria criteria) {
+            this.file = file;
+            this.size = size;
+            this.criteria = criteria;
+        }
+
+        private boolean dependsOn(Set<ExpeditionKey> expeditions) {
+            for (ExpeditionKey k : expeditions) {
+                if (k.projectId == criteria.projectId() &&
+                        (criteria.expeditionCodes().isEmpty() || criteria.expeditionCodes().contains(k.expeditionCode))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ExpeditionKey {
+        private final int projectId;
+        private final String expeditionCode;
+
+        private ExpeditionKey(int projectId, String expeditionCode) {
+            this.projectId = projectId;
+            this.expeditionCode = expeditionCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ExpeditionKey)) return false;
+            ExpeditionKey that = (ExpeditionKey) o;
+            return projectId == that.projectId &&
+                    Objects.equals(expeditionCode, that.expeditionCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectId, expeditionCode);
+        }
+    }
+}
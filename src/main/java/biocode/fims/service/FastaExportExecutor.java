@@ -0,0 +1,39 @@
+package biocode.fims.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared pool used to write the shards of parallel fasta exports.
+ * <p>
+ * Each running shard holds a db connection for the duration of the shard, so the pool is shared by all exports & its
+ * size is bounded by the number of db connections exports may use. This should be less then the size of the DataSource
+ * connection pool, leaving connections for other requests. Shards of concurrent exports wait in the queue.
+ *
+ * @author rjewing
+ */
+public class FastaExportExecutor {
+    private final ExecutorService executor;
+    private final int threads;
+
+    /**
+     * @param parallelism      the desired number of shards to write concurrently
+     * @param maxDbConnections the max number of db connections exports may hold at once
+     */
+    public FastaExportExecutor(int parallelism, int maxDbConnections) {
+        this.threads = Math.max(1, Math.min(parallelism, maxDbConnections));
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
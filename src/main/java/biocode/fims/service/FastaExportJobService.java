@@ -0,0 +1,188 @@
+package biocode.fims.service;
+
+import biocode.fims.exceptions.FastaWriteCode;
+import biocode.fims.fasta.FastaExportJob;
+import biocode.fims.fasta.FastaStreamWriter;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Runs fasta exports in the background, so large exports are not tied to a single http request.
+ * <p>
+ * Jobs are run on a bounded pool, w/ a bounded queue of waiting jobs. Each job reports the number of records & bytes
+ * written as it runs, and may be cancelled at any time. Finished exports are kept for {@link #DEFAULT_EXPIRATION} so they
+ * can be downloaded (and resumed) by the client, and are removed by a scheduled task once expired.
+ * <p>
+ * Jobs are only tracked in memory, so any files left in the directory from a previous run are removed on startup.
+ *
+ * @author rjewing
+ */
+public class FastaExportJobService {
+    private final static Logger logger = LoggerFactory.getLogger(FastaExportJobService.class);
+
+    public static final int DEFAULT_MAX_QUEUED = 20;
+    public static final long DEFAULT_EXPIRATION = 24 * 60 * 60 * 1000; // 24 hrs
+    private static final long ONE_HOUR = 60 * 60 * 1000;
+
+    private final File directory;
+    private final long expiration;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, FastaExportJob> jobs;
+
+    public FastaExportJobService(File directory, int parallelism) {
+        this(directory, parallelism, DEFAULT_MAX_QUEUED, DEFAULT_EXPIRATION);
+    }
+
+    public FastaExportJobService(File directory, int parallelism, int maxQueued, long expiration) {
+        this.directory = directory;
+        this.expiration = expiration;
+        this.executor = new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued)
+        );
+        this.jobs = new ConcurrentHashMap<>();
+
+        directory.mkdirs();
+        clearDirectory();
+    }
+
+    /**
+     * queue a new export job
+     *
+     * @param writer    the writer to export
+     * @param format
+     * @param user      the user creating the job, may be null
+     * @param projectId
+     * @return
+     */
+    public FastaExportJob submit(FastaStreamWriter writer, FastaStreamWriter.Format format, User user, int projectId) {
+        removeExpired();
+
+        String id = UUID.randomUUID().toString();
+        File file = new File(directory, id + "." + format.extension());
+        FastaExportJob job = new FastaExportJob(id, user == null ? null : user.getUsername(), projectId, format, file);
+
+        try {
+            job.setFuture(executor.submit(() -> run(job, writer)));
+        } catch (RejectedExecutionException e) {
+            throw new FimsRuntimeException(FastaWriteCode.TOO_MANY_EXPORT_JOBS, 503);
+        }
+
+        jobs.put(id, job);
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job, or null if no job exists w/ the given id
+     */
+    public FastaExportJob get(String id) {
+        removeExpired();
+        return jobs.get(id);
+    }
+
+    /**
+     * @param id
+     * @return the cancelled job, or null if no job exists w/ the given id
+     */
+    public FastaExportJob cancel(String id) {
+        FastaExportJob job = jobs.get(id);
+        if (job != null) {
+            job.cancel();
+            // free the queue slot of a cancelled queued job
+            executor.purge();
+        }
+        return job;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(FastaExportJob job, FastaStreamWriter writer) {
+        if (job.isCancelRequested() || !job.running()) {
+            job.cancelled();
+            return;
+        }
+
+        try (OutputStream os = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(job.file())), job)) {
+            writer.write(os, job.format(), () -> {
+                if (job.isCancelRequested()) throw new CancellationException();
+                job.recordWritten();
+            });
+        } catch (CancellationException e) {
+            job.file().delete();
+            job.cancelled();
+            return;
+        } catch (Exception e) {
+            logger.error("fasta export job " + job.id() + " failed", e);
+            job.file().delete();
+            job.failed("Export failed");
+            return;
+        }
+
+        job.complete();
+    }
+
+    /**
+     * remove finished jobs, and their files, once they have expired
+     */
+    @Scheduled(initialDelay = ONE_HOUR, fixedDelay = ONE_HOUR)
+    public void removeExpired() {
+        long cutoff = System.currentTimeMillis() - expiration;
+
+        Iterator<FastaExportJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            FastaExportJob job = it.next();
+            if (job.status().isDone() && job.completed() != null && job.completed().getTime() < cutoff) {
+                job.file().delete();
+                it.remove();
+            }
+        }
+    }
+
+    private void clearDirectory() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        int count = 0;
+        for (File file : files) {
+            if (file.isFile() && file.delete()) count++;
+        }
+
+        if (count > 0) logger.info("Removed " + count + " files from the fasta export job directory");
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final FastaExportJob job;
+
+        private CountingOutputStream(OutputStream out, FastaExportJob job) {
+            super(out);
+            this.job = job;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            job.bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            job.bytesWritten(len);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.models.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Backfills the sequence hash of fasta records stored before the hash was stored w/ the record (see
+ * {@link FastaRepository#backfillSequenceHashes}), so they are found as duplicates of uploaded sequences.
+ * <p>
+ * This is an explicit startup/admin task & is not run when datasets are saved. Each entity table is locked while it is
+ * backfilled, so this should be run once at application startup or during maintenance. Tables which have already been
+ * backfilled are skipped, so it is safe to run on every startup.
+ *
+ * @author rjewing
+ */
+public class FastaSequenceHashMigration {
+    private static final Logger logger = LoggerFactory.getLogger(FastaSequenceHashMigration.class);
+
+    private final FastaRepository fastaRepository;
+    private final ProjectService projectService;
+
+    public FastaSequenceHashMigration(FastaRepository fastaRepository, ProjectService projectService) {
+        this.fastaRepository = fastaRepository;
+        this.projectService = projectService;
+    }
+
+    /**
+     * backfill the sequence hashes for every fasta entity table
+     */
+    public void run() {
+        // networkId:conceptAlias
+        Set<String> tables = new LinkedHashSet<>();
+
+        for (Project project : projectService.getProjects()) {
+            int networkId = project.getNetwork().getId();
+
+            for (Entity entity : project.getProjectConfig().entities()) {
+                if (!(entity instanceof FastaEntity)) continue;
+                if (!tables.add(networkId + ":" + entity.getConceptAlias())) continue;
+
+                try {
+                    fastaRepository.backfillSequenceHashes(networkId, entity.getConceptAlias());
+                } catch (Exception e) {
+                    logger.error("Failed to backfill sequence hashes for " + entity.getConceptAlias() + " in network " +
+                            networkId, e);
+                }
+            }
+        }
+    }
+}
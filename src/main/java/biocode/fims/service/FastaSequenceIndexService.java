@@ -0,0 +1,288 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.fasta.index.KmerIndex;
+import biocode.fims.fasta.index.KmerSearchHit;
+import biocode.fims.fimsExceptions.ServerErrorException;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import biocode.fims.run.DatasetAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Maintains a {@link KmerIndex} of the stored fasta sequences for each network, fasta entity & marker.
+ * <p>
+ * Indexes are loaded from the db the first time they are searched, and are updated incrementally as fasta datasets are
+ * saved. Datasets saved while an index is loading are applied once the load completes. The least recently searched
+ * indexes are evicted once the estimated size of the loaded indexes exceeds maxBytes.
+ *
+ * @author rjewing
+ */
+public class FastaSequenceIndexService implements DatasetAction {
+    private final static Logger logger = LoggerFactory.getLogger(FastaSequenceIndexService.class);
+
+    public static final int DEFAULT_K = 11;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024; // 1 Gb
+
+    private final FastaRepository fastaRepository;
+    private final int k;
+    private final long maxBytes;
+    // access ordered, guarded by itself
+    private final LinkedHashMap<IndexKey, IndexHolder> indexes;
+
+    public FastaSequenceIndexService(FastaRepository fastaRepository) {
+        this(fastaRepository, DEFAULT_K);
+    }
+
+    public FastaSequenceIndexService(FastaRepository fastaRepository, int k) {
+        this(fastaRepository, k, DEFAULT_MAX_BYTES);
+    }
+
+    public FastaSequenceIndexService(FastaRepository fastaRepository, int k, long maxBytes) {
+        this.fastaRepository = fastaRepository;
+        this.k = k;
+        this.maxBytes = maxBytes;
+        this.indexes = new LinkedHashMap<>(16, .75f, true);
+    }
+
+    /**
+     * @param networkId
+     * @param conceptAlias the fasta entity to search
+     * @param marker
+     * @param sequence     the query sequence
+     * @param projectIds   only return hits belonging to these projects
+     * @param limit        the max number of hits to return
+     * @return hits ranked by the number of k-mers shared with the query sequence
+     */
+    public List<KmerSearchHit> search(int networkId, String conceptAlias, String marker, String sequence,
+                                      Set<Integer> projectIds, int limit) {
+        return search(networkId, conceptAlias, marker, sequence, projectIds, null, limit);
+    }
+
+    /**
+     * @param networkId
+     * @param conceptAlias    the fasta entity to search
+     * @param marker
+     * @param sequence        the query sequence
+     * @param projectIds      only return hits belonging to these projects
+     * @param expeditionCodes if not null, only return hits belonging to these expeditions
+     * @param limit           the max number of hits to return
+     * @return hits ranked by the number of k-mers shared with the query sequence
+     */
+    public List<KmerSearchHit> search(int networkId, String conceptAlias, String marker, String sequence,
+                                      Set<Integer> projectIds, Set<String> expeditionCodes, int limit) {
+        return getIndex(new IndexKey(networkId, conceptAlias, marker)).search(sequence, projectIds, expeditionCodes, 1, limit);
+    }
+
+    @Override
+    public void onSave(int networkId, Dataset dataset) {
+        for (RecordSet recordSet : dataset) {
+            if (!(recordSet.entity() instanceof FastaEntity)) continue;
+
+            String conceptAlias = recordSet.conceptAlias();
+
+            // only update indexes which have been loaded or are loading, the others will be loaded w/ the new data
+            // when first searched
+            Map<IndexKey, IndexHolder> holders = new HashMap<>();
+            synchronized (indexes) {
+                for (Map.Entry<IndexKey, IndexHolder> e : indexes.entrySet()) {
+                    IndexKey key = e.getKey();
+                    if (key.networkId == networkId && Objects.equals(key.conceptAlias, conceptAlias)) {
+                        holders.put(key, e.getValue());
+                    }
+                }
+            }
+
+            for (Map.Entry<IndexKey, IndexHolder> e : holders.entrySet()) {
+                String marker = e.getKey().marker;
+                boolean reload = recordSet.reload();
+                int projectId = recordSet.projectId();
+                String expeditionCode = recordSet.expeditionCode();
+
+                List<Record> records = new ArrayList<>();
+                for (Record r : recordSet.recordsToPersist()) {
+                    if (Objects.equals(marker, r.get(FastaProps.MARKER.uri()))) records.add(r);
+                }
+
+                e.getValue().update(index -> {
+                    if (reload) index.removeExpedition(projectId, expeditionCode);
+
+                    for (Record r : records) {
+                        String sequence = r.get(FastaProps.SEQUENCE.uri());
+                        String identifier = r.get(FastaProps.IDENTIFIER.uri());
+
+                        if (sequence == null || sequence.isEmpty()) {
+                            index.remove(projectId, expeditionCode, identifier);
+                        } else {
+                            index.add(projectId, expeditionCode, identifier, sequence);
+                        }
+                    }
+                });
+            }
+        }
+
+        evict();
+    }
+
+    private KmerIndex getIndex(IndexKey key) {
+        IndexHolder holder;
+        boolean load = false;
+
+        synchronized (indexes) {
+            holder = indexes.get(key);
+            if (holder == null) {
+                holder = new IndexHolder();
+                indexes.put(key, holder);
+                load = true;
+            }
+        }
+
+        // load outside of the lock, so searches of other indexes aren't blocked
+        if (load) {
+            loadIndex(key, holder);
+            evict();
+        }
+
+        return holder.get();
+    }
+
+    private void loadIndex(IndexKey key, IndexHolder holder) {
+        long start = System.currentTimeMillis();
+        KmerIndex index = new KmerIndex(k);
+
+        try {
+            fastaRepository.streamSequences(key.networkId, key.conceptAlias, key.marker,
+                    (projectId, expeditionCode, identifier, marker, sequence) -> {
+                        if (sequence != null) index.add(projectId, expeditionCode, identifier, sequence);
+                    });
+        } catch (RuntimeException e) {
+            synchronized (indexes) {
+                indexes.remove(key, holder);
+            }
+            holder.failed(e);
+            throw e;
+        }
+
+        holder.loaded(index);
+
+        logger.info("Loaded " + index.size() + " " + key.marker + " sequences into the kmer index for network " +
+                key.networkId + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * evict the least recently used indexes until the loaded indexes fit in maxBytes. The most recently used index is
+     * always kept.
+     */
+    private void evict() {
+        synchronized (indexes) {
+            Map<IndexKey, Long> sizes = new LinkedHashMap<>();
+            long total = 0;
+
+            for (Map.Entry<IndexKey, IndexHolder> e : indexes.entrySet()) {
+                KmerIndex index = e.getValue().getNow();
+                if (index == null) continue;
+
+                long size = index.bytesEstimate();
+                sizes.put(e.getKey(), size);
+                total += size;
+            }
+
+            Iterator<Map.Entry<IndexKey, Long>> it = sizes.entrySet().iterator();
+            while (total > maxBytes && it.hasNext()) {
+                Map.Entry<IndexKey, Long> e = it.next();
+                // keep the most recently used
+                if (!it.hasNext()) break;
+
+                indexes.remove(e.getKey());
+                total -= e.getValue();
+                logger.info("Evicted " + e.getKey().marker + " kmer index for network " + e.getKey().networkId);
+            }
+        }
+    }
+
+    /**
+     * Holds the index for a key. Updates received while the index is loading are queued & applied once it is loaded.
+     */
+    private static class IndexHolder {
+        private final CompletableFuture<KmerIndex> future = new CompletableFuture<>();
+        // null once loaded
+        private List<Consumer<KmerIndex>> pending = new ArrayList<>();
+
+        private void update(Consumer<KmerIndex> update) {
+            synchronized (this) {
+                if (pending != null) {
+                    pending.add(update);
+                    return;
+                }
+            }
+            update.accept(future.join());
+        }
+
+        private void loaded(KmerIndex index) {
+            synchronized (this) {
+                // the db rows may have been read before these updates were committed, so apply them in order
+                for (Consumer<KmerIndex> update : pending) {
+                    update.accept(index);
+                }
+                pending = null;
+            }
+            future.complete(index);
+        }
+
+        private void failed(RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        private KmerIndex getNow() {
+            return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+        }
+
+        private KmerIndex get() {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new ServerErrorException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerErrorException(e);
+            }
+        }
+    }
+
+    private static class IndexKey {
+        private final int networkId;
+        private final String conceptAlias;
+        private final String marker;
+
+        private IndexKey(int networkId, String conceptAlias, String marker) {
+            this.networkId = networkId;
+            this.conceptAlias = conceptAlias;
+            this.marker = marker;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof IndexKey)) return false;
+            IndexKey that = (IndexKey) o;
+            return networkId == that.networkId &&
+                    Objects.equals(conceptAlias, that.conceptAlias) &&
+                    Objects.equals(marker, that.marker);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(networkId, conceptAlias, marker);
+        }
+    }
+}
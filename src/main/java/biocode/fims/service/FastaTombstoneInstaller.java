@@ -0,0 +1,70 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaRepository;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import biocode.fims.run.DatasetAction;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Installs the fasta tombstone trigger (see {@link FastaRepository#installTombstones}) on each fasta entity table the
+ * first time a fasta dataset is saved to it, so deletions are recorded for the change feed w/o a manual step when fasta
+ * entities are added to a network.
+ * <p>
+ * The trigger is installed after the first save, so deletions made by that save are not recorded. Entity tables
+ * containing data before this action was registered should be installed manually:
+ * <p>
+ * SELECT fasta_install_tombstone_trigger(networkId, 'conceptAlias');
+ *
+ * @author rjewing
+ */
+public class FastaTombstoneInstaller implements DatasetAction {
+    private final FastaRepository fastaRepository;
+    private final Set<TableKey> installed;
+
+    public FastaTombstoneInstaller(FastaRepository fastaRepository) {
+        this.fastaRepository = fastaRepository;
+        this.installed = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void onSave(int networkId, Dataset dataset) {
+        for (RecordSet recordSet : dataset) {
+            if (!(recordSet.entity() instanceof FastaEntity)) continue;
+
+            TableKey key = new TableKey(networkId, recordSet.conceptAlias());
+            if (installed.contains(key)) continue;
+
+            fastaRepository.installTombstones(networkId, recordSet.conceptAlias());
+            installed.add(key);
+        }
+    }
+
+    private static class TableKey {
+        private final int networkId;
+        private final String conceptAlias;
+
+        private TableKey(int networkId, String conceptAlias) {
+            this.networkId = networkId;
+            this.conceptAlias = conceptAlias;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TableKey)) return false;
+            TableKey that = (TableKey) o;
+            return networkId == that.networkId &&
+                    Objects.equals(conceptAlias, that.conceptAlias);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(networkId, conceptAlias);
+        }
+    }
+}
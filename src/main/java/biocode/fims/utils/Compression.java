@@ -0,0 +1,110 @@
+package biocode.fims.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression formats supported for uploaded sequence files.
+ *
+ * @author rjewing
+ */
+public enum Compression {
+    NONE, GZIP, BZIP2, ZSTD;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Detect the compression format of the file by inspecting the leading magic bytes.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Compression detect(File file) throws IOException {
+        byte[] magic = new byte[4];
+        int read = 0;
+
+        try (InputStream is = new FileInputStream(file)) {
+            int n;
+            while (read < magic.length && (n = is.read(magic, read, magic.length - read)) > 0) {
+                read += n;
+            }
+        }
+
+        return detect(magic, read);
+    }
+
+    static Compression detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return GZIP;
+        } else if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+            return BZIP2;
+        } else if (length >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5
+                && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Determine the compression format from the filename extension
+     *
+     * @param ext the file extension, without the leading '.'
+     * @return
+     */
+    public static Compression fromExtension(String ext) {
+        if (ext == null) return NONE;
+
+        switch (ext.toLowerCase()) {
+            case "gz":
+            case "gzip":
+                return GZIP;
+            case "bz2":
+                return BZIP2;
+            case "zst":
+                return ZSTD;
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Open a stream which decompresses the file contents as they are read. No decompressed copy of the file is written to disk.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static InputStream openDecompressed(File file) throws IOException {
+        return detect(file).decompress(new FileInputStream(file));
+    }
+
+    /**
+     * Wrap the stream with a decompressing stream for this compression format.
+     *
+     * @param is
+     * @return
+     * @throws IOException
+     */
+    public InputStream decompress(InputStream is) throws IOException {
+        try {
+            switch (this) {
+                case GZIP:
+                    // GZIPInputStream will read concatenated gzip members (ex. bgzip files)
+                    return new GZIPInputStream(is, BUFFER_SIZE);
+                case BZIP2:
+                    return new BZip2CompressorInputStream(new BufferedInputStream(is, BUFFER_SIZE), true);
+                case ZSTD:
+                    return new ZstdCompressorInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+                default:
+                    return is;
+            }
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+}
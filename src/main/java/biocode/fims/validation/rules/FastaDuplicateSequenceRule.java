@@ -0,0 +1,109 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.SequenceHasher;
+import biocode.fims.fasta.index.LongIntHashMap;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import biocode.fims.validation.messages.Message;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks for identical sequences for the same marker, both within the uploaded records and against sequences
+ * previously uploaded to the project.
+ * <p>
+ * Sequences are compared using the {@link SequenceHasher} hash calculated when the record was parsed, so case, 'U'/'T'
+ * and gap differences are ignored. Duplicates of stored sequences are detected by the FastaConverter.
+ *
+ * @author rjewing
+ */
+public class FastaDuplicateSequenceRule extends AbstractRule {
+    private static final String NAME = "UniqueFastaSequence";
+    private static final String GROUP_MESSAGE = "Duplicate sequences";
+
+    public FastaDuplicateSequenceRule() {
+        super(RuleLevel.WARNING);
+    }
+
+    public FastaDuplicateSequenceRule(RuleLevel level) {
+        super(level);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean run(RecordSet recordSet, EntityMessages messages) {
+        Assert.notNull(recordSet);
+
+        String idKey = FastaProps.IDENTIFIER.uri();
+        List<Record> records = recordSet.recordsToPersist();
+
+        // marker -> (sequence hash -> index of first record)
+        Map<String, LongIntHashMap> hashesByMarker = new HashMap<>();
+
+        boolean isValid = true;
+
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+
+            String message = null;
+            if (r instanceof FastaRecord && ((FastaRecord) r).duplicateOfIdentifier() != null) {
+                FastaRecord fastaRecord = (FastaRecord) r;
+                message = "\"" + r.get(idKey) + "\" has the same sequence as the existing record \"" +
+                        fastaRecord.duplicateOfIdentifier() + "\" in expedition \"" + fastaRecord.duplicateOfExpedition() + "\"";
+            } else {
+                long hash = sequenceHash(r);
+
+                if (hash != 0) {
+                    int first = hashesByMarker
+                            .computeIfAbsent(r.get(FastaProps.MARKER.uri()), k -> new LongIntHashMap())
+                            .putIfAbsent(hash, i);
+
+                    if (first != LongIntHashMap.NO_VALUE) {
+                        message = "\"" + r.get(idKey) + "\" has the same sequence as \"" + records.get(first).get(idKey) + "\"";
+                    }
+                }
+            }
+
+            if (message != null) {
+                isValid = false;
+                if (level().equals(RuleLevel.ERROR)) r.setError();
+                messages.addMessage(GROUP_MESSAGE, new Message(message), level());
+            }
+        }
+
+        if (!isValid) setError();
+
+        return isValid;
+    }
+
+    @Override
+    public boolean validConfiguration(List<String> messages, Entity entity) {
+        return true;
+    }
+
+    /**
+     * @return the sequence hash, or 0 if the record has no sequence
+     */
+    private long sequenceHash(Record record) {
+        if (record instanceof FastaRecord) {
+            FastaRecord fastaRecord = (FastaRecord) record;
+            return fastaRecord.packedSequence() == null || fastaRecord.packedSequence().length() == 0
+                    ? 0
+                    : fastaRecord.sequenceHash();
+        }
+
+        String sequence = record.get(FastaProps.SEQUENCE.uri());
+        return sequence == null || sequence.isEmpty() ? 0 : SequenceHasher.hash(sequence);
+    }
+}
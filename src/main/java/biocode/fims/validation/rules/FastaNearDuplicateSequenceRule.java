@@ -0,0 +1,241 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.index.Kmers;
+import biocode.fims.fasta.index.LongIntHashMap;
+import biocode.fims.fasta.index.MinHash;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import biocode.fims.validation.messages.Message;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Warns when sequences of the same marker belonging to different parent records are near-identical, which usually
+ * indicates a plate swap or contamination.
+ * <p>
+ * A MinHash sketch of the k-mers of each sequence is created, and the sketches are split into bands. Only records which
+ * share an identical band (locality-sensitive hashing) are compared. Conspecific sequences of a marker often share a
+ * band, so the records in each band bucket are sorted by their full sketch & each record is only compared to the next
+ * window records. This bounds the comparisons to records * bands * window, instead of growing quadratically w/ the
+ * bucket size. Candidate pairs whose estimated k-mer similarity is >= threshold are reported.
+ * <p>
+ * Exact duplicates are reported by the {@link FastaDuplicateSequenceRule} and are ignored here.
+ * <p>
+ * This rule is not added by default.
+ *
+ * @author rjewing
+ */
+public class FastaNearDuplicateSequenceRule extends AbstractRule {
+    private static final String NAME = "FastaNearDuplicateSequence";
+    private static final String GROUP_MESSAGE = "Possible sample contamination";
+    private static final int PARALLEL_THRESHOLD = 1000;
+
+    @JsonProperty
+    private int k = 16;
+    @JsonProperty
+    private int numHashes = 128;
+    @JsonProperty
+    private int bands = 32;
+    @JsonProperty
+    private double threshold = .9;
+    @JsonProperty
+    private int window = 8;
+
+    public FastaNearDuplicateSequenceRule() {
+        super(RuleLevel.WARNING);
+    }
+
+    public FastaNearDuplicateSequenceRule(int k, int numHashes, int bands, double threshold, RuleLevel level) {
+        this(k, numHashes, bands, threshold, 8, level);
+    }
+
+    /**
+     * @param window the max number of records each record is compared to in a band bucket
+     */
+    public FastaNearDuplicateSequenceRule(int k, int numHashes, int bands, double threshold, int window, RuleLevel level) {
+        super(level);
+        this.k = k;
+        this.numHashes = numHashes;
+        this.bands = bands;
+        this.threshold = threshold;
+        this.window = window;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean run(RecordSet recordSet, EntityMessages messages) {
+        Assert.notNull(recordSet);
+
+        String idKey = FastaProps.IDENTIFIER.uri();
+        String parentKey = recordSet.parent() == null ? null : recordSet.parent().entity().getUniqueKeyURI();
+
+        // compare against all records in the expedition, but only report pairs including a new record
+        List<Record> records = recordSet.records();
+        Set<Record> toPersist = Collections.newSetFromMap(new IdentityHashMap<>());
+        toPersist.addAll(recordSet.recordsToPersist());
+
+        if (toPersist.isEmpty()) return true;
+
+        MinHash minHash = new MinHash(k, numHashes);
+        long[][] sketches = new long[records.size()][];
+
+        IntStream indexes = IntStream.range(0, records.size());
+        if (records.size() >= PARALLEL_THRESHOLD) indexes = indexes.parallel();
+        indexes.forEach(i -> {
+            String sequence = records.get(i).get(FastaProps.SEQUENCE.uri());
+            if (sequence != null) sketches[i] = minHash.sketch(sequence);
+        });
+
+        int rows = numHashes / bands;
+        // packed (i, j) pairs which have been compared. values are unused
+        LongIntHashMap compared = new LongIntHashMap();
+        Comparator<Integer> bySketch = (i, j) -> compare(sketches[i], sketches[j]);
+        boolean isValid = true;
+
+        for (int band = 0; band < bands; band++) {
+            Map<BandKey, List<Integer>> buckets = new HashMap<>();
+
+            for (int i = 0; i < records.size(); i++) {
+                if (sketches[i] == null) continue;
+
+                BandKey key = new BandKey(records.get(i).get(FastaProps.MARKER.uri()), sketches[i], band * rows, rows);
+                buckets.computeIfAbsent(key, b -> new ArrayList<>()).add(i);
+            }
+
+            for (List<Integer> bucket : buckets.values()) {
+                // similar sketches sort near each other
+                if (bucket.size() > window + 1) bucket.sort(bySketch);
+
+                for (int x = 0; x < bucket.size(); x++) {
+                    for (int y = x + 1; y < bucket.size() && y <= x + window; y++) {
+                        int i = Math.min(bucket.get(x), bucket.get(y));
+                        int j = Math.max(bucket.get(x), bucket.get(y));
+
+                        if (compared.putIfAbsent(((long) i << 32) | j, 0) != LongIntHashMap.NO_VALUE) continue;
+
+                        Record a = records.get(i);
+                        Record b = records.get(j);
+
+                        if (!toPersist.contains(a) && !toPersist.contains(b)) continue;
+                        if (parentKey != null && Objects.equals(a.get(parentKey), b.get(parentKey))) continue;
+                        if (isExactDuplicate(a, b)) continue;
+
+                        double similarity = MinHash.similarity(sketches[i], sketches[j]);
+                        if (similarity < threshold) continue;
+
+                        isValid = false;
+                        messages.addMessage(
+                                GROUP_MESSAGE,
+                                new Message(
+                                        "\"" + a.get(idKey) + "\" and \"" + b.get(idKey) + "\" " +
+                                                (parentKey == null ? "" : "belong to different samples but ") +
+                                                "share ~" + Math.round(similarity * 100) + "% of " + k + "-mers"
+                                ),
+                                level()
+                        );
+                        if (level().equals(RuleLevel.ERROR)) {
+                            a.setError();
+                            b.setError();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!isValid) setError();
+
+        return isValid;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = Long.compare(a[i], b[i]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private boolean isExactDuplicate(Record a, Record b) {
+        if (a instanceof FastaRecord && b instanceof FastaRecord) {
+            return ((FastaRecord) a).sequenceHash() == ((FastaRecord) b).sequenceHash();
+        }
+        return Objects.equals(a.get(FastaProps.SEQUENCE.uri()), b.get(FastaProps.SEQUENCE.uri()));
+    }
+
+    @Override
+    public boolean validConfiguration(List<String> messages, Entity entity) {
+        boolean isValid = true;
+
+        if (k < 1 || k > Kmers.MAX_K) {
+            messages.add("Invalid " + NAME + " Rule configuration. k must be between 1 and " + Kmers.MAX_K);
+            isValid = false;
+        }
+
+        if (numHashes < 1 || bands < 1 || numHashes % bands != 0) {
+            messages.add("Invalid " + NAME + " Rule configuration. numHashes must be a positive multiple of bands");
+            isValid = false;
+        }
+
+        if (threshold < 0 || threshold > 1) {
+            messages.add("Invalid " + NAME + " Rule configuration. threshold must be between 0 and 1");
+            isValid = false;
+        }
+
+        if (window < 1) {
+            messages.add("Invalid " + NAME + " Rule configuration. window must be greater then 0");
+            isValid = false;
+        }
+
+        return isValid;
+    }
+
+    private static class BandKey {
+        private final String marker;
+        private final long[] sketch;
+        private final int from;
+        private final int rows;
+        private final int hash;
+
+        private BandKey(String marker, long[] sketch, int from, int rows) {
+            this.marker = marker;
+            this.sketch = sketch;
+            this.from = from;
+            this.rows = rows;
+
+            int h = Objects.hashCode(marker);
+            for (int i = from; i < from + rows; i++) {
+                h = 31 * h + Long.hashCode(sketch[i]);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BandKey)) return false;
+            BandKey that = (BandKey) o;
+            if (hash != that.hash || !Objects.equals(marker, that.marker)) return false;
+
+            for (int i = 0; i < rows; i++) {
+                if (sketch[from + i] != that.sketch[that.from + i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.PackedSequence;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import biocode.fims.validation.messages.Message;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Checks that each sequence only contains IUPAC nucleotide codes (upper or lower case), 'U' or gaps ('-' and '.').
+ * <p>
+ * Sequences are scanned a single time using a 256 entry lookup table. Any invalid characters are reported at the rule
+ * level, and sequences with a fraction of ambiguous bases greater then maxAmbiguousFraction are reported as a warning.
+ * Records are scanned in parallel for large uploads.
+ *
+ * @author rjewing
+ */
+public class FastaSequenceAlphabetRule extends AbstractRule {
+    private static final String NAME = "ValidFastaSequenceAlphabet";
+    private static final String INVALID_GROUP_MESSAGE = "Invalid sequence characters";
+    private static final String AMBIGUOUS_GROUP_MESSAGE = "Ambiguous sequences";
+    private static final double DEFAULT_MAX_AMBIGUOUS_FRACTION = .05;
+    private static final int PARALLEL_THRESHOLD = 10000;
+
+    private static final byte INVALID = 0;
+    private static final byte BASE = 1;
+    private static final byte AMBIGUOUS = 2;
+    private static final byte GAP = 3;
+
+    private static final byte[] ALPHABET = new byte[256];
+
+    static {
+        for (char c : "ACGTU".toCharArray()) {
+            ALPHABET[c] = BASE;
+            ALPHABET[Character.toLowerCase(c)] = BASE;
+        }
+        for (char c : "RYSWKMBDHVN".toCharArray()) {
+            ALPHABET[c] = AMBIGUOUS;
+            ALPHABET[Character.toLowerCase(c)] = AMBIGUOUS;
+        }
+        ALPHABET['-'] = GAP;
+        ALPHABET['.'] = GAP;
+    }
+
+    @JsonProperty
+    private double maxAmbiguousFraction = DEFAULT_MAX_AMBIGUOUS_FRACTION;
+
+    public FastaSequenceAlphabetRule() {
+        super(RuleLevel.ERROR);
+    }
+
+    public FastaSequenceAlphabetRule(double maxAmbiguousFraction, RuleLevel level) {
+        super(level);
+        this.maxAmbiguousFraction = maxAmbiguousFraction;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean run(RecordSet recordSet, EntityMessages messages) {
+        Assert.notNull(recordSet);
+
+        String idKey = recordSet.parent() == null
+                ? FastaProps.IDENTIFIER.uri()
+                : recordSet.parent().entity().getUniqueKeyURI();
+
+        List<Record> records = recordSet.recordsToPersist();
+
+        IntStream indexes = IntStream.range(0, records.size());
+        if (records.size() >= PARALLEL_THRESHOLD) indexes = indexes.parallel();
+
+        ScanResult[] results = new ScanResult[records.size()];
+        indexes.forEach(i -> results[i] = scan(records.get(i)));
+
+        boolean isValid = true;
+
+        for (int i = 0; i < records.size(); i++) {
+            ScanResult result = results[i];
+            if (result == null) continue;
+
+            Record r = records.get(i);
+
+            if (result.invalidCount > 0) {
+                isValid = false;
+                if (level().equals(RuleLevel.ERROR)) r.setError();
+                messages.addMessage(
+                        INVALID_GROUP_MESSAGE,
+                        new Message(
+                                "\"" + r.get(idKey) + "\" contains " + result.invalidCount +
+                                        " invalid sequence character(s). The first invalid character is '" + result.firstInvalid + "'"
+                        ),
+                        level()
+                );
+            }
+
+            if (result.ambiguousFraction() > maxAmbiguousFraction) {
+                messages.addMessage(
+                        AMBIGUOUS_GROUP_MESSAGE,
+                        new Message(
+                                "\"" + r.get(idKey) + "\" has " + String.format("%.1f", result.ambiguousFraction() * 100) +
+                                        "% ambiguous bases"
+                        ),
+                        RuleLevel.WARNING
+                );
+            }
+        }
+
+        if (!isValid) setError();
+
+        return isValid;
+    }
+
+    /**
+     * @return null if the sequence contains only unambiguous bases
+     */
+    private ScanResult scan(Record record) {
+        // the packed encoding tells us if we have ACGT only w/o decoding the sequence
+        if (record instanceof FastaRecord) {
+            PackedSequence packed = ((FastaRecord) record).packedSequence();
+            if (packed != null && packed.encoding() == PackedSequence.Encoding.TWO_BIT) return null;
+        }
+
+        String sequence = record.get(FastaProps.SEQUENCE.uri());
+        if (sequence == null || sequence.isEmpty()) return null;
+
+        int invalid = 0;
+        int ambiguous = 0;
+        int bases = 0;
+        char firstInvalid = 0;
+
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            byte type = c < 256 ? ALPHABET[c] : INVALID;
+
+            switch (type) {
+                case BASE:
+                    bases++;
+                    break;
+                case AMBIGUOUS:
+                    bases++;
+                    ambiguous++;
+                    break;
+                case GAP:
+                    break;
+                default:
+                    if (invalid == 0) firstInvalid = c;
+                    invalid++;
+            }
+        }
+
+        if (invalid == 0 && ambiguous == 0) return null;
+        return new ScanResult(invalid, firstInvalid, ambiguous, bases);
+    }
+
+    @Override
+    public boolean validConfiguration(List<String> messages, Entity entity) {
+        if (maxAmbiguousFraction < 0 || maxAmbiguousFraction > 1) {
+            messages.add("Invalid " + NAME + " Rule configuration. maxAmbiguousFraction must be between 0 and 1");
+            return false;
+        }
+        return true;
+    }
+
+    private static class ScanResult {
+        private final int invalidCount;
+        private final char firstInvalid;
+        private final int ambiguousCount;
+        private final int baseCount;
+
+        private ScanResult(int invalidCount, char firstInvalid, int ambiguousCount, int baseCount) {
+            this.invalidCount = invalidCount;
+            this.firstInvalid = firstInvalid;
+            this.ambiguousCount = ambiguousCount;
+            this.baseCount = baseCount;
+        }
+
+        private double ambiguousFraction() {
+            return baseCount == 0 ? 0 : (double) ambiguousCount / baseCount;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package biocode.fims.validation.rules;
 
 import biocode.fims.config.models.Entity;
+import biocode.fims.fastq.FastqFilenameClassifier;
 import biocode.fims.fastq.FastqRecord;
 import biocode.fims.records.Record;
 import biocode.fims.records.RecordSet;
@@ -9,7 +10,6 @@ import biocode.fims.validation.messages.Message;
 import org.springframework.util.Assert;
 
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * @author rjewing
@@ -19,10 +19,6 @@ public class FastqFilenamesRule extends AbstractRule {
     private static final String MISSING_GROUP_MESSAGE = "Missing fastq filenames";
     private static final String INVALID_GROUP_MESSAGE = "Invalid fastq filenames";
 
-    private static final Pattern PAIRED_FILE1_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[1]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$");
-    private static final Pattern PAIRED_FILE2_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[2]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$");
-    private static final Pattern SINGLE_FILE_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$");
-
     public FastqFilenamesRule() {
         super(RuleLevel.ERROR);
     }
@@ -63,11 +59,13 @@ public class FastqFilenamesRule extends AbstractRule {
             boolean found1 = false;
             boolean found2 = false;
             for (String f : record.filenames()) {
-                if (isPaired && PAIRED_FILE1_PATTERN.matcher(f).matches()) {
+                FastqFilenameClassifier.Classification classification = FastqFilenameClassifier.classify(f);
+
+                if (isPaired && classification != null && classification.mate() == 1) {
                     found1 = true;
-                } else if (isPaired && PAIRED_FILE2_PATTERN.matcher(f).matches()) {
+                } else if (isPaired && classification != null && classification.mate() == 2) {
                     found2 = true;
-                } else if (isPaired || !isPaired && !SINGLE_FILE_PATTERN.matcher(f).matches()) {
+                } else if (isPaired || classification == null || classification.singleId() == null) {
                     isValid = false;
                     if (level().equals(RuleLevel.ERROR)) r.setError();
                     messages.addErrorMessage(
@@ -0,0 +1,12 @@
+-- Versions of each expedition, used to key the cached fasta exports.
+--
+-- The version is incremented by the FastaExportCache whenever any of the expedition's records are saved, so exports
+-- cached by any server are no longer used once the expedition is modified.
+--
+-- Executed by PostgresFastaRepository the first time the versions are read or written. The script is idempotent, so
+-- may also be run manually as a migration.
+
+CREATE TABLE IF NOT EXISTS fasta_export_versions (
+  expedition_id INTEGER PRIMARY KEY REFERENCES expeditions (id) ON DELETE CASCADE,
+  version BIGINT NOT NULL
+);
@@ -0,0 +1,52 @@
+-- Records deleted fasta entity rows for the fasta change feed.
+--
+-- Executed by PostgresFastaRepository.installTombstones, which FastaTombstoneInstaller calls the first time a fasta
+-- dataset is saved to each entity table. The script is idempotent, so may also be run manually as a migration.
+--
+-- The trigger must be installed on each fasta entity table. For tables which already contain data, install it manually
+-- before the data is modified, ex:
+--
+--   SELECT fasta_install_tombstone_trigger(1, 'fastaSequence');
+--
+-- Deletions which occur before the trigger is installed are not recorded.
+
+CREATE TABLE IF NOT EXISTS fasta_tombstones (
+  id SERIAL PRIMARY KEY,
+  network_id INTEGER NOT NULL,
+  concept_alias TEXT NOT NULL,
+  project_id INTEGER,
+  expedition_id INTEGER NOT NULL,
+  expedition_code TEXT,
+  local_identifier TEXT NOT NULL,
+  bcid TEXT,
+  marker TEXT,
+  deleted TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS fasta_tombstones_project_deleted_idx ON fasta_tombstones (project_id, deleted);
+
+CREATE OR REPLACE FUNCTION fasta_tombstone() RETURNS TRIGGER AS $$
+BEGIN
+  INSERT INTO fasta_tombstones (network_id, concept_alias, project_id, expedition_id, expedition_code, local_identifier, bcid, marker)
+  SELECT TG_ARGV[0]::INTEGER, TG_ARGV[1], e.project_id, OLD.expedition_id, e.expedition_code, OLD.local_identifier,
+    ei.identifier || OLD.local_identifier, OLD.data->>'marker'
+  FROM (SELECT OLD.expedition_id AS id) x
+  LEFT JOIN expeditions e ON e.id = x.id
+  LEFT JOIN entity_identifiers ei ON ei.expedition_id = x.id AND ei.concept_alias = TG_ARGV[1];
+  RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+-- installs the fasta_tombstone trigger on the entity table network_<networkId>.<conceptAlias>
+CREATE OR REPLACE FUNCTION fasta_install_tombstone_trigger(network_id INTEGER, concept_alias TEXT) RETURNS VOID AS $$
+DECLARE
+  entity_table TEXT := format('%I.%I', 'network_' || network_id, concept_alias);
+BEGIN
+  IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'fasta_tombstone_trigger' AND tgrelid = entity_table::regclass) THEN
+    EXECUTE format(
+      'CREATE TRIGGER fasta_tombstone_trigger AFTER DELETE ON %s FOR EACH ROW EXECUTE PROCEDURE fasta_tombstone(%L, %L)',
+      entity_table, network_id, concept_alias
+    );
+  END IF;
+END;
+$$ LANGUAGE plpgsql;
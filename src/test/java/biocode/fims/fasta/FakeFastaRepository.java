@@ -0,0 +1,236 @@
+package biocode.fims.fasta;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * In-memory {@link FastaRepository}. Only the methods needed by the tests are implemented.
+ *
+ * @author rjewing
+ */
+public class FakeFastaRepository implements FastaRepository {
+    private final List<Object[]> sequences = new ArrayList<>();
+    private final List<Row> records = new ArrayList<>();
+    private final List<FastaTombstone> deletions = new ArrayList<>();
+    private final Set<String> publicExpeditions = new HashSet<>();
+    private final Map<String, Long> exportVersions = new HashMap<>();
+    private Runnable onStream;
+    private int modified;
+    private Timestamp currentTimestamp;
+    public int streamCount;
+    public final List<String> installedTombstones = new ArrayList<>();
+    public final List<String> backfilledTables = new ArrayList<>();
+
+    public void addSequence(int projectId, String expeditionCode, String identifier, String marker, String sequence) {
+        sequences.add(new Object[]{projectId, expeditionCode, identifier, marker, sequence});
+    }
+
+    /**
+     * add a record returned by streamRecords
+     */
+    public void addRecord(int projectId, String expeditionCode, boolean publicExpedition, String bcid, String marker,
+                          String sequence) {
+        addRecord(projectId, expeditionCode, publicExpedition, bcid, marker, sequence, new Timestamp(++modified));
+    }
+
+    /**
+     * add a record returned by streamRecords & streamChanges
+     */
+    public void addRecord(int projectId, String expeditionCode, boolean publicExpedition, String bcid, String marker,
+                          String sequence, Timestamp modified) {
+        records.add(new Row(projectId, expeditionCode, publicExpedition, bcid, marker, sequence, modified));
+        if (publicExpedition) publicExpeditions.add(expeditionCode);
+    }
+
+    /**
+     * mark the expedition as public for getPublicExpeditionCodes. Expeditions of public records are always public
+     */
+    public void addPublicExpedition(String expeditionCode) {
+        publicExpeditions.add(expeditionCode);
+    }
+
+    /**
+     * add a deletion returned by getDeletions. Deletions are not filtered by criteria
+     */
+    public void addDeletion(String bcid, String expeditionCode, String marker, Timestamp deleted) {
+        deletions.add(new FastaTombstone(bcid, expeditionCode, marker, deleted));
+    }
+
+
+    public void setCurrentTimestamp(Timestamp currentTimestamp) {
+        this.currentTimestamp = currentTimestamp;
+    }
+
+    /**
+     * @param onStream called after the first sequence is streamed
+     */
+    public void onStream(Runnable onStream) {
+        this.onStream = onStream;
+    }
+
+    @Override
+    public void streamSequences(int networkId, String conceptAlias, String marker, SequenceCallback callback) {
+        streamCount++;
+        boolean first = true;
+
+        for (Object[] s : sequences) {
+            if (!Objects.equals(marker, s[3])) continue;
+
+            callback.accept((int) s[0], (String) s[1], (String) s[2], (String) s[3], (String) s[4]);
+
+            if (first && onStream != null) onStream.run();
+            first = false;
+        }
+    }
+
+    @Override
+    public void findSequenceHashes(int networkId, int projectId, String conceptAlias, List<String> markers,
+                                   Collection<Long> hashes, SequenceHashCallback callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void backfillSequenceHashes(int networkId, String conceptAlias) {
+        backfilledTables.add(networkId + ":" + conceptAlias);
+    }
+
+    @Override
+    public void streamRecords(int networkId, FastaExportCriteria criteria, String parentConceptAlias,
+                              String parentUniqueKey, List<String> parentAttributes, int fetchSize,
+                              Consumer<Map<String, Object>> consumer) {
+        records.stream()
+                .filter(r -> r.matches(criteria))
+                // same order as the recordsOrderBy sql
+                .sorted(Comparator.<Row, String>comparing(r -> r.marker == null || r.marker.isEmpty() ? null : r.marker,
+                        Comparator.nullsLast(Comparator.naturalOrder()))
+                        .thenComparing(r -> r.expeditionCode)
+                        .thenComparing(r -> r.bcid))
+                .forEach(r -> {
+                    Map<String, Object> record = new HashMap<>();
+                    record.put("bcid", r.bcid);
+                    record.put("expeditionCode", r.expeditionCode);
+                    record.put(FastaProps.MARKER.uri(), r.marker);
+                    record.put(FastaProps.SEQUENCE.uri(), r.sequence);
+                    consumer.accept(record);
+                });
+    }
+
+    @Override
+    public SortedMap<String, SortedSet<String>> getMarkersByExpedition(int networkId, FastaExportCriteria criteria) {
+        SortedMap<String, SortedSet<String>> markersByExpedition = new TreeMap<>();
+
+        records.stream()
+                .filter(r -> r.matches(criteria))
+                .forEach(r -> markersByExpedition
+                        .computeIfAbsent(r.expeditionCode, k -> new TreeSet<>())
+                        .add(r.marker == null ? FastaExportCriteria.NO_MARKER : r.marker));
+
+        return markersByExpedition;
+    }
+
+    @Override
+    public SortedMap<String, Long> getExportVersions(FastaExportCriteria criteria) {
+        SortedMap<String, Long> versions = new TreeMap<>();
+
+        for (Row r : records) {
+            if (!r.matches(new FastaExportCriteria(criteria.projectId(), criteria.conceptAlias(),
+                    criteria.expeditionCodes(), null, criteria.publicExpeditionsOnly()))) continue;
+
+            versions.put(r.expeditionCode, exportVersions.getOrDefault(r.projectId + ":" + r.expeditionCode, 0L));
+        }
+
+        return versions;
+    }
+
+    @Override
+    public void incrementExportVersions(int projectId, Collection<String> expeditionCodes) {
+        for (String expeditionCode : expeditionCodes) {
+            exportVersions.merge(projectId + ":" + expeditionCode, 1L, Long::sum);
+        }
+    }
+
+    @Override
+    public void streamChanges(int networkId, FastaExportCriteria criteria, String parentConceptAlias,
+                              String parentUniqueKey, List<String> parentAttributes, FastaChangeCursor cursor, int limit,
+                              Consumer<Map<String, Object>> consumer) {
+        records.stream()
+                .filter(r -> r.matches(criteria) && inCursor(r.modified, r.bcid, cursor))
+                .sorted(Comparator.<Row, Timestamp>comparing(r -> r.modified).thenComparing(r -> r.bcid))
+                .limit(limit)
+                .forEach(r -> {
+                    Map<String, Object> record = new HashMap<>();
+                    record.put("bcid", r.bcid);
+                    record.put("expeditionCode", r.expeditionCode);
+                    record.put("modified", r.modified);
+                    record.put(FastaProps.MARKER.uri(), r.marker);
+                    record.put(FastaProps.SEQUENCE.uri(), r.sequence);
+                    consumer.accept(record);
+                });
+    }
+
+    @Override
+    public List<FastaTombstone> getDeletions(int networkId, FastaExportCriteria criteria, FastaChangeCursor cursor, int limit) {
+        List<FastaTombstone> result = new ArrayList<>();
+
+        deletions.stream()
+                .filter(d -> inCursor((Timestamp) d.deleted(), d.bcid(), cursor))
+                .sorted(Comparator.<FastaTombstone, Timestamp>comparing(d -> (Timestamp) d.deleted()).thenComparing(FastaTombstone::bcid))
+                .limit(limit)
+                .forEach(result::add);
+
+        return result;
+    }
+
+    @Override
+    public void installTombstones(int networkId, String conceptAlias) {
+        installedTombstones.add(networkId + ":" + conceptAlias);
+    }
+
+    @Override
+    public Set<String> getPublicExpeditionCodes(int projectId) {
+        return new HashSet<>(publicExpeditions);
+    }
+
+    @Override
+    public Date currentTimestamp() {
+        if (currentTimestamp == null) throw new UnsupportedOperationException();
+        return currentTimestamp;
+    }
+
+    private static boolean inCursor(Timestamp timestamp, String bcid, FastaChangeCursor cursor) {
+        if (timestamp.compareTo(cursor.since()) <= 0 || timestamp.compareTo(cursor.until()) > 0) return false;
+        if (cursor.after() == null) return true;
+
+        int c = timestamp.compareTo(cursor.after());
+        return c > 0 || (c == 0 && bcid.compareTo(cursor.afterBcid()) > 0);
+    }
+
+    private static class Row {
+        private final int projectId;
+        private final String expeditionCode;
+        private final boolean publicExpedition;
+        private final String bcid;
+        private final String marker;
+        private final String sequence;
+        private final Timestamp modified;
+
+        private Row(int projectId, String expeditionCode, boolean publicExpedition, String bcid, String marker,
+                    String sequence, Timestamp modified) {
+            this.projectId = projectId;
+            this.expeditionCode = expeditionCode;
+            this.publicExpedition = publicExpedition;
+            this.bcid = bcid;
+            this.marker = marker;
+            this.sequence = sequence;
+            this.modified = modified;
+        }
+
+        private boolean matches(FastaExportCriteria criteria) {
+            return projectId == criteria.projectId() &&
+                    (publicExpedition || !criteria.publicExpeditionsOnly()) &&
+                    (criteria.expeditionCodes().isEmpty() || criteria.expeditionCodes().contains(expeditionCode)) &&
+                    (criteria.markers().isEmpty() || criteria.markers().contains(marker == null ? FastaExportCriteria.NO_MARKER : marker));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaChangeFeedTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null, false);
+
+    @Test
+    public void should_page_through_all_changes() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        for (int i = 0; i < 25; i++) {
+            repository.addRecord(1, "exp1", true, String.format("ark:/1seq%02d", i), "COI", "ACGT", timestamp(1000 + i, 0));
+        }
+        for (int i = 0; i < 7; i++) {
+            repository.addDeletion(String.format("ark:/1del%02d", i), "exp1", "COI", timestamp(1000 + i, 0));
+        }
+        repository.setCurrentTimestamp(timestamp(100000, 0));
+
+        FastaChangeFeed feed = feed(repository, 1000);
+
+        Set<String> changes = new HashSet<>();
+        Set<String> deletions = new HashSet<>();
+        FastaChangeToken token = FastaChangeToken.parse("1970-01-01T00:00:00Z");
+        int pages = 0;
+
+        FastaChanges response;
+        do {
+            response = feed.changes(token, 10);
+            response.changes().forEach(c -> assertTrue(c.bcid(), changes.add(c.bcid())));
+            response.deletions().forEach(d -> assertTrue(d.bcid(), deletions.add(d.bcid())));
+            token = FastaChangeToken.parse(response.next());
+            pages++;
+        } while (response.more());
+
+        assertEquals(3, pages);
+        assertEquals(25, changes.size());
+        assertEquals(7, deletions.size());
+        // the next window overlaps the current window
+        assertEquals(timestamp(99000, 0), token.since());
+        assertNull(token.until());
+    }
+
+    @Test
+    public void should_not_repeat_changes_in_the_same_millisecond() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        // same millisecond, different nanos
+        repository.addRecord(1, "exp1", true, "ark:/1b", "COI", "ACGT", timestamp(1000, 100));
+        repository.addRecord(1, "exp1", true, "ark:/1a", "COI", "ACGT", timestamp(1000, 200));
+        repository.addRecord(1, "exp1", true, "ark:/1c", "COI", "ACGT", timestamp(1000, 200));
+        repository.setCurrentTimestamp(timestamp(5000, 0));
+
+        FastaChangeFeed feed = feed(repository, 0);
+        FastaChangeToken token = FastaChangeToken.parse("1970-01-01T00:00:00Z");
+
+        List<String> bcids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FastaChanges response = feed.changes(token, 1);
+            assertTrue(response.more());
+            response.changes().forEach(c -> bcids.add(c.bcid()));
+            token = FastaChangeToken.parse(response.next());
+        }
+
+        FastaChanges response = feed.changes(token, 1);
+        assertFalse(response.more());
+        assertTrue(response.changes().isEmpty());
+
+        assertEquals(Arrays.asList("ark:/1b", "ark:/1a", "ark:/1c"), bcids);
+    }
+
+    @Test
+    public void continuation_token_should_round_trip() {
+        FastaChangeToken token = new FastaChangeToken(
+                timestamp(1000, 5), timestamp(2000, 123456789), timestamp(1500, 42), "ark:/1.a", null, null
+        );
+
+        FastaChangeToken parsed = FastaChangeToken.parse(token.toString());
+
+        assertEquals(token.toString(), parsed.toString());
+        assertEquals(timestamp(2000, 123456789), parsed.until());
+        assertEquals(timestamp(1500, 42), parsed.changesCursor(parsed.until()).after());
+        assertEquals("ark:/1.a", parsed.changesCursor(parsed.until()).afterBcid());
+        assertNull(parsed.deletionsCursor(parsed.until()).after());
+    }
+
+    @Test
+    public void should_not_parse_invalid_tokens() {
+        assertNull(FastaChangeToken.parse(null));
+        assertNull(FastaChangeToken.parse(""));
+        assertNull(FastaChangeToken.parse("yesterday"));
+        assertNull(FastaChangeToken.parse("c1.abc"));
+        assertNull(FastaChangeToken.parse("c1.!!.!!.!!.!!.!!.!!"));
+
+        assertEquals(new Timestamp(1000), FastaChangeToken.parse("1000").since());
+        assertEquals(new Timestamp(1000), FastaChangeToken.parse("1970-01-01T00:00:01Z").since());
+    }
+
+    private FastaChangeFeed feed(FastaRepository repository, long overlapMillis) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        return new FastaChangeFeed(repository, 1, CRITERIA, config, overlapMillis);
+    }
+
+    private static Timestamp timestamp(long millis, int nanos) {
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos((int) (millis % 1000) * 1000000 + nanos);
+        return timestamp;
+    }
+}
@@ -0,0 +1,92 @@
+package biocode.fims.fasta;
+
+import biocode.fims.records.GenericRecord;
+import biocode.fims.records.Record;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaRecordTest {
+    private static final String SEQUENCE = FastaProps.SEQUENCE.uri();
+
+    @Test
+    public void should_not_modify_provided_properties() {
+        Map<String, Object> properties = properties();
+
+        new FastaRecord(properties, "ark:/1", 1, "exp", true);
+
+        assertEquals(properties(), properties);
+    }
+
+    @Test
+    public void should_behave_as_generic_record() {
+        FastaRecord record = new FastaRecord(properties(), "ark:/1", 1, "exp", true);
+        GenericRecord generic = new GenericRecord(properties(), "ark:/1", 1, "exp", true);
+
+        assertNotNull(record.packedSequence());
+        assertEquals(generic.has(SEQUENCE), record.has(SEQUENCE));
+        assertEquals(generic.has("identifier"), record.has("identifier"));
+        assertEquals(generic.get(SEQUENCE), record.get(SEQUENCE));
+        assertTrue(record.properties().get(SEQUENCE) instanceof String);
+
+        Map<String, Object> properties = record.properties();
+        assertEquals(SequenceHasher.toHex(SequenceHasher.hash("ACGTACGTAA")), properties.remove(FastaRecord.SEQUENCE_HASH_KEY));
+        assertEquals(generic.properties(), properties);
+    }
+
+    @Test
+    public void should_recompute_stored_sequence_hash() {
+        Map<String, Object> properties = properties();
+        properties.put(FastaRecord.SEQUENCE_HASH_KEY, "0000000000000001");
+
+        FastaRecord record = new FastaRecord(properties, "ark:/1", 1, "exp", true);
+
+        assertFalse(record.has(FastaRecord.SEQUENCE_HASH_KEY));
+        assertEquals(SequenceHasher.hash("ACGTACGTAA"), record.sequenceHash());
+        assertEquals(record.sequenceHash(), SequenceHasher.fromHex((String) record.properties().get(FastaRecord.SEQUENCE_HASH_KEY)));
+    }
+
+    @Test
+    public void should_pack_sequence_set_after_creation() {
+        FastaRecord record = new FastaRecord(new HashMap<>(), "ark:/1", 1, "exp", true);
+        assertFalse(record.has(SEQUENCE));
+
+        record.set(SEQUENCE, "ACGTN");
+
+        assertTrue(record.has(SEQUENCE));
+        assertEquals("ACGTN", record.get(SEQUENCE));
+        assertEquals(SequenceHasher.hash("ACGTN"), record.sequenceHash());
+
+        record.set(SEQUENCE, null);
+        assertFalse(record.has(SEQUENCE));
+        assertNull(record.packedSequence());
+    }
+
+    @Test
+    public void should_clone_record() {
+        FastaRecord record = new FastaRecord(properties(), "ark:/1", 1, "exp", true);
+        record.setDuplicateOf("other", "exp2");
+
+        Record clone = record.clone();
+
+        assertEquals(record, clone);
+        assertEquals(record.sequenceHash(), ((FastaRecord) clone).sequenceHash());
+        assertEquals("other", ((FastaRecord) clone).duplicateOfIdentifier());
+
+        clone.set("identifier", "2");
+        assertEquals("1", record.get("identifier"));
+    }
+
+    private Map<String, Object> properties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("identifier", "1");
+        properties.put(SEQUENCE, "ACGTACGTAA");
+        return properties;
+    }
+}
@@ -0,0 +1,68 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaStreamWriterTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null);
+
+    @Test
+    public void should_write_records_without_marker_to_output_fasta_zip_entry() throws IOException {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, "ark:/1coi", "COI", "ACGT");
+        repository.addRecord(1, "exp1", true, "ark:/1nomarker", null, "AAAA");
+        repository.addRecord(1, "exp1", true, "ark:/1its", "ITS", "TTTT");
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer(repository).write(os, FastaStreamWriter.Format.ZIP);
+
+        assertEquals(Arrays.asList("COI.fasta", "ITS.fasta", "output.fasta"), entries(os.toByteArray()));
+    }
+
+    private List<String> entries(byte[] zip) throws IOException {
+        List<String> entries = new ArrayList<>();
+
+        try (ZipInputStream is = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = is.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        return entries;
+    }
+
+    private FastaStreamWriter writer(FakeFastaRepository repository) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        return new FastaStreamWriter(repository, 1, CRITERIA, config);
+    }
+}
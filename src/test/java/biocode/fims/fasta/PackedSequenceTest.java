@@ -0,0 +1,54 @@
+package biocode.fims.fasta;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class PackedSequenceTest {
+
+    @Test
+    public void should_pack_acgt_sequence_using_2_bits_per_base() {
+        PackedSequence sequence = PackedSequence.pack("ACGTTGCAA");
+
+        assertEquals(PackedSequence.Encoding.TWO_BIT, sequence.encoding());
+        assertEquals(9, sequence.length());
+        assertEquals(3, sequence.packedSize());
+        assertEquals("ACGTTGCAA", sequence.toString());
+        assertEquals('G', sequence.charAt(2));
+    }
+
+    @Test
+    public void should_pack_iupac_sequence_using_4_bits_per_base() {
+        PackedSequence sequence = PackedSequence.pack("ACGTN-RYKMSWBDHV");
+
+        assertEquals(PackedSequence.Encoding.FOUR_BIT, sequence.encoding());
+        assertEquals(8, sequence.packedSize());
+        assertEquals("ACGTN-RYKMSWBDHV", sequence.toString());
+    }
+
+    @Test
+    public void should_store_non_nucleotide_sequence_unchanged() {
+        PackedSequence sequence = PackedSequence.pack("acgtXX ");
+
+        assertEquals(PackedSequence.Encoding.RAW, sequence.encoding());
+        assertEquals("acgtXX ", sequence.toString());
+        assertEquals('X', sequence.charAt(4));
+    }
+
+    @Test
+    public void should_pack_empty_sequence() {
+        PackedSequence sequence = PackedSequence.pack("");
+
+        assertEquals(0, sequence.length());
+        assertEquals("", sequence.toString());
+    }
+
+    @Test
+    public void equal_sequences_should_be_equal() {
+        assertEquals(PackedSequence.pack("ACGTN"), PackedSequence.pack(new StringBuilder("ACGTN")));
+        assertNotEquals(PackedSequence.pack("ACGT"), PackedSequence.pack("ACGA"));
+    }
+}
@@ -0,0 +1,120 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class ParallelFastaQueryWriterTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null);
+
+    // shared by all tests, like the FastaExportExecutor
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Test
+    public void should_write_a_file_per_marker_including_records_without_a_marker() throws IOException {
+        FakeFastaRepository repository = repository();
+
+        List<File> files = writer(repository, ParallelFastaQueryWriter.ShardBy.EXPEDITION).write();
+
+        try {
+            assertEquals(3, files.size());
+            assertEquals(">ark:/1nomarker\nAAAA\n", strip(read(files.get(0))));
+            assertEquals(">ark:/1coi1\nACGT\n>ark:/1coi2\nCCCC\n>ark:/2coi1\nGGGG\n", strip(read(files.get(1))));
+            assertEquals(">ark:/1its1\nTTTT\n", strip(read(files.get(2))));
+        } finally {
+            files.forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void should_write_the_same_output_regardless_of_shards() throws IOException {
+        List<File> byExpedition = writer(repository(), ParallelFastaQueryWriter.ShardBy.EXPEDITION).write();
+        List<File> byMarker = writer(repository(), ParallelFastaQueryWriter.ShardBy.MARKER).write();
+
+        try {
+            assertEquals(byExpedition.size(), byMarker.size());
+            for (int i = 0; i < byExpedition.size(); i++) {
+                assertEquals(read(byExpedition.get(i)), read(byMarker.get(i)));
+            }
+        } finally {
+            byExpedition.forEach(File::delete);
+            byMarker.forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void should_write_zip_and_leave_shared_executor_running() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer(repository(), ParallelFastaQueryWriter.ShardBy.EXPEDITION).writeZip(os);
+
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+
+        assertEquals(Arrays.asList("output.fasta", "COI.fasta", "ITS.fasta"), entries);
+        assertFalse(executor.isShutdown());
+    }
+
+    private FakeFastaRepository repository() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp2", true, "ark:/2coi1", "COI", "GGGG");
+        repository.addRecord(1, "exp1", true, "ark:/1coi1", "COI", "ACGT");
+        repository.addRecord(1, "exp1", true, "ark:/1its1", "ITS", "TTTT");
+        repository.addRecord(1, "exp1", true, "ark:/1nomarker", null, "AAAA");
+        repository.addRecord(1, "exp1", true, "ark:/1coi2", "COI", "CCCC");
+        return repository;
+    }
+
+    private ParallelFastaQueryWriter writer(FastaRepository repository, ParallelFastaQueryWriter.ShardBy shardBy) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        return new ParallelFastaQueryWriter(repository, 1, CRITERIA, config, executor, shardBy);
+    }
+
+    /**
+     * remove the header text following the identifier
+     */
+    private static String strip(String fasta) {
+        return fasta.replaceAll("(?m)^(>\\S+).*$", "$1");
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,197 @@
+package biocode.fims.fasta;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class TwoBitQueryWriterTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null);
+
+    @Test
+    public void should_round_trip_n_and_mask_blocks() throws IOException {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, "ark:/1a", "COI", "ACGTACGTA");
+        repository.addRecord(1, "exp1", true, "ark:/1b", "COI", "NNacgtRYSWnnACGU-acgtN");
+        repository.addRecord(1, "exp1", true, "ark:/1c", "COI", "");
+        repository.addRecord(1, "exp1", true, "ark:/1d", null, "ggccNN");
+
+        List<File> files = writer(repository, Long.MAX_VALUE).write();
+
+        try {
+            assertEquals(2, files.size());
+            assertEquals("COI.2bit", files.get(0).getName());
+            assertEquals("output.2bit", files.get(1).getName());
+
+            TwoBit coi = read(files.get(0));
+            assertEquals(0, coi.version);
+            assertEquals(Arrays.asList("ark:/1a", "ark:/1b", "ark:/1c"), new ArrayList<>(coi.sequences.keySet()));
+            assertEquals("ACGTACGTA", coi.sequences.get("ark:/1a"));
+            assertEquals(expected("NNacgtRYSWnnACGU-acgtN"), coi.sequences.get("ark:/1b"));
+            assertEquals("", coi.sequences.get("ark:/1c"));
+
+            TwoBit output = read(files.get(1));
+            assertEquals(Collections.singletonMap("ark:/1d", "ggccNN"), output.sequences);
+        } finally {
+            files.forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void should_write_version_1_with_64_bit_offsets() throws IOException {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, "ark:/1a", "COI", "ACGTnnACGT");
+        repository.addRecord(1, "exp1", true, "ark:/1b", "COI", "TTTTGGGGCCCCAAAA");
+
+        List<File> files = writer(repository, 0).write();
+
+        try {
+            TwoBit twoBit = read(files.get(0));
+            assertEquals(1, twoBit.version);
+            assertEquals("ACGTnnACGT", twoBit.sequences.get("ark:/1a"));
+            assertEquals("TTTTGGGGCCCCAAAA", twoBit.sequences.get("ark:/1b"));
+        } finally {
+            files.forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void should_shorten_long_names_uniquely() throws IOException {
+        StringBuilder sb = new StringBuilder("ark:/1");
+        while (sb.length() < 300) sb.append('x');
+        String prefix = sb.toString();
+        String exact = prefix.substring(0, TwoBitQueryWriter.MAX_NAME_LENGTH);
+
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, prefix + "a", "COI", "AAAA");
+        repository.addRecord(1, "exp1", true, prefix + "b", "COI", "CCCC");
+        repository.addRecord(1, "exp1", true, exact, "COI", "GGGG");
+
+        List<File> files = writer(repository, Long.MAX_VALUE).write();
+
+        try {
+            TwoBit twoBit = read(files.get(0));
+            assertEquals(3, twoBit.sequences.size());
+            assertEquals("GGGG", twoBit.sequences.get(exact));
+
+            for (String name : twoBit.sequences.keySet()) {
+                assertEquals(TwoBitQueryWriter.MAX_NAME_LENGTH, name.length());
+            }
+
+            String a = new String(TwoBitQueryWriter.name(prefix + "a"), StandardCharsets.US_ASCII);
+            String b = new String(TwoBitQueryWriter.name(prefix + "b"), StandardCharsets.US_ASCII);
+            assertNotEquals(a, b);
+            assertEquals("AAAA", twoBit.sequences.get(a));
+            assertEquals("CCCC", twoBit.sequences.get(b));
+        } finally {
+            files.forEach(File::delete);
+        }
+    }
+
+    /**
+     * the sequence as it is expected to be decoded. Bases other than ACGT(U) are stored as N & U is stored as T
+     */
+    private static String expected(String sequence) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : sequence.toCharArray()) {
+            char upper = Character.toUpperCase(c);
+            char base = upper == 'U' ? 'T' : "ACGT".indexOf(upper) == -1 ? 'N' : upper;
+            sb.append(Character.isLowerCase(c) ? Character.toLowerCase(base) : base);
+        }
+        return sb.toString();
+    }
+
+    private TwoBitQueryWriter writer(FastaRepository repository, long maxVersion0Size) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        return new TwoBitQueryWriter(repository, 1, CRITERIA, config, FastaStreamWriter.DEFAULT_FETCH_SIZE, maxVersion0Size);
+    }
+
+    /**
+     * decode a .2bit file following the UCSC format spec
+     */
+    private static TwoBit read(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(TwoBitQueryWriter.SIGNATURE, buffer.getInt());
+        TwoBit twoBit = new TwoBit(buffer.getInt());
+        int count = buffer.getInt();
+        assertEquals(0, buffer.getInt());
+
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.get() & 0xFF];
+            buffer.get(name);
+            long offset = twoBit.version == 1 ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
+            offsets.put(new String(name, StandardCharsets.US_ASCII), offset);
+        }
+
+        for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+            buffer.position(entry.getValue().intValue());
+
+            int size = buffer.getInt();
+            int[][] nBlocks = blocks(buffer);
+            int[][] maskBlocks = blocks(buffer);
+            assertEquals(0, buffer.getInt());
+
+            char[] bases = new char[size];
+            for (int i = 0; i < size; i++) {
+                if (i % 4 == 0) buffer.get();
+                int code = (buffer.get(buffer.position() - 1) >> (6 - 2 * (i % 4))) & 3;
+                bases[i] = "TCAG".charAt(code);
+            }
+            for (int[] block : nBlocks) {
+                Arrays.fill(bases, block[0], block[0] + block[1], 'N');
+            }
+            for (int[] block : maskBlocks) {
+                for (int i = block[0]; i < block[0] + block[1]; i++) bases[i] = Character.toLowerCase(bases[i]);
+            }
+
+            twoBit.sequences.put(entry.getKey(), new String(bases));
+        }
+
+        return twoBit;
+    }
+
+    private static int[][] blocks(ByteBuffer buffer) {
+        int[][] blocks = new int[buffer.getInt()][2];
+        for (int[] block : blocks) block[0] = buffer.getInt();
+        for (int[] block : blocks) block[1] = buffer.getInt();
+        return blocks;
+    }
+
+    private static class TwoBit {
+        private final int version;
+        private final Map<String, String> sequences = new LinkedHashMap<>();
+
+        private TwoBit(int version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package biocode.fims.fasta.index;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class KmerIndexTest {
+    private static final Set<Integer> PROJECTS = Collections.singleton(1);
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    @Test
+    public void should_rank_hits_by_shared_kmers() {
+        KmerIndex index = new KmerIndex(8);
+        Random random = new Random(1);
+        String sequence = randomSequence(random, 200);
+
+        index.add(1, "exp", "exact", sequence);
+        index.add(1, "exp", "half", sequence.substring(0, 100) + randomSequence(random, 100));
+        index.add(1, "exp", "other", randomSequence(random, 200));
+        index.add(2, "exp", "otherProject", sequence);
+
+        List<KmerSearchHit> hits = index.search(sequence, PROJECTS, 1, 2);
+
+        assertEquals(2, hits.size());
+        assertEquals("exact", hits.get(0).identifier());
+        assertEquals("half", hits.get(1).identifier());
+        assertTrue(hits.get(0).sharedKmers() > hits.get(1).sharedKmers());
+
+        // the search buffer is reused, so a 2nd search must return the same results
+        List<KmerSearchHit> again = index.search(sequence, PROJECTS, 1, 2);
+        assertEquals(hits.get(0).sharedKmers(), again.get(0).sharedKmers());
+        assertEquals(hits.get(1).sharedKmers(), again.get(1).sharedKmers());
+    }
+
+    @Test
+    public void should_compact_deleted_sequences() {
+        KmerIndex index = new KmerIndex(8);
+        Random random = new Random(2);
+        String[] sequences = new String[100];
+
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = randomSequence(random, 100);
+            index.add(1, i % 2 == 0 ? "even" : "odd", String.valueOf(i), sequences[i]);
+        }
+
+        index.remove(1, "even", "0");
+        assertEquals(99, index.size());
+        // below the compaction threshold
+        assertEquals(100, index.capacity());
+
+        index.removeExpedition(1, "odd");
+        assertEquals(49, index.size());
+        assertEquals(49, index.capacity());
+
+        for (int i = 0; i < sequences.length; i++) {
+            List<KmerSearchHit> hits = index.search(sequences[i], PROJECTS, 1, 100);
+
+            for (KmerSearchHit hit : hits) {
+                assertEquals("even", hit.expeditionCode());
+                assertNotEquals("0", hit.identifier());
+            }
+            if (i > 0 && i % 2 == 0) assertEquals(String.valueOf(i), hits.get(0).identifier());
+        }
+    }
+
+    @Test
+    public void should_compact_replaced_sequences() {
+        KmerIndex index = new KmerIndex(8);
+        Random random = new Random(3);
+
+        for (int i = 0; i < 10; i++) {
+            index.add(1, "exp", "1", randomSequence(random, 100));
+        }
+        String sequence = randomSequence(random, 100);
+        index.add(1, "exp", "1", sequence);
+
+        assertEquals(1, index.size());
+        assertTrue(index.capacity() < 4);
+
+        List<KmerSearchHit> hits = index.search(sequence, PROJECTS, 1, 10);
+        assertEquals(1, hits.size());
+        assertEquals(1, hits.get(0).score(), 0);
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(BASES[random.nextInt(BASES.length)]);
+        }
+        return sb.toString();
+    }
+}
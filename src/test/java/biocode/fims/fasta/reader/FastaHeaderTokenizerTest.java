@@ -0,0 +1,72 @@
+package biocode.fims.fasta.reader;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaHeaderTokenizerTest {
+
+    @Test
+    public void should_return_identifier_only() {
+        Map<String, String> pairs = new LinkedHashMap<>();
+
+        assertEquals("ALC111", FastaHeaderTokenizer.tokenize("ALC111", pairs::put));
+        assertEquals("ALC111", FastaHeaderTokenizer.tokenize("ALC111 some description", pairs::put));
+        assertTrue(pairs.isEmpty());
+        assertNull(FastaHeaderTokenizer.tokenize(null, pairs::put));
+    }
+
+    @Test
+    public void should_parse_key_value_pairs() {
+        Map<String, String> pairs = new LinkedHashMap<>();
+
+        String identifier = FastaHeaderTokenizer.tokenize(
+                "ALC111 organism=\"new findings\" genus = 'alpha' country=USA note=\u201Ccurly quotes\u201D loose text",
+                pairs::put
+        );
+
+        assertEquals("ALC111", identifier);
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("organism", "new findings");
+        expected.put("genus", "alpha");
+        expected.put("country", "USA");
+        expected.put("note", "curly quotes");
+        assertEquals(expected, pairs);
+    }
+
+    @Test
+    public void should_parse_bracketed_pairs() {
+        Map<String, String> pairs = new LinkedHashMap<>();
+
+        String identifier = FastaHeaderTokenizer.tokenize(
+                "ark:/99999/a2Sample1_COI [marker = COI] [urn:materialSampleID = Sample1] [genus = ] [specificEpithet = \"a]b\"]",
+                pairs::put
+        );
+
+        assertEquals("ark:/99999/a2Sample1_COI", identifier);
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("marker", "COI");
+        expected.put("urn:materialSampleID", "Sample1");
+        expected.put("genus", "");
+        expected.put("specificEpithet", "a]b");
+        assertEquals(expected, pairs);
+    }
+
+    @Test
+    public void should_unescape_quoted_values() {
+        Map<String, String> pairs = new LinkedHashMap<>();
+
+        FastaHeaderTokenizer.tokenize("id note=\"say \\\"hi\\\"\" other=\"unterminated", pairs::put);
+
+        assertEquals("say \"hi\"", pairs.get("note"));
+        assertEquals("unterminated", pairs.get("other"));
+    }
+}
@@ -0,0 +1,80 @@
+package biocode.fims.fasta.reader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaParserTest {
+
+    @Test
+    public void should_join_wrapped_sequence_lines() throws IOException {
+        FastaParser parser = parser(">seq1 organism=\"x\"\nACGT\nACGT\nAC\n>seq2\nTTTT\n", 4);
+
+        assertTrue(parser.next());
+        assertEquals("seq1 organism=\"x\"", parser.header());
+        assertEquals("ACGTACGTAC", parser.sequence());
+
+        assertTrue(parser.next());
+        assertEquals("seq2", parser.header());
+        assertEquals("TTTT", parser.sequence());
+
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void should_strip_windows_line_endings() throws IOException {
+        FastaParser parser = parser(">seq1\r\nAC\r\nGT\r\n", 3);
+
+        assertTrue(parser.next());
+        assertEquals("seq1", parser.header());
+        assertEquals("ACGT", parser.sequence());
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void should_return_records_with_empty_sequences() throws IOException {
+        FastaParser parser = parser(">seq1\n>seq2", 1024);
+
+        assertTrue(parser.next());
+        assertEquals("seq1", parser.header());
+        assertEquals("", parser.sequence());
+
+        assertTrue(parser.next());
+        assertEquals("seq2", parser.header());
+        assertEquals("", parser.sequence());
+
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void should_return_null_header_for_sequence_before_first_header() throws IOException {
+        FastaParser parser = parser("ACGT\n>seq1\nA\n", 1024);
+
+        assertTrue(parser.next());
+        assertNull(parser.header());
+        assertEquals("ACGT", parser.sequence());
+
+        assertTrue(parser.next());
+        assertEquals("seq1", parser.header());
+    }
+
+    @Test
+    public void should_return_no_records_for_empty_input() throws IOException {
+        assertFalse(parser("", 1024).next());
+    }
+
+    private FastaParser parser(String data, int bufferSize) {
+        return new FastaParser(
+                Channels.newChannel(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8))),
+                bufferSize
+        );
+    }
+}
@@ -0,0 +1,111 @@
+package biocode.fims.fasta.reader;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.exceptions.FastaReaderCode;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordMetadata;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaReaderTest {
+
+    @Test
+    public void should_handle_fasta_and_compressed_fasta_extensions() {
+        FastaReader reader = new FastaReader();
+
+        assertTrue(reader.handlesExtension("fasta"));
+        assertTrue(reader.handlesExtension("FA"));
+        assertTrue(reader.handlesExtension("fasta.gz"));
+        assertTrue(reader.handlesExtension("fa.zst"));
+        // only the last extension may be given, so the filename is checked when the reader is created
+        assertTrue(reader.handlesExtension("gz"));
+
+        assertFalse(reader.handlesExtension("fastq.gz"));
+        assertFalse(reader.handlesExtension("csv.gz"));
+        assertFalse(reader.handlesExtension("xlsx"));
+        assertFalse(reader.handlesExtension("zip"));
+    }
+
+    @Test
+    public void should_only_accept_compressed_files_with_fasta_extension() {
+        assertTrue(FastaReader.isFastaFilename("a.fasta"));
+        assertTrue(FastaReader.isFastaFilename("a.b.FA.GZ"));
+        assertTrue(FastaReader.isFastaFilename("a.fna.bz2"));
+
+        assertFalse(FastaReader.isFastaFilename("a.fq.gz"));
+        assertFalse(FastaReader.isFastaFilename("data.csv.gz"));
+        assertFalse(FastaReader.isFastaFilename("a.gz"));
+        assertFalse(FastaReader.isFastaFilename("fasta"));
+        assertFalse(FastaReader.isFastaFilename("a.fasta.zip"));
+    }
+
+    @Test
+    public void should_group_multi_marker_records_by_marker() throws IOException {
+        FastaReader reader = multiMarkerReader(">a [marker = COI]\nACGT\n>b marker=16S\nAC\n>c [marker = COI]\nGG\n");
+
+        List<Record> records = reader.getRecordSets().get(0).records();
+
+        assertEquals(3, records.size());
+        assertEquals("a", records.get(0).get("urn:tissueID"));
+        assertEquals("COI", records.get(0).get(FastaProps.MARKER.uri()));
+        assertEquals("c", records.get(1).get("urn:tissueID"));
+        assertEquals("COI", records.get(1).get(FastaProps.MARKER.uri()));
+        assertEquals("b", records.get(2).get("urn:tissueID"));
+        assertEquals("16S", records.get(2).get(FastaProps.MARKER.uri()));
+    }
+
+    @Test
+    public void should_fail_if_multi_marker_record_is_missing_marker() throws IOException {
+        FastaReader reader = multiMarkerReader(">a [marker = COI]\nACGT\n>b\nAC\n");
+
+        try {
+            reader.getRecordSets();
+            fail("expected FimsRuntimeException");
+        } catch (FimsRuntimeException e) {
+            assertEquals(FastaReaderCode.MISSING_MARKER, e.getErrorCode());
+        }
+    }
+
+    private FastaReader multiMarkerReader(String content) throws IOException {
+        File file = File.createTempFile("test", ".fasta");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        Entity fastaEntity = mock(Entity.class);
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.getAttributes()).thenReturn(new ArrayList<>());
+
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+        when(parentEntity.getUniqueKeyURI()).thenReturn("urn:tissueID");
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        RecordMetadata recordMetadata = new RecordMetadata(FastaDataReaderType.READER_TYPE, false);
+        recordMetadata.add(FastaReader.CONCEPT_ALIAS_KEY, "fastaSequence");
+        recordMetadata.add(FastaReader.MULTI_MARKER_KEY, "true");
+
+        return new FastaReader(file, config, recordMetadata);
+    }
+}
@@ -0,0 +1,96 @@
+package biocode.fims.fasta.reader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class ParallelFastaParserTest {
+
+    @Test
+    public void should_parse_records_spanning_chunks() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append(">seq").append(i).append(" marker=COI\n");
+            // records are larger then the chunk size, so most chunk boundaries fall inside a record
+            for (int j = 0; j < i % 7 + 1; j++) {
+                sb.append("ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT\n");
+            }
+        }
+        File file = write(sb.toString());
+
+        List<String> records = new ParallelFastaParser(file, 16).parse((h, s) -> h + "|" + s);
+
+        assertEquals(200, records.size());
+        assertEquals(sequential(file), records);
+        assertEquals("seq0 marker=COI|" + "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT", records.get(0));
+    }
+
+    @Test
+    public void should_only_split_on_header_at_start_of_line() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(">seq").append(i).append("\n")
+                    .append("ACGT>ACGT\n")
+                    .append("AC>>GT\n");
+        }
+        File file = write(sb.toString());
+
+        List<String> records = new ParallelFastaParser(file, 16).parse((h, s) -> h + "|" + s);
+
+        assertEquals(100, records.size());
+        assertEquals(sequential(file), records);
+    }
+
+    @Test
+    public void should_parse_crlf_input() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(">seq").append(i).append("\r\n")
+                    .append("ACGTACGT\r\n")
+                    .append("TTTT\r\n");
+        }
+        File file = write(sb.toString());
+
+        List<String> records = new ParallelFastaParser(file, 16).parse((h, s) -> h + "|" + s);
+
+        assertEquals(100, records.size());
+        assertEquals(sequential(file), records);
+        assertEquals("seq99|ACGTACGTTTTT", records.get(99));
+    }
+
+    private List<String> sequential(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+
+        FastaParser parser = new FastaParser(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        while (parser.next()) {
+            records.add(parser.header() + "|" + parser.sequence());
+        }
+        parser.close();
+
+        return records;
+    }
+
+    private File write(String content) throws IOException {
+        File file = File.createTempFile("test", ".fasta");
+        file.deleteOnExit();
+
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,91 @@
+package biocode.fims.fastq;
+
+import biocode.fims.utils.Compression;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastqFilenameClassifierTest {
+    // the patterns previously used by FastqReader & FastqFilenamesRule
+    private static final Pattern SINGLE_ID_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PAIRED_ID_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[12]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PAIRED_FILE1_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[1]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PAIRED_FILE2_PATTERN = Pattern.compile("^([a-zA-Z0-9+=:._()~*]+)(-.*)?([.|_|-]+.*[2]+)\\.(fq|fastq)(\\.gz|\\.gzip|\\.bz2)?$", Pattern.CASE_INSENSITIVE);
+
+    private static final String[] PARTS = {"a", "B", "9", "1", "2", "_", ".", "-", "|", " ", "+", "(", "R1", "R2", "_1", "_2", "001"};
+    private static final String[] EXTS = {".fq", ".fastq", ".FQ", ".FastQ", ".txt", ""};
+    private static final String[] COMPRESSION_EXTS = {"", "", ".gz", ".gzip", ".bz2", ".GZ", ".zip"};
+
+    @Test
+    public void should_classify_single_end_filenames() {
+        FastqFilenameClassifier.Classification c = FastqFilenameClassifier.classify("sample-extra.fastq");
+
+        assertEquals("sample", c.singleId());
+        assertNull(c.pairedId());
+        assertEquals(0, c.mate());
+        assertEquals(Compression.NONE, c.compression());
+        assertEquals("sample", c.sampleId(false));
+        assertNull(c.sampleId(true));
+    }
+
+    @Test
+    public void should_classify_paired_end_filenames() {
+        FastqFilenameClassifier.Classification c = FastqFilenameClassifier.classify("abc_R1_001.fastq.gz");
+
+        assertEquals("abc_R1", c.pairedId());
+        assertEquals(1, c.mate());
+        assertEquals(Compression.GZIP, c.compression());
+        // also a valid single-end filename
+        assertEquals("abc_R1_001", c.singleId());
+
+        c = FastqFilenameClassifier.classify("a-b_2.FQ.BZ2");
+
+        assertEquals("a", c.pairedId());
+        assertEquals(2, c.mate());
+        assertEquals(Compression.BZIP2, c.compression());
+    }
+
+    @Test
+    public void should_not_classify_invalid_filenames() {
+        assertNull(FastqFilenameClassifier.classify("bad name.fq"));
+        assertNull(FastqFilenameClassifier.classify("a.txt.gz"));
+        assertNull(FastqFilenameClassifier.classify(".fq"));
+        assertNull(FastqFilenameClassifier.classify("a.fq.zip"));
+        assertNull(FastqFilenameClassifier.classify(null));
+    }
+
+    @Test
+    public void should_match_previous_patterns() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int n = random.nextInt(6);
+            for (int j = 0; j < n; j++) {
+                sb.append(PARTS[random.nextInt(PARTS.length)]);
+            }
+            sb.append(EXTS[random.nextInt(EXTS.length)]);
+            sb.append(COMPRESSION_EXTS[random.nextInt(COMPRESSION_EXTS.length)]);
+            String filename = sb.toString();
+
+            FastqFilenameClassifier.Classification c = FastqFilenameClassifier.classify(filename);
+
+            assertEquals(filename, group1(SINGLE_ID_PATTERN, filename), c == null ? null : c.singleId());
+            assertEquals(filename, group1(PAIRED_ID_PATTERN, filename), c == null ? null : c.pairedId());
+            assertEquals(filename, PAIRED_FILE1_PATTERN.matcher(filename).matches(), c != null && c.mate() == 1);
+            assertEquals(filename, PAIRED_FILE2_PATTERN.matcher(filename).matches(), c != null && c.mate() == 2);
+        }
+    }
+
+    private String group1(Pattern pattern, String filename) {
+        Matcher matcher = pattern.matcher(filename);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+}
@@ -0,0 +1,96 @@
+package biocode.fims.fastq;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastqPairVerifierTest {
+
+    @Test
+    public void should_accept_mates() throws IOException {
+        List<String> errors = verify(
+                gzip(reads("@r%d/1", 5000)),
+                gzip(reads("@r%d/2", 5000))
+        );
+
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void should_accept_casava_headers() throws IOException {
+        List<String> errors = verify(
+                file("@M1:1:FC:1:1:1:1 1:N:0:ACGT\nACGT\n+\nIIII\n"),
+                file("@M1:1:FC:1:1:1:1 2:N:0:ACGT\r\nACGT\r\n+\r\nIIII\r\n")
+        );
+
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void should_reject_mismatched_read_names() throws IOException {
+        List<String> errors = verify(
+                file("@r1/1\nACGT\n+\nIIII\n@r2/1\nACGT\n+\nIIII\n"),
+                file("@r1/2\nACGT\n+\nIIII\n@r3/2\nACGT\n+\nIIII\n")
+        );
+
+        assertEquals(
+                Collections.singletonList("\"a_1.fq\" & \"a_2.fq\": read names do not match at read 2 (\"r2\" != \"r3\")"),
+                errors
+        );
+    }
+
+    @Test
+    public void should_reject_truncated_mate() throws IOException {
+        List<String> errors = verify(
+                gzip(reads("@r%d/1", 5000)),
+                gzip(reads("@r%d/2", 4999))
+        );
+
+        assertEquals(
+                Collections.singletonList("\"a_1.fq\" & \"a_2.fq\": read counts do not match. \"a_2.fq\" ends after 4999 reads"),
+                errors
+        );
+    }
+
+    private List<String> verify(File file1, File file2) {
+        return new FastqPairVerifier(2).verify(Arrays.asList(
+                new FastqPairVerifier.Pair("a_1.fq", file1, "a_2.fq", file2)
+        ));
+    }
+
+    private String reads(String header, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(String.format(header, i)).append("\nACGTACGTAC\n+\nIIIIIIIIII\n");
+        }
+        return sb.toString();
+    }
+
+    private File file(String content) throws IOException {
+        File file = File.createTempFile("test", ".fq");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+
+    private File gzip(String content) throws IOException {
+        File file = File.createTempFile("test", ".fq.gz");
+        file.deleteOnExit();
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+}
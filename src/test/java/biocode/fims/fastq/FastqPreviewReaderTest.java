@@ -0,0 +1,191 @@
+package biocode.fims.fastq;
+
+import biocode.fims.fimsExceptions.BadRequestException;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastqPreviewReaderTest {
+    private static final int READS = 20000;
+    // each record is exactly 40 bytes
+    private static final String RECORD = "@r%05d\nACGTACGTACGTAC\n+\nIIIIIIIIIIIIII\n";
+
+    @Test
+    public void should_index_bgzip_members() throws IOException {
+        byte[] data = content().getBytes(StandardCharsets.US_ASCII);
+        File file = bgzip(data);
+
+        GzipIndex index = index(file, 64 * 1024);
+
+        assertNotNull(index);
+        assertEquals(data.length, index.uncompressedSize());
+        assertTrue(index.checkpoints().size() > 1);
+        assertEquals(0, index.checkpoints().get(0).compressedOffset());
+        assertEquals(0, index.checkpoints().get(0).uncompressedOffset());
+
+        FastqPreview preview = new FastqPreviewReader().read(file, "a.fq.gz", index, 40 * 12345 + 7, 3);
+
+        assertEquals(40 * 12346, preview.offset());
+        assertEquals(Long.valueOf(40 * 12349), preview.nextOffset());
+        assertEquals(3, preview.reads().size());
+        assertEquals("@r12346", preview.reads().get(0).header);
+        assertEquals("ACGTACGTACGTAC", preview.reads().get(0).sequence);
+        assertEquals("@r12348", preview.reads().get(2).header);
+    }
+
+    @Test
+    public void should_index_concatenated_gzip_members() throws IOException {
+        File file = File.createTempFile("test", ".fq.gz");
+        file.deleteOnExit();
+
+        String content = content();
+        try (OutputStream os = new FileOutputStream(file)) {
+            for (int i = 0; i < content.length(); i += 100000) {
+                GZIPOutputStream gos = new GZIPOutputStream(os);
+                gos.write(content.substring(i, Math.min(content.length(), i + 100000)).getBytes(StandardCharsets.US_ASCII));
+                gos.finish();
+            }
+        }
+
+        GzipIndex index = index(file, 1);
+
+        assertNotNull(index);
+        assertEquals(content.length(), index.uncompressedSize());
+        assertEquals(8, index.checkpoints().size());
+        assertEquals(500000, index.checkpoint(599999).uncompressedOffset());
+
+        // the offset is the start of a record
+        FastqPreview preview = new FastqPreviewReader().read(file, "a.fq.gz", index, 40 * 19999, 10);
+
+        assertEquals(40 * 19999, preview.offset());
+        assertNull(preview.nextOffset());
+        assertEquals(1, preview.reads().size());
+        assertEquals("@r19999", preview.reads().get(0).header);
+    }
+
+    @Test
+    public void should_not_index_invalid_gzip_file() throws IOException {
+        GzipIndexBuilder builder = new GzipIndexBuilder();
+        builder.write(content().getBytes(StandardCharsets.US_ASCII));
+
+        assertNull(builder.index());
+    }
+
+    @Test
+    public void should_limit_bytes_decompressed_without_checkpoint() throws IOException {
+        File file = File.createTempFile("test", ".fq.gz");
+        file.deleteOnExit();
+
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            os.write(content().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        GzipIndex index = index(file, 1);
+        assertEquals(1, index.checkpoints().size());
+
+        FastqPreviewReader reader = new FastqPreviewReader(40 * 1000);
+
+        FastqPreview preview = reader.read(file, "a.fq.gz", index, 40 * 1000, 1);
+        assertEquals("@r01000", preview.reads().get(0).header);
+
+        try {
+            reader.read(file, "a.fq.gz", index, 40 * 1000 + 2, 1);
+            fail("expected BadRequestException");
+        } catch (BadRequestException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void should_sync_to_record_start_in_plain_file() throws IOException {
+        File file = File.createTempFile("test", ".fq");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            // the quality line begins w/ '@'
+            os.write("@r1\nACGT\n+\n@III\n@r2\nACGT\n+\n@III\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        FastqPreview preview = new FastqPreviewReader().read(file, "a.fq", null, 11, 10);
+
+        assertEquals(Long.valueOf(file.length()), preview.size());
+        assertEquals(1, preview.reads().size());
+        assertEquals("@r2", preview.reads().get(0).header);
+        assertEquals("@III", preview.reads().get(0).quality);
+    }
+
+    private GzipIndex index(File file, long span) throws IOException {
+        GzipIndexBuilder builder = new GzipIndexBuilder(span);
+
+        // write in odd sized chunks, so headers & trailers are split across writes
+        byte[] buffer = new byte[997];
+        try (InputStream is = new FileInputStream(file)) {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                builder.write(buffer, 0, n);
+            }
+        }
+        builder.close();
+
+        return builder.index();
+    }
+
+    private String content() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < READS; i++) {
+            sb.append(String.format(RECORD, i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * write the data as bgzip members, followed by the empty EOF member
+     */
+    private File bgzip(byte[] data) throws IOException {
+        File file = File.createTempFile("test", ".fq.gz");
+        file.deleteOnExit();
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < data.length; i += 60000) {
+                writeBgzipMember(os, data, i, Math.min(60000, data.length - i));
+            }
+            writeBgzipMember(os, data, 0, 0);
+        }
+
+        return file;
+    }
+
+    private void writeBgzipMember(OutputStream os, byte[] data, int off, int len) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] compressed = new byte[65536];
+        int clen = deflater.deflate(compressed);
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        int bsize = 18 + clen + 8 - 1;
+        os.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) bsize, (byte) (bsize >> 8)});
+        os.write(compressed, 0, clen);
+        writeInt(os, (int) crc.getValue());
+        writeInt(os, len);
+    }
+
+    private void writeInt(OutputStream os, int v) throws IOException {
+        os.write(v);
+        os.write(v >> 8);
+        os.write(v >> 16);
+        os.write(v >> 24);
+    }
+}
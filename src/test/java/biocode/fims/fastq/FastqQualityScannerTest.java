@@ -0,0 +1,128 @@
+package biocode.fims.fastq;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastqQualityScannerTest {
+
+    @Test
+    public void should_compute_stats_for_gzipped_file() throws IOException {
+        File file = gzip("@r1\nACGT\n+\nIIII\n@r2\nACG\n+r2\n!!!\n");
+
+        FastqQcStats stats = scan(file);
+
+        assertTrue(stats.isValid());
+        assertEquals(2, stats.reads());
+        assertEquals(7, stats.bases());
+        assertEquals(FastqQcStats.QualityEncoding.PHRED_33, stats.encoding());
+        // 4 * 40 + 3 * 0
+        assertEquals(160.0 / 7, stats.meanQuality(), 0.0001);
+
+        Map<Integer, Long> lengths = new LinkedHashMap<>();
+        lengths.put(3, 1L);
+        lengths.put(4, 1L);
+        assertEquals(lengths, stats.readLengths());
+    }
+
+    @Test
+    public void should_detect_phred_64_encoding() throws IOException {
+        FastqQcStats stats = scan(plain("@r1\r\nACGT\r\n+\r\nhhh@\r\n"));
+
+        assertTrue(stats.isValid());
+        assertEquals(FastqQcStats.QualityEncoding.PHRED_64, stats.encoding());
+        assertEquals(30.0, stats.meanQuality(), 0.0001);
+    }
+
+    @Test
+    public void should_reject_mismatched_quality_length() throws IOException {
+        FastqQcStats stats = scan(plain("@r1\nACGT\n+\nIIII\n@r2\nACGT\n+\nIII\n"));
+
+        assertFalse(stats.isValid());
+        assertEquals(1, stats.reads());
+        assertEquals("read 2: quality length (3) does not match sequence length (4)", stats.error());
+    }
+
+    @Test
+    public void should_reject_truncated_gzip_file() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("@r").append(i).append("\nACGTACGTAC\n+\nIIIIIIIIII\n");
+        }
+        File file = gzip(sb.toString());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        FastqQcStats stats = scan(file);
+
+        assertFalse(stats.isValid());
+        assertNotNull(stats.error());
+    }
+
+    @Test
+    public void should_scan_files_in_parallel() throws IOException {
+        Map<String, File> files = new LinkedHashMap<>();
+        files.put("a_1.fq", plain("@r1\nACGT\n+\nIIII\n"));
+        files.put("a_2.fq", plain("@r1\nACGT\n+\n"));
+        files.put("b.fq", plain(""));
+
+        Map<String, FastqQcStats> results = new FastqQualityScanner(2).scan(files);
+
+        assertEquals(Arrays.asList("a_1.fq", "a_2.fq", "b.fq"), new ArrayList<>(results.keySet()));
+        assertTrue(results.get("a_1.fq").isValid());
+        assertEquals("read 1: incomplete record at the end of the file", results.get("a_2.fq").error());
+        assertFalse(results.get("b.fq").isValid());
+    }
+
+    @Test
+    public void should_compare_read_names_of_mates() throws IOException {
+        Map<String, File> files = new LinkedHashMap<>();
+        files.put("a_1.fq", gzip("@r1/1 extra\nACGT\n+\nIIII\n\n@r2/1\nACGT\n+\nIIII\n"));
+        files.put("a_2.fq", plain("@r1/2\nTTTT\n+\nIIII\n@r2/2 other\nTT\n+\nII\n"));
+        files.put("b_2.fq", plain("@r2/2\nTTTT\n+\nIIII\n@r1/2\nTTTT\n+\nIIII\n"));
+        files.put("c_2.fq", plain("@r1/2\nTTTT\n+\nIIII\n"));
+
+        Map<String, FastqQcStats> results = new FastqQualityScanner(2).scan(files);
+
+        assertTrue(results.get("a_1.fq").sameReadNames(results.get("a_2.fq")));
+        // same names in a different order
+        assertFalse(results.get("a_1.fq").sameReadNames(results.get("b_2.fq")));
+        assertFalse(results.get("a_1.fq").sameReadNames(results.get("c_2.fq")));
+    }
+
+    private FastqQcStats scan(File file) {
+        return new FastqQualityScanner(1).scan(Collections.singletonMap("test.fq", file)).get("test.fq");
+    }
+
+    private File plain(String content) throws IOException {
+        File file = File.createTempFile("test", ".fq");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+
+    private File gzip(String content) throws IOException {
+        File file = File.createTempFile("test", ".fq.gz");
+        file.deleteOnExit();
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+}
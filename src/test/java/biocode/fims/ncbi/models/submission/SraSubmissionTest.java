@@ -0,0 +1,62 @@
+package biocode.fims.ncbi.models.submission;
+
+import biocode.fims.models.User;
+import biocode.fims.ncbi.models.SraMetadata;
+import biocode.fims.ncbi.models.SraSubmissionData;
+import biocode.fims.rest.models.SraUploadMetadata;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class SraSubmissionTest {
+
+    @Test
+    public void should_marshal_file_checksums() throws JAXBException {
+        SraMetadata m = new SraMetadata();
+        m.put("sample_name", "sample1");
+        m.put("library_ID", "lib1");
+        m.put("filename", "sample1_1.fq.gz");
+        m.put("filename2", "sample1_2.fq.gz");
+
+        SraUploadMetadata metadata = new SraUploadMetadata();
+        metadata.bioProjectAccession = "PRJNA1";
+
+        User user = mock(User.class);
+        when(user.getSraUsername()).thenReturn("sraUser");
+
+        Map<String, String> checksums = new HashMap<>();
+        checksums.put("sample1_1.fq.gz", "0123456789abcdef0123456789abcdef");
+
+        SraSubmission submission = new SraSubmission(
+                new SraSubmissionData(Collections.emptyList(), Collections.singletonList(m)),
+                metadata,
+                user,
+                "https://example.com",
+                checksums
+        );
+
+        Marshaller marshaller = JAXBContext.newInstance(SraSubmission.class).createMarshaller();
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(submission, writer);
+        String xml = writer.toString();
+
+        assertTrue(xml, xml.contains("md5=\"0123456789abcdef0123456789abcdef\""));
+        assertTrue(xml, xml.contains("file_path=\"sample1_1.fq.gz\""));
+        // files w/o a checksum are written w/o the md5 attribute
+        assertTrue(xml, xml.contains("file_path=\"sample1_2.fq.gz\""));
+        assertEquals(xml, 1, xml.split("md5=").length - 1);
+    }
+}
@@ -0,0 +1,55 @@
+package biocode.fims.rest.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void should_parse_closed_and_open_ranges() {
+        ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+        assertEquals(0, range.start());
+        assertEquals(99, range.end());
+        assertEquals(100, range.length());
+        assertEquals("bytes 0-99/1000", range.contentRange(1000));
+
+        range = ByteRange.parse("bytes=500-", 1000);
+        assertEquals(500, range.start());
+        assertEquals(999, range.end());
+
+        range = ByteRange.parse("bytes=900-5000", 1000);
+        assertEquals(999, range.end());
+    }
+
+    @Test
+    public void should_parse_suffix_ranges() {
+        ByteRange range = ByteRange.parse("bytes=-100", 1000);
+        assertEquals(900, range.start());
+        assertEquals(999, range.end());
+
+        range = ByteRange.parse("bytes=-5000", 1000);
+        assertEquals(0, range.start());
+    }
+
+    @Test
+    public void should_ignore_missing_malformed_or_multiple_ranges() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=abc-", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+    }
+
+    @Test
+    public void should_not_satisfy_ranges_past_end() {
+        ByteRange range = ByteRange.parse("bytes=1000-", 1000);
+        assertFalse(range.isSatisfiable());
+        assertEquals("bytes */1000", range.contentRange(1000));
+
+        assertFalse(ByteRange.parse("bytes=-0", 1000).isSatisfiable());
+    }
+}
@@ -0,0 +1,139 @@
+package biocode.fims.rest.services.subResources;
+
+import biocode.fims.authorizers.ProjectAuthorizer;
+import biocode.fims.authorizers.QueryAuthorizer;
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.fasta.index.KmerSearchHit;
+import biocode.fims.models.Network;
+import biocode.fims.models.Project;
+import biocode.fims.models.User;
+import biocode.fims.rest.UserContext;
+import biocode.fims.service.FastaSequenceIndexService;
+import biocode.fims.service.ProjectService;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaResourceTest {
+
+    @Test
+    public void non_member_should_not_export_private_expeditions() throws IOException {
+        String fasta = export(false);
+
+        assertTrue(fasta.contains(">ark:/1public"));
+        assertFalse(fasta.contains(">ark:/1private"));
+    }
+
+    @Test
+    public void member_should_export_private_expeditions() throws IOException {
+        String fasta = export(true);
+
+        assertTrue(fasta.contains(">ark:/1public"));
+        assertTrue(fasta.contains(">ark:/1private"));
+    }
+
+    @Test
+    public void non_member_should_not_search_private_expeditions() {
+        List<KmerSearchHit> hits = search(false);
+
+        assertEquals(1, hits.size());
+        assertEquals("public", hits.get(0).expeditionCode());
+    }
+
+    @Test
+    public void member_should_search_private_expeditions() {
+        List<KmerSearchHit> hits = search(true);
+
+        assertEquals(2, hits.size());
+    }
+
+    private String export(boolean member) throws IOException {
+        FakeFastaRepository fastaRepository = new FakeFastaRepository();
+        fastaRepository.addRecord(1, "public", true, "ark:/1public", "COI", "ACGT");
+        fastaRepository.addRecord(1, "private", false, "ark:/1private", "COI", "ACGT");
+
+        FastaResource resource = resource(member, fastaRepository, null);
+
+        Response response = resource.export(1, "fastaSequence", Collections.emptyList(), Collections.emptyList(), "fasta");
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(os);
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private List<KmerSearchHit> search(boolean member) {
+        String sequence = "ACGTTGCAACGGTACCATGACGTTAGC";
+
+        FakeFastaRepository fastaRepository = new FakeFastaRepository();
+        fastaRepository.addPublicExpedition("public");
+        fastaRepository.addSequence(1, "public", "1", "COI", sequence);
+        fastaRepository.addSequence(1, "private", "2", "COI", sequence);
+
+        FastaResource resource = resource(member, fastaRepository, new FastaSequenceIndexService(fastaRepository, 8));
+
+        return resource.search(1, "fastaSequence", "COI", 10, sequence);
+    }
+
+    private FastaResource resource(boolean member, FakeFastaRepository fastaRepository,
+                                   FastaSequenceIndexService fastaSequenceIndexService) {
+        User user = mock(User.class);
+        UserContext context = mock(UserContext.class);
+        when(context.getUser()).thenReturn(user);
+
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        Network network = mock(Network.class);
+        when(network.getId()).thenReturn(1);
+
+        Project project = mock(Project.class);
+        when(project.getProjectId()).thenReturn(1);
+        when(project.getNetwork()).thenReturn(network);
+        when(project.getProjectConfig()).thenReturn(config);
+
+        ProjectService projectService = mock(ProjectService.class);
+        when(projectService.getProject(1)).thenReturn(project);
+        when(projectService.isUserMemberOfProject(user, 1)).thenReturn(member);
+
+        // the project is public, so the query is authorized for everyone
+        QueryAuthorizer queryAuthorizer = mock(QueryAuthorizer.class);
+        when(queryAuthorizer.authorizedQuery(Collections.singletonList(1), Collections.emptyList(), user)).thenReturn(true);
+
+        // the project is public, so all users have access
+        ProjectAuthorizer projectAuthorizer = mock(ProjectAuthorizer.class);
+        when(projectAuthorizer.userHasAccess(user, project)).thenReturn(true);
+
+        return new FastaResource(null, projectService, projectAuthorizer, queryAuthorizer, fastaSequenceIndexService,
+                fastaRepository, null, null, null, null, null) {
+            {
+                userContext = context;
+            }
+        };
+    }
+}
@@ -0,0 +1,245 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.fasta.FastaExportCriteria;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.FastaStreamWriter;
+import biocode.fims.records.GenericRecord;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaExportCacheTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null);
+
+    @Test
+    public void should_cache_exports() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        ProjectConfig config = config(null);
+        int[] generated = {0};
+
+        File first = cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> {
+            generated[0]++;
+            os.write(">1\nACGT\n".getBytes(StandardCharsets.UTF_8));
+        });
+        File second = cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+
+        assertEquals(1, generated[0]);
+        assertEquals(">1\nACGT\n", read(first));
+        assertEquals(">1\nACGT\n", read(second));
+        assertEquals(8, cache.size());
+
+        // visibility is part of the key
+        cache.get(1, new FastaExportCriteria(1, "fastaSequence", null, null, true), config, FastaStreamWriter.Format.FASTA,
+                os -> generated[0]++);
+        assertEquals(2, generated[0]);
+    }
+
+    @Test
+    public void should_regenerate_when_db_versions_change() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        ProjectConfig config = config(null);
+        int[] generated = {0};
+
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+
+        // modified by another server, so onSave is not called
+        repository.addRecord(1, "exp2", true, "ark:/2", "COI", "ACGT");
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(2, generated[0]);
+
+        // exports of other expeditions are not affected
+        FastaExportCriteria exp1 = new FastaExportCriteria(1, "fastaSequence", Collections.singleton("exp1"), null);
+        cache.get(1, exp1, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        repository.addRecord(1, "exp2", true, "ark:/3", "COI", "ACGT");
+        cache.get(1, exp1, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(3, generated[0]);
+    }
+
+    @Test
+    public void should_regenerate_when_header_template_changes() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        int[] generated = {0};
+
+        cache.get(1, CRITERIA, config(null), FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        cache.get(1, CRITERIA, config("[marker = {marker}]"), FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(2, generated[0]);
+
+        cache.get(1, CRITERIA, config("[marker = {marker}]"), FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(2, generated[0]);
+    }
+
+    @Test
+    public void should_regenerate_when_saved_by_another_server() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        FastaExportCache otherServer = new FastaExportCache(repository, directory());
+        ProjectConfig config = config(null);
+        int[] generated = {0};
+
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+
+        // the parent Tissue records were saved by another server
+        otherServer.onSave(1, new Dataset(Collections.singletonList(
+                new RecordSet(parentEntity(), Collections.singletonList(parentRecord()), false)
+        )));
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(2, generated[0]);
+
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(2, generated[0]);
+    }
+
+    @Test
+    public void should_generate_concurrent_requests_once() throws Exception {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        ProjectConfig config = config(null);
+        AtomicInteger generated = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<File> first = executor.submit(() -> cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> {
+                generated.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                os.write(">1\nACGT\n".getBytes(StandardCharsets.UTF_8));
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Future<File> second = executor.submit(() -> cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA,
+                    os -> generated.incrementAndGet()));
+            release.countDown();
+
+            assertEquals(">1\nACGT\n", read(first.get(5, TimeUnit.SECONDS)));
+            assertEquals(">1\nACGT\n", read(second.get(5, TimeUnit.SECONDS)));
+            assertEquals(1, generated.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_remove_entries_for_saved_expeditions() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory());
+        ProjectConfig config = config(null);
+
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> os.write(new byte[10]));
+        assertEquals(10, cache.size());
+
+        cache.onSave(1, new Dataset(Collections.singletonList(
+                new RecordSet(new FastaEntity("fastaSequence"), Collections.singletonList(record()), false)
+        )));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void should_evict_least_recently_used_entries() throws IOException {
+        FakeFastaRepository repository = repository();
+        FastaExportCache cache = new FastaExportCache(repository, directory(), 15);
+        ProjectConfig config = config(null);
+
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> os.write(new byte[10]));
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.ZIP, os -> os.write(new byte[10]));
+        assertEquals(10, cache.size());
+
+        int[] generated = {0};
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.ZIP, os -> generated[0]++);
+        assertEquals(0, generated[0]);
+        cache.get(1, CRITERIA, config, FastaStreamWriter.Format.FASTA, os -> generated[0]++);
+        assertEquals(1, generated[0]);
+    }
+
+    @Test
+    public void should_clear_directory_on_startup() throws IOException {
+        File directory = directory();
+        File stale = new File(directory, "stale");
+        Files.write(stale.toPath(), new byte[10]);
+
+        FastaExportCache cache = new FastaExportCache(repository(), directory);
+
+        assertFalse(stale.exists());
+        assertEquals(0, cache.size());
+    }
+
+    private ProjectConfig config(String headerTemplate) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.getHeaderTemplate()).thenReturn(headerTemplate);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+        return config;
+    }
+
+    private Entity parentEntity() {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        return parentEntity;
+    }
+
+    private GenericRecord parentRecord() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("tissueID", "1");
+        return new GenericRecord(properties, "ark:/2", 1, "exp1", true);
+    }
+
+    private FakeFastaRepository repository() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, "ark:/1", "COI", "ACGT");
+        return repository;
+    }
+
+    private FastaRecord record() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), "1");
+        properties.put(FastaProps.MARKER.uri(), "COI");
+        properties.put(FastaProps.SEQUENCE.uri(), "ACGT");
+        return new FastaRecord(properties, "ark:/1", 1, "exp1", true);
+    }
+
+    private File directory() throws IOException {
+        File directory = Files.createTempDirectory("fasta-export-cache").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
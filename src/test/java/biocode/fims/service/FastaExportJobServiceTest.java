@@ -0,0 +1,197 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.fasta.FastaExportCriteria;
+import biocode.fims.fasta.FastaExportJob;
+import biocode.fims.fasta.FastaStreamWriter;
+import biocode.fims.fimsExceptions.FimsRuntimeException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaExportJobServiceTest {
+    private static final FastaExportCriteria CRITERIA = new FastaExportCriteria(1, "fastaSequence", null, null);
+
+    @Test
+    public void should_complete_jobs() throws Exception {
+        FastaExportJobService service = new FastaExportJobService(directory(), 1);
+
+        try {
+            FastaExportJob job = service.submit(writer(repository()), FastaStreamWriter.Format.FASTA, null, 1);
+            awaitDone(job);
+
+            assertEquals(FastaExportJob.Status.COMPLETE, job.status());
+            assertEquals(2, job.recordsWritten());
+            assertEquals(job.file().length(), job.bytesWritten());
+            assertTrue(job.file().exists());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void should_cancel_queued_and_running_jobs() throws Exception {
+        BlockingRepository repository = new BlockingRepository();
+        FastaExportJobService service = new FastaExportJobService(directory(), 1);
+
+        try {
+            FastaExportJob running = service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+            FastaExportJob queued = service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+            assertTrue(repository.started.await(5, TimeUnit.SECONDS));
+
+            service.cancel(queued.id());
+            assertEquals(FastaExportJob.Status.CANCELLED, queued.status());
+
+            service.cancel(running.id());
+            // a running job stops at the next record written
+            assertEquals(FastaExportJob.Status.RUNNING, running.status());
+            repository.release.countDown();
+            awaitDone(running);
+
+            assertEquals(FastaExportJob.Status.CANCELLED, running.status());
+            assertFalse(running.file().exists());
+            assertFalse(queued.file().exists());
+        } finally {
+            repository.release.countDown();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void should_reject_jobs_when_queue_is_full() throws Exception {
+        BlockingRepository repository = new BlockingRepository();
+        FastaExportJobService service = new FastaExportJobService(directory(), 1, 1, FastaExportJobService.DEFAULT_EXPIRATION);
+
+        try {
+            service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+            assertTrue(repository.started.await(5, TimeUnit.SECONDS));
+            FastaExportJob queued = service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+
+            try {
+                service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+                fail("expected FimsRuntimeException");
+            } catch (FimsRuntimeException e) {
+                assertEquals(503, e.getHttpStatusCode());
+            }
+
+            // cancelling a queued job frees its slot
+            service.cancel(queued.id());
+            service.submit(writer(repository), FastaStreamWriter.Format.FASTA, null, 1);
+        } finally {
+            repository.release.countDown();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void should_remove_expired_jobs() throws Exception {
+        FastaExportJobService service = new FastaExportJobService(directory(), 1, 1, 1);
+
+        try {
+            FastaExportJob job = service.submit(writer(repository()), FastaStreamWriter.Format.FASTA, null, 1);
+            awaitDone(job);
+            Thread.sleep(10);
+
+            service.removeExpired();
+
+            assertNull(service.get(job.id()));
+            assertFalse(job.file().exists());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void should_remove_files_from_previous_runs_on_startup() throws IOException {
+        File directory = directory();
+        File old = new File(directory, "old.fasta");
+        assertTrue(old.createNewFile());
+
+        FastaExportJobService service = new FastaExportJobService(directory, 1);
+        service.shutdown();
+
+        assertFalse(old.exists());
+    }
+
+    private static void awaitDone(FastaExportJob job) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!job.status().isDone() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        assertTrue(job.status().isDone());
+    }
+
+    private static FakeFastaRepository repository() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        repository.addRecord(1, "exp1", true, "ark:/1", "COI", "ACGT");
+        repository.addRecord(1, "exp1", true, "ark:/2", "COI", "ACGT");
+        return repository;
+    }
+
+    private static FastaStreamWriter writer(FakeFastaRepository repository) {
+        Entity parentEntity = mock(Entity.class);
+        when(parentEntity.getConceptAlias()).thenReturn("Tissue");
+        when(parentEntity.getUniqueKey()).thenReturn("tissueID");
+
+        FastaEntity fastaEntity = mock(FastaEntity.class);
+        when(fastaEntity.getConceptAlias()).thenReturn("fastaSequence");
+        when(fastaEntity.getParentEntity()).thenReturn("Tissue");
+        when(fastaEntity.type()).thenReturn(FastaEntity.TYPE);
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entity("fastaSequence")).thenReturn(fastaEntity);
+        when(config.entity("Tissue")).thenReturn(parentEntity);
+
+        return new FastaStreamWriter(repository, 1, CRITERIA, config);
+    }
+
+    private static File directory() throws IOException {
+        File directory = Files.createTempDirectory("fasta-export-jobs").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    /**
+     * blocks streaming records until released
+     */
+    private static class BlockingRepository extends FakeFastaRepository {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private BlockingRepository() {
+            addRecord(1, "exp1", true, "ark:/1", "COI", "ACGT");
+            addRecord(1, "exp1", true, "ark:/2", "COI", "ACGT");
+        }
+
+        @Override
+        public void streamRecords(int networkId, FastaExportCriteria criteria, String parentConceptAlias,
+                                  String parentUniqueKey, List<String> parentAttributes, int fetchSize,
+                                  Consumer<Map<String, Object>> consumer) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            super.streamRecords(networkId, criteria, parentConceptAlias, parentUniqueKey, parentAttributes, fetchSize, consumer);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.Entity;
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.config.project.ProjectConfig;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.models.Network;
+import biocode.fims.models.Project;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author rjewing
+ */
+public class FastaSequenceHashMigrationTest {
+
+    @Test
+    public void should_backfill_each_fasta_entity_table_once() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+
+        ProjectService projectService = mock(ProjectService.class);
+        when(projectService.getProjects()).thenReturn(Arrays.asList(project(1), project(1), project(2)));
+
+        new FastaSequenceHashMigration(repository, projectService).run();
+
+        assertEquals(Arrays.asList("1:fastaSequence", "2:fastaSequence"), repository.backfilledTables);
+    }
+
+    private Project project(int networkId) {
+        Entity tissue = mock(Entity.class);
+        when(tissue.getConceptAlias()).thenReturn("Tissue");
+
+        ProjectConfig config = mock(ProjectConfig.class);
+        when(config.entities()).thenReturn(Arrays.asList(tissue, new FastaEntity("fastaSequence")));
+
+        Network network = mock(Network.class);
+        when(network.getId()).thenReturn(networkId);
+
+        Project project = mock(Project.class);
+        when(project.getNetwork()).thenReturn(network);
+        when(project.getProjectConfig()).thenReturn(config);
+        return project;
+    }
+}
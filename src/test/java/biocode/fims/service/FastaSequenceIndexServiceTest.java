@@ -0,0 +1,105 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.fasta.index.KmerSearchHit;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaSequenceIndexServiceTest {
+    private static final Set<Integer> PROJECTS = Collections.singleton(1);
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    @Test
+    public void should_load_index_on_first_search() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        String sequence = randomSequence(new Random(1), 100);
+        repository.addSequence(1, "exp", "1", "COI", sequence);
+        repository.addSequence(1, "exp", "2", "16S", sequence);
+
+        FastaSequenceIndexService service = new FastaSequenceIndexService(repository, 8);
+
+        List<KmerSearchHit> hits = service.search(1, "fastaSequence", "COI", sequence, PROJECTS, 10);
+        assertEquals(1, hits.size());
+        assertEquals("1", hits.get(0).identifier());
+
+        service.search(1, "fastaSequence", "COI", sequence, PROJECTS, 10);
+        assertEquals(1, repository.streamCount);
+    }
+
+    @Test
+    public void should_apply_saves_received_while_loading() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        Random random = new Random(2);
+        String stale = randomSequence(random, 100);
+        String updated = randomSequence(random, 100);
+        repository.addSequence(1, "exp", "1", "COI", randomSequence(random, 100));
+        repository.addSequence(1, "exp", "2", "COI", stale);
+
+        FastaSequenceIndexService service = new FastaSequenceIndexService(repository, 8);
+
+        // record 2 is updated after the load read the first row, but before it read record 2
+        repository.onStream(() -> service.onSave(1, dataset(record("2", "COI", updated))));
+
+        List<KmerSearchHit> hits = service.search(1, "fastaSequence", "COI", updated, PROJECTS, 1);
+        assertEquals("2", hits.get(0).identifier());
+        assertEquals(1, hits.get(0).score(), 0);
+
+        for (KmerSearchHit hit : service.search(1, "fastaSequence", "COI", stale, PROJECTS, 10)) {
+            assertTrue(hit.score() < .5);
+        }
+    }
+
+    @Test
+    public void should_evict_least_recently_used_index() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        String sequence = randomSequence(new Random(3), 100);
+        repository.addSequence(1, "exp", "1", "COI", sequence);
+        repository.addSequence(1, "exp", "2", "16S", sequence);
+
+        FastaSequenceIndexService service = new FastaSequenceIndexService(repository, 8, 1);
+
+        service.search(1, "fastaSequence", "COI", sequence, PROJECTS, 10);
+        service.search(1, "fastaSequence", "16S", sequence, PROJECTS, 10);
+        assertEquals(2, repository.streamCount);
+
+        // the most recently used index is kept
+        service.search(1, "fastaSequence", "16S", sequence, PROJECTS, 10);
+        assertEquals(2, repository.streamCount);
+
+        service.search(1, "fastaSequence", "COI", sequence, PROJECTS, 10);
+        assertEquals(3, repository.streamCount);
+    }
+
+    private Dataset dataset(FastaRecord... records) {
+        return new Dataset(Collections.singletonList(
+                new RecordSet(new FastaEntity("fastaSequence"), Arrays.asList(records), false)
+        ));
+    }
+
+    private FastaRecord record(String identifier, String marker, String sequence) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), identifier);
+        properties.put(FastaProps.MARKER.uri(), marker);
+        properties.put(FastaProps.SEQUENCE.uri(), sequence);
+        return new FastaRecord(properties, "ark:/1", 1, "exp", true);
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(BASES[random.nextInt(BASES.length)]);
+        }
+        return sb.toString();
+    }
+}
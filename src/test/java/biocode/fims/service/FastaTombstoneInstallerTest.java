@@ -0,0 +1,43 @@
+package biocode.fims.service;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FakeFastaRepository;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.records.RecordSet;
+import biocode.fims.run.Dataset;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaTombstoneInstallerTest {
+
+    @Test
+    public void should_install_tombstones_once_per_entity_table() {
+        FakeFastaRepository repository = new FakeFastaRepository();
+        FastaTombstoneInstaller installer = new FastaTombstoneInstaller(repository);
+
+        installer.onSave(1, dataset());
+        installer.onSave(1, dataset());
+        installer.onSave(2, dataset());
+
+        assertEquals(Arrays.asList("1:fastaSequence", "2:fastaSequence"), repository.installedTombstones);
+    }
+
+    private Dataset dataset() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), "1");
+        properties.put(FastaProps.MARKER.uri(), "COI");
+        properties.put(FastaProps.SEQUENCE.uri(), "ACGT");
+        FastaRecord record = new FastaRecord(properties, "ark:/1", 1, "exp1", true);
+
+        return new Dataset(Collections.singletonList(
+                new RecordSet(new FastaEntity("fastaSequence"), Collections.singletonList(record), false)
+        ));
+    }
+}
@@ -0,0 +1,97 @@
+package biocode.fims.utils;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class CompressionTest {
+
+    @Test
+    public void should_detect_compression_from_magic_bytes() throws IOException {
+        assertEquals(Compression.GZIP, Compression.detect(write(gzip(">a\nACGT\n"))));
+        assertEquals(Compression.BZIP2, Compression.detect(write(new byte[]{'B', 'Z', 'h', '9', 0x31})));
+        assertEquals(Compression.ZSTD, Compression.detect(write(new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0})));
+        assertEquals(Compression.NONE, Compression.detect(write(">a\nACGT\n".getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    @Test
+    public void should_not_detect_compression_from_truncated_magic_bytes() throws IOException {
+        assertEquals(Compression.NONE, Compression.detect(write(new byte[0])));
+        assertEquals(Compression.NONE, Compression.detect(write(new byte[]{0x1F})));
+        assertEquals(Compression.NONE, Compression.detect(write(new byte[]{'B', 'Z'})));
+        assertEquals(Compression.NONE, Compression.detect(write(new byte[]{0x28, (byte) 0xB5, 0x2F})));
+    }
+
+    @Test
+    public void should_ignore_extension_when_detecting_compression() throws IOException {
+        File file = File.createTempFile("test", ".fasta.gz");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(">a\nACGT\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        assertEquals(Compression.NONE, Compression.detect(file));
+    }
+
+    @Test
+    public void should_determine_compression_from_extension() {
+        assertEquals(Compression.GZIP, Compression.fromExtension("gz"));
+        assertEquals(Compression.GZIP, Compression.fromExtension("GZIP"));
+        assertEquals(Compression.BZIP2, Compression.fromExtension("bz2"));
+        assertEquals(Compression.ZSTD, Compression.fromExtension("zst"));
+        assertEquals(Compression.NONE, Compression.fromExtension("fasta"));
+        assertEquals(Compression.NONE, Compression.fromExtension(null));
+    }
+
+    @Test
+    public void should_decompress_gzip_file() throws IOException {
+        File file = write(gzip(">a\nACGT\n"));
+
+        try (InputStream is = Compression.openDecompressed(file)) {
+            assertEquals(">a\nACGT\n", read(is));
+        }
+    }
+
+    @Test
+    public void should_not_decompress_uncompressed_file() throws IOException {
+        File file = write(">a\nACGT\n".getBytes(StandardCharsets.US_ASCII));
+
+        try (InputStream is = Compression.openDecompressed(file)) {
+            assertEquals(">a\nACGT\n", read(is));
+        }
+    }
+
+    private byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(bos)) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return bos.toByteArray();
+    }
+
+    private File write(byte[] content) throws IOException {
+        File file = File.createTempFile("test", ".tmp");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content);
+        }
+        return file;
+    }
+
+    private String read(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, n);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
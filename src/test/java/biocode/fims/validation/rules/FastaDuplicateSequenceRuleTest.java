@@ -0,0 +1,94 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import biocode.fims.validation.messages.Message;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaDuplicateSequenceRuleTest {
+
+    @Test
+    public void should_be_valid_for_unique_sequences() {
+        FastaDuplicateSequenceRule rule = new FastaDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        assertTrue(rule.run(recordSet(
+                record("1", "COI", "ACGT"),
+                record("2", "COI", "ACGTA"),
+                // same sequence, different marker
+                record("3", "16S", "ACGT")
+        ), messages));
+        assertEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_ignore_empty_sequences() {
+        FastaDuplicateSequenceRule rule = new FastaDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        assertTrue(rule.run(recordSet(record("1", "COI", ""), record("2", "COI", "")), messages));
+        assertEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_warn_for_duplicate_sequences_in_upload() {
+        FastaDuplicateSequenceRule rule = new FastaDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        // case, U/T & gaps are ignored
+        assertFalse(rule.run(recordSet(
+                record("1", "COI", "ACGT"),
+                record("2", "COI", "ac-gu"),
+                record("3", "COI", "A.CGT")
+        ), messages));
+
+        EntityMessages expectedMessages = new EntityMessages("fastaSequence");
+        expectedMessages.addWarningMessage("Duplicate sequences", new Message("\"2\" has the same sequence as \"1\""));
+        expectedMessages.addWarningMessage("Duplicate sequences", new Message("\"3\" has the same sequence as \"1\""));
+        assertEquals(expectedMessages, messages);
+    }
+
+    @Test
+    public void should_report_duplicates_of_existing_sequences() {
+        FastaDuplicateSequenceRule rule = new FastaDuplicateSequenceRule(RuleLevel.ERROR);
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        FastaRecord existing = record("1", "COI", "ACGT");
+        existing.setDuplicateOf("old", "exp1");
+
+        assertFalse(rule.run(recordSet(existing), messages));
+        assertTrue(rule.hasError());
+
+        EntityMessages expectedMessages = new EntityMessages("fastaSequence");
+        expectedMessages.addErrorMessage(
+                "Duplicate sequences",
+                new Message("\"1\" has the same sequence as the existing record \"old\" in expedition \"exp1\"")
+        );
+        assertEquals(expectedMessages, messages);
+    }
+
+    private RecordSet recordSet(Record... records) {
+        return new RecordSet(new FastaEntity("fastaSequence"), Arrays.asList(records), false);
+    }
+
+    private FastaRecord record(String identifier, String marker, String sequence) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), identifier);
+        properties.put(FastaProps.MARKER.uri(), marker);
+        properties.put(FastaProps.SEQUENCE.uri(), sequence);
+        return new FastaRecord(properties, "ark:/1", 1, "exp", true);
+    }
+}
@@ -0,0 +1,115 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaNearDuplicateSequenceRuleTest {
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    @Test
+    public void should_be_valid_for_unrelated_sequences() {
+        FastaNearDuplicateSequenceRule rule = new FastaNearDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        Random random = new Random(1);
+
+        assertTrue(rule.run(recordSet(
+                record("1", "COI", randomSequence(random, 600)),
+                record("2", "COI", randomSequence(random, 600))
+        ), messages));
+        assertEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_warn_for_near_duplicate_sequences() {
+        FastaNearDuplicateSequenceRule rule = new FastaNearDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        String sequence = randomSequence(new Random(2), 600);
+
+        assertFalse(rule.run(recordSet(
+                record("1", "COI", sequence),
+                record("2", "COI", mutate(sequence, 300))
+        ), messages));
+        assertNotEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_ignore_exact_duplicates_and_other_markers() {
+        FastaNearDuplicateSequenceRule rule = new FastaNearDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        String sequence = randomSequence(new Random(3), 600);
+
+        assertTrue(rule.run(recordSet(
+                record("1", "COI", sequence),
+                record("2", "COI", sequence),
+                record("3", "16S", mutate(sequence, 300))
+        ), messages));
+        assertEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_bound_comparisons_for_large_clusters() {
+        FastaNearDuplicateSequenceRule rule = new FastaNearDuplicateSequenceRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        String sequence = randomSequence(new Random(4), 600);
+
+        // every record shares most bands, so comparing all pairs in a bucket would be ~ 4000^2 / 2 * 32 comparisons
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            records.add(record(String.valueOf(i), "COI", mutate(sequence, i % 580 + 10)));
+        }
+
+        long start = System.currentTimeMillis();
+        assertFalse(rule.run(recordSet(records.toArray(new Record[0])), messages));
+        assertTrue("took " + (System.currentTimeMillis() - start) + "ms", System.currentTimeMillis() - start < 30000);
+    }
+
+    @Test
+    public void should_require_positive_window() {
+        List<String> messages = new ArrayList<>();
+
+        assertFalse(new FastaNearDuplicateSequenceRule(16, 128, 32, .9, 0, RuleLevel.WARNING).validConfiguration(messages, null));
+        assertEquals(
+                Collections.singletonList("Invalid FastaNearDuplicateSequence Rule configuration. window must be greater then 0"),
+                messages
+        );
+        assertTrue(new FastaNearDuplicateSequenceRule().validConfiguration(new ArrayList<>(), null));
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(BASES[random.nextInt(BASES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(String sequence, int position) {
+        char[] chars = sequence.toCharArray();
+        chars[position] = chars[position] == 'A' ? 'C' : 'A';
+        return new String(chars);
+    }
+
+    private RecordSet recordSet(Record... records) {
+        return new RecordSet(new FastaEntity("fastaSequence"), Arrays.asList(records), false);
+    }
+
+    private FastaRecord record(String identifier, String marker, String sequence) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), identifier);
+        properties.put(FastaProps.MARKER.uri(), marker);
+        properties.put(FastaProps.SEQUENCE.uri(), sequence);
+        return new FastaRecord(properties, "ark:/1", 1, "exp", true);
+    }
+}
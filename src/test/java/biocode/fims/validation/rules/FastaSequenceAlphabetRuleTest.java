@@ -0,0 +1,109 @@
+package biocode.fims.validation.rules;
+
+import biocode.fims.config.models.FastaEntity;
+import biocode.fims.fasta.FastaProps;
+import biocode.fims.fasta.FastaRecord;
+import biocode.fims.records.Record;
+import biocode.fims.records.RecordSet;
+import biocode.fims.validation.messages.EntityMessages;
+import biocode.fims.validation.messages.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author rjewing
+ */
+public class FastaSequenceAlphabetRuleTest {
+
+    @Test
+    public void should_be_valid_for_iupac_sequences() {
+        FastaSequenceAlphabetRule rule = new FastaSequenceAlphabetRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        assertTrue(rule.run(recordSet(record("1", "ACGT"), record("2", "acgu-.."), record("3", "")), messages));
+        assertFalse(rule.hasError());
+        assertEquals(new EntityMessages("fastaSequence"), messages);
+    }
+
+    @Test
+    public void should_reject_invalid_characters() {
+        FastaSequenceAlphabetRule rule = new FastaSequenceAlphabetRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        Record invalid = record("2", "ACGXTZ");
+
+        assertFalse(rule.run(recordSet(record("1", "ACGT"), invalid), messages));
+        assertTrue(rule.hasError());
+
+        EntityMessages expectedMessages = new EntityMessages("fastaSequence");
+        expectedMessages.addErrorMessage(
+                "Invalid sequence characters",
+                new Message("\"2\" contains 2 invalid sequence character(s). The first invalid character is 'X'")
+        );
+        assertEquals(expectedMessages, messages);
+    }
+
+    @Test
+    public void should_warn_for_ambiguous_sequences() {
+        FastaSequenceAlphabetRule rule = new FastaSequenceAlphabetRule(.1, RuleLevel.ERROR);
+        EntityMessages messages = new EntityMessages("fastaSequence");
+
+        // 1 of 10 bases is ambiguous, which is not greater then the max
+        assertTrue(rule.run(recordSet(record("1", "ACGTACGTAN--"), record("2", "ACGTNNNN")), messages));
+        assertFalse(rule.hasError());
+
+        EntityMessages expectedMessages = new EntityMessages("fastaSequence");
+        expectedMessages.addWarningMessage("Ambiguous sequences", new Message("\"2\" has 50.0% ambiguous bases"));
+        assertEquals(expectedMessages, messages);
+    }
+
+    @Test
+    public void should_report_messages_in_record_order_for_large_uploads() {
+        FastaSequenceAlphabetRule rule = new FastaSequenceAlphabetRule();
+        EntityMessages messages = new EntityMessages("fastaSequence");
+        EntityMessages expectedMessages = new EntityMessages("fastaSequence");
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            if (i % 1000 == 999) {
+                records.add(record(String.valueOf(i), "ACGT!"));
+                expectedMessages.addErrorMessage(
+                        "Invalid sequence characters",
+                        new Message("\"" + i + "\" contains 1 invalid sequence character(s). The first invalid character is '!'")
+                );
+            } else {
+                records.add(record(String.valueOf(i), "acgtu"));
+            }
+        }
+
+        assertFalse(rule.run(new RecordSet(new FastaEntity("fastaSequence"), records, false), messages));
+        assertEquals(expectedMessages, messages);
+    }
+
+    @Test
+    public void should_require_max_ambiguous_fraction_between_0_and_1() {
+        List<String> messages = new ArrayList<>();
+
+        assertFalse(new FastaSequenceAlphabetRule(1.5, RuleLevel.ERROR).validConfiguration(messages, new FastaEntity("fastaSequence")));
+        assertEquals(1, messages.size());
+        assertTrue(new FastaSequenceAlphabetRule(0, RuleLevel.ERROR).validConfiguration(messages, new FastaEntity("fastaSequence")));
+    }
+
+    private RecordSet recordSet(Record... records) {
+        List<Record> list = new ArrayList<>();
+        for (Record r : records) list.add(r);
+        return new RecordSet(new FastaEntity("fastaSequence"), list, false);
+    }
+
+    private Record record(String identifier, String sequence) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(FastaProps.IDENTIFIER.uri(), identifier);
+        properties.put(FastaProps.SEQUENCE.uri(), sequence);
+        return new FastaRecord(properties, "ark:/1", 1, "exp", true);
+    }
+}